@@ -14,8 +14,8 @@ import kotlin.random.Random
  * - value semantics for equals/hashCode
  * - toString() that outputs hex
  * - default serialization as Base64
- * - TODO make immutable
- * - TODO implement List<Byte>
+ *
+ * See [ImmutableBinaryData] for an immutable variant that caches its hash, implements List<Byte> and supports slicing.
  */
 @Serializable(with = BinaryData.Serializer::class)
 class BinaryData(
@@ -41,7 +41,7 @@ class BinaryData(
                 else -> false
             }
 
-    // TODO if this were immutable, this could be cached
+    // not cached because data is mutable, see ImmutableBinaryData
     override fun hashCode(): Int =
             data.contentHashCode()
     
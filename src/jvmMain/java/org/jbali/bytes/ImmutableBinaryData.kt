@@ -0,0 +1,208 @@
+package org.jbali.bytes
+
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.Serializable
+import org.jbali.kotser.Transformer
+import org.jbali.kotser.transformingSerializer
+import java.io.ByteArrayInputStream
+import java.io.FilterOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.nio.ByteBuffer
+import java.nio.charset.Charset
+import java.util.Arrays
+import java.util.HexFormat
+import java.util.Objects
+
+/**
+ * Immutable variant of [BinaryData], which:
+ * - has value semantics for equals/hashCode, with the hash computed only once
+ * - implements [List]<[Byte]>, with [slice]/[subList] returning views that share the same backing array
+ * - can be read without copying through [asByteBuffer] and [inputStream]
+ * - can be encoded to and decoded from Base64 in a streaming fashion
+ * - has default serialization as Base64
+ *
+ * Instances can only be created by copying, or by [wrap]ping an array that the caller promises not to modify.
+ */
+@Serializable(with = ImmutableBinaryData.Serializer::class)
+class ImmutableBinaryData private constructor(
+    private val array: ByteArray,
+    private val offset: Int,
+    private val length: Int,
+) : AbstractList<Byte>(), RandomAccess {
+
+    // 0 also means not computed yet, like String does
+    private var hash = 0
+
+    override val size get() = length
+
+    override fun get(index: Int): Byte {
+        Objects.checkIndex(index, length)
+        return array[offset + index]
+    }
+
+    /**
+     * @return a view of the bytes from [fromIndex] (inclusive) to [toIndex] (exclusive), without copying.
+     */
+    fun slice(fromIndex: Int, toIndex: Int = length): ImmutableBinaryData {
+        Objects.checkFromToIndex(fromIndex, toIndex, length)
+        return when {
+            fromIndex == 0 && toIndex == length -> this
+            fromIndex == toIndex -> EMPTY
+            else -> ImmutableBinaryData(array, offset + fromIndex, toIndex - fromIndex)
+        }
+    }
+
+    override fun subList(fromIndex: Int, toIndex: Int): ImmutableBinaryData =
+        slice(fromIndex, toIndex)
+
+    /** @return a new array with a copy of the bytes. */
+    fun toByteArray(): ByteArray =
+        array.copyOfRange(offset, offset + length)
+
+    fun copyInto(destination: ByteArray, destinationOffset: Int = 0): ByteArray =
+        array.copyInto(destination, destinationOffset, offset, offset + length)
+
+    /** @return a mutable [BinaryData] with a copy of the bytes. */
+    fun toBinaryData() = BinaryData(toByteArray())
+
+    /** @return a read-only [ByteBuffer] view of the bytes, positioned at 0. */
+    fun asByteBuffer(): ByteBuffer =
+        ByteBuffer.wrap(array, offset, length).slice().asReadOnlyBuffer()
+
+    /** @return an [InputStream] that reads the bytes directly from the backing array. */
+    fun inputStream(): InputStream =
+        ByteArrayInputStream(array, offset, length)
+
+    fun writeTo(out: OutputStream) {
+        out.write(array, offset, length)
+    }
+
+    fun decodeToString(charset: Charset = Charsets.UTF_8) =
+        String(array, offset, length, charset)
+
+    fun toHexString(): String =
+        HexFormat.of().withUpperCase().formatHex(array, offset, offset + length)
+
+    fun toBase64(encoding: Base64Encoding<*> = Base64Encoding.Basic): String =
+        encoding.encoder.encode(asByteBuffer()).let {
+            String(it.array(), it.arrayOffset(), it.remaining(), Charsets.ISO_8859_1)
+        }
+
+    /**
+     * Write the bytes to [out] encoded as Base64, without creating intermediate strings or arrays.
+     * Does not close [out].
+     */
+    fun writeBase64To(out: OutputStream, encoding: Base64Encoding<*> = Base64Encoding.Basic) {
+        // closing the encoding stream is required to write the final bytes
+        encoding.encoder.wrap(NonClosingOutputStream(out)).use(::writeTo)
+    }
+
+    override fun toString(): String =
+        "ImmutableBinaryData(${toHexString()})"
+
+    override fun equals(other: Any?): Boolean =
+        when {
+            other === this -> true
+            other is ImmutableBinaryData ->
+                length == other.length &&
+                        // if both hashes are known, they can short-circuit the comparison
+                        (hash == 0 || other.hash == 0 || hash == other.hash) &&
+                        Arrays.equals(array, offset, offset + length, other.array, other.offset, other.offset + other.length)
+            // as required by the List contract
+            else -> super.equals(other)
+        }
+
+    /**
+     * Returns the same value as [ByteArray.contentHashCode] for the same bytes, which also satisfies the [List] contract.
+     */
+    override fun hashCode(): Int {
+        var h = hash
+        if (h == 0) {
+            h = 1
+            for (i in offset until offset + length) {
+                h = 31 * h + array[i]
+            }
+            hash = h
+        }
+        return h
+    }
+
+    companion object {
+
+        @JvmField val EMPTY = ImmutableBinaryData(ByteArray(0), 0, 0)
+
+        /** Create an instance with a copy of the given range of [bytes]. */
+        @JvmStatic
+        fun copyOf(bytes: ByteArray, fromIndex: Int = 0, toIndex: Int = bytes.size): ImmutableBinaryData =
+            wrap(bytes.copyOfRange(fromIndex, toIndex))
+
+        /**
+         * Create an instance backed by the given range of [bytes], without copying.
+         * The caller must ensure that the array is never modified afterwards.
+         */
+        @JvmStatic
+        fun wrap(bytes: ByteArray, fromIndex: Int = 0, toIndex: Int = bytes.size): ImmutableBinaryData {
+            Objects.checkFromToIndex(fromIndex, toIndex, bytes.size)
+            return if (fromIndex == toIndex) EMPTY
+            else ImmutableBinaryData(bytes, fromIndex, toIndex - fromIndex)
+        }
+
+        /** Read all remaining bytes from [input]. Does not close it. */
+        @JvmStatic
+        fun readFrom(input: InputStream): ImmutableBinaryData =
+            wrap(input.readAllBytes())
+
+        /**
+         * Create an instance from a Base64 string.
+         * Whitespace is ignored, the input must otherwise conform to the decoding rules of [encoding].
+         * The characters are decoded directly, without building an intermediate string.
+         */
+        @JvmStatic
+        fun fromBase64(b: CharSequence, encoding: Base64Encoding<*> = Base64Encoding.Basic): ImmutableBinaryData {
+            val ascii = ByteArray(b.length)
+            var n = 0
+            for (c in b) {
+                if (c.isWhitespace()) continue
+                require(c.code < 128) { "Illegal base64 character '$c'" }
+                ascii[n++] = c.code.toByte()
+            }
+            return encoding.decoder.decode(ByteBuffer.wrap(ascii, 0, n)).let {
+                wrap(it.array(), it.arrayOffset() + it.position(), it.arrayOffset() + it.limit())
+            }
+        }
+
+        /**
+         * Read Base64 encoded bytes from [input] until its end, decoding them while reading.
+         * With the default [Base64Encoding.Mime], line separators are ignored. Does not close [input].
+         */
+        @JvmStatic
+        fun decodeBase64(input: InputStream, encoding: Base64Encoding<*> = Base64Encoding.Mime): ImmutableBinaryData =
+            // the decoding stream doesn't need to be closed, and would close input
+            wrap(encoding.decoder.wrap(input).readAllBytes())
+
+    }
+
+    object Serializer : KSerializer<ImmutableBinaryData> by transformingSerializer(Base64Transformer)
+
+    object Base64Transformer : Transformer<ImmutableBinaryData, String> {
+        override fun transform(obj: ImmutableBinaryData): String = obj.toBase64()
+        override fun detransform(tf: String): ImmutableBinaryData = fromBase64(tf)
+    }
+
+}
+
+private class NonClosingOutputStream(out: OutputStream) : FilterOutputStream(out) {
+    override fun write(b: ByteArray, off: Int, len: Int) {
+        out.write(b, off, len)
+    }
+    override fun close() {
+        flush()
+    }
+}
+
+/** @return an [ImmutableBinaryData] with a copy of these bytes. */
+fun ByteArray.toImmutableData() = ImmutableBinaryData.copyOf(this)
+
+/** @return an [ImmutableBinaryData] with a copy of the current bytes. */
+fun BinaryData.toImmutable() = ImmutableBinaryData.copyOf(data)
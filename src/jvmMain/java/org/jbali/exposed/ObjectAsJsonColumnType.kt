@@ -1,33 +1,59 @@
 package org.jbali.exposed
 
+import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.KSerializer
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.decodeFromStream
 import kotlinx.serialization.serializer
 import org.jbali.kotser.DefaultJson
 import org.jbali.kotser.JsonSerializer
 import org.jetbrains.exposed.sql.Column
 import org.jetbrains.exposed.sql.ColumnType
 import org.jetbrains.exposed.sql.Table
+import java.sql.ResultSet
 import kotlin.reflect.KClass
 
-inline fun <reified T : Any> Table.myObjectAsJson(name: String, serializer: KSerializer<T> = serializer<T>()): Column<T> =
-    registerColumn(name, ObjectAsJsonColumnType(T::class, serializer))
+inline fun <reified T : Any> Table.myObjectAsJson(
+    name: String,
+    serializer: KSerializer<T> = serializer<T>(),
+    streamFromDB: Boolean = false,
+): Column<T> =
+    registerColumn(name, ObjectAsJsonColumnType(T::class, serializer, streamFromDB = streamFromDB))
 
+/**
+ * Stores objects as JSON, using [serializer].
+ *
+ * See [jsonExtract] and [jsonExtractText] to select or filter on a part of the object, without reading all of it.
+ *
+ * @param streamFromDB Read values with [ResultSet.getBinaryStream] and decode them while reading the row,
+ *                     instead of reading the JSON text into a [String] that is decoded on each access of the value.
+ *                     Requires the driver to return the JSON text in UTF-8, as MySQL Connector/J does for `JSON` columns.
+ */
 class ObjectAsJsonColumnType<T : Any>(
     private val klass: KClass<T>,
-    private val serializer: KSerializer<T>,
-    private val jsonFormat: Json = DefaultJson.plainOmitDefaults,
+    val serializer: KSerializer<T>,
+    val jsonFormat: Json = DefaultJson.plainOmitDefaults,
+    private val streamFromDB: Boolean = false,
 ) : ColumnType() {
     
     private val js = JsonSerializer(serializer, jsonFormat)
     
     override fun sqlType(): String = "JSON"
     
+    @OptIn(ExperimentalSerializationApi::class)
+    override fun readObject(rs: ResultSet, index: Int): Any? =
+        if (streamFromDB) {
+            // decoded here, because the ResultRow keeps what this returns, and passes it to valueFromDB on each access
+            rs.getBinaryStream(index)?.use { jsonFormat.decodeFromStream(serializer, it) }
+        } else {
+            super.readObject(rs, index)
+        }
+    
     override fun valueFromDB(value: Any): T =
         when {
             klass.isInstance(value) ->
-                // possibly of wrong type, but who calls this path anyway?
+                // decoded by readObject with streamFromDB, or possibly of wrong type, but who else calls this path?
                 @Suppress("UNCHECKED_CAST")
                 value as T
             
@@ -0,0 +1,142 @@
+package org.jbali.exposed
+
+import org.jetbrains.exposed.sql.Key
+import org.jetbrains.exposed.sql.Transaction
+import org.jetbrains.exposed.sql.statements.StatementContext
+import org.jetbrains.exposed.sql.statements.StatementInterceptor
+import org.jetbrains.exposed.sql.statements.api.PreparedStatementApi
+import org.jetbrains.exposed.sql.statements.jdbc.JdbcPreparedStatementImpl
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.SQLException
+
+/**
+ * Caches the [PreparedStatement]s of raw SQL statements, such as those of [execUpdate] and [execAndMap],
+ * per transaction, keyed on the SQL text, so that statements executed repeatedly in a transaction
+ * are prepared only once.
+ *
+ * Each transaction has an LRU cache of at most [maxSize] statements, configured with the system property
+ * `org.jbali.exposed.PreparedStatementCache.maxSize`. `0` disables caching.
+ *
+ * The statements are closed when the transaction is committed or rolled back. They aren't kept per connection,
+ * because connection pools hand out a new proxy of the connection for every transaction, and the statements
+ * would keep those alive.
+ */
+object PreparedStatementCache {
+
+    val maxSize: Int = System.getProperty("org.jbali.exposed.PreparedStatementCache.maxSize")?.toInt() ?: 64
+
+    private val cacheKey = Key<StatementLru>()
+
+    private class StatementLru(private val maxSize: Int) : LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CachedStatement>): Boolean =
+            (size > maxSize).also { evict ->
+                if (evict) {
+                    eldest.value.evict()
+                }
+            }
+
+        fun evictAll() {
+            values.forEach { it.evict() }
+            clear()
+        }
+
+        val interceptor = object : StatementInterceptor {
+            override fun beforeExecution(transaction: Transaction, context: StatementContext) {}
+            override fun afterExecution(transaction: Transaction, contexts: List<StatementContext>, executedStatement: PreparedStatementApi) {}
+            override fun beforeCommit(transaction: Transaction) = synchronized(this@StatementLru) { evictAll() }
+            override fun afterCommit() {}
+            override fun beforeRollback(transaction: Transaction) = synchronized(this@StatementLru) { evictAll() }
+            override fun afterRollback() {}
+        }
+    }
+
+    /**
+     * A cached statement, which Exposed's [closeIfPossible] doesn't close, since Exposed calls that for
+     * previously executed statements before executing the next one, which may be this one again.
+     * Instead, [release] makes it available for reuse, or closes it if it was evicted from the cache while in use.
+     */
+    internal class CachedStatement(
+        val statement: PreparedStatement,
+    ) : PreparedStatementApi by JdbcPreparedStatementImpl(statement, false) {
+
+        @Volatile
+        var inUse = false
+
+        @Volatile
+        private var evicted = false
+
+        fun release() {
+            inUse = false
+            if (evicted) {
+                closeQuietly()
+            }
+        }
+
+        /** Close now, or if in use, when released. */
+        fun evict() {
+            evicted = true
+            if (!inUse) {
+                closeQuietly()
+            }
+        }
+
+        override fun closeIfPossible() {}
+
+        fun closeQuietly() {
+            try {
+                statement.close()
+            } catch (e: SQLException) {
+                // closing anyway
+            }
+        }
+
+    }
+
+    /**
+     * Get the cached statement for [sql] in [transaction], preparing it if needed.
+     * Returns a new, uncached statement if caching is disabled or the cached one is still in use.
+     *
+     * The caller must [release] the statement after executing it and reading its results.
+     */
+    internal fun prepare(transaction: Transaction, sql: String): PreparedStatementApi {
+        val connection = transaction.connection.connection as? Connection
+        if (maxSize <= 0 || connection == null) {
+            return transaction.connection.prepareStatement(sql, false)
+        }
+
+        val cache = transaction.getOrCreate(cacheKey) {
+            StatementLru(maxSize).also { transaction.registerInterceptor(it.interceptor) }
+        }
+        // a transaction is used by one thread at a time, but be safe
+        synchronized(cache) {
+            val cached = cache[sql]
+            if (cached != null && !cached.inUse && !cached.statement.isClosed) {
+                cached.inUse = true
+                cached.statement.clearParameters()
+                return cached
+            }
+            if (cached != null && cached.inUse) {
+                // e.g. the same statement executed while reading the results of a previous execution
+                return transaction.connection.prepareStatement(sql, false)
+            }
+            return CachedStatement(connection.prepareStatement(sql)).also {
+                it.inUse = true
+                cache[sql] = it
+            }
+        }
+    }
+
+    /**
+     * Release a [statement] returned by [prepare] for reuse, or close it if it's not cached.
+     */
+    internal fun release(statement: PreparedStatementApi) {
+        if (statement is CachedStatement) {
+            statement.release()
+        } else {
+            statement.closeIfPossible()
+        }
+    }
+
+}
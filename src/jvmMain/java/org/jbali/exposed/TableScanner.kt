@@ -0,0 +1,265 @@
+package org.jbali.exposed
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
+import org.jbali.threads.ThreadFactoryFactory
+import org.jetbrains.exposed.dao.id.EntityID
+import org.jetbrains.exposed.dao.id.IdTable
+import org.jetbrains.exposed.sql.*
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.greater
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.greaterEq
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.lessEq
+import org.jetbrains.exposed.sql.transactions.transaction
+import java.time.Duration
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Conversion of integer ids to and from [Long], so [TableScanner] can split them into ranges.
+ */
+interface ScanIdType<I : Comparable<I>> {
+    fun toLong(id: I): Long
+    fun fromLong(id: Long): I
+
+    companion object {
+        val LONG = object : ScanIdType<Long> {
+            override fun toLong(id: Long) = id
+            override fun fromLong(id: Long) = id
+        }
+        val INT = object : ScanIdType<Int> {
+            override fun toLong(id: Int) = id.toLong()
+            override fun fromLong(id: Long) = Math.toIntExact(id)
+        }
+    }
+}
+
+/**
+ * Reads all rows of [table] that match [where], e.g. for a backfill or an export.
+ *
+ * The ids between the lowest and highest matching id are split into [ranges] ranges, which are read concurrently,
+ * each in pages of [pageSize] rows in separate transactions, continuing after the last id of the previous page
+ * (keyset pagination). Unlike `LIMIT`/`OFFSET`, which skips all previous rows, every page is an index range scan.
+ *
+ * Pages are passed to the consumer of [scan] through a queue of [queueCapacity] pages.
+ * When it's full, the readers wait for the consumer.
+ *
+ * The number of rows and pages read and the time to read each page are exported to [registry],
+ * tagged with `table=`[name].
+ *
+ * @param slice The columns to read, which must include the id.
+ */
+class TableScanner<I : Comparable<I>, T : IdTable<I>>(
+    val table: T,
+    private val idType: ScanIdType<I>,
+    private val db: Database? = null,
+    private val slice: FieldSet = table,
+    private val where: SqlExpressionBuilder.(T) -> Op<Boolean> = { Op.TRUE },
+    val ranges: Int = 8,
+    val pageSize: Int = 1000,
+    val queueCapacity: Int = ranges * 2,
+    val name: String = table.tableName,
+    registry: MeterRegistry? = Metrics.globalRegistry,
+) {
+
+    init {
+        require(ranges > 0) { "ranges must be positive" }
+        require(pageSize > 0) { "pageSize must be positive" }
+        require(queueCapacity > 0) { "queueCapacity must be positive" }
+        require(table.id in slice.fields) { "slice must include ${table.id}" }
+    }
+
+    private val rowCounter = registry?.let {
+        Counter.builder("jbali_table_scan_rows")
+            .description("Number of rows read by TableScanner")
+            .tag("table", name)
+            .register(it)
+    }
+
+    private val pageCounter = registry?.let {
+        Counter.builder("jbali_table_scan_pages")
+            .description("Number of pages read by TableScanner")
+            .tag("table", name)
+            .register(it)
+    }
+
+    private val pageTimer = registry?.let {
+        Timer.builder("jbali_table_scan_page_read")
+            .description("Time to read a page of rows in TableScanner")
+            .tag("table", name)
+            .register(it)
+    }
+
+    private sealed class Item {
+        class Page(val rows: List<ResultRow>, val range: Int, val lastId: Long) : Item()
+        class Done(val range: Int) : Item()
+    }
+
+    /**
+     * Read all rows, passing them to [consumer] in pages, in the calling thread.
+     * Pages of different ranges are interleaved, so the rows are not in order of id.
+     *
+     * If a reader or [consumer] fails, the other readers are interrupted and the exception is thrown.
+     *
+     * @param onProgress Called after each page has been consumed.
+     * @return The final progress.
+     */
+    fun scan(
+        onProgress: ((TableScanProgress) -> Unit)? = null,
+        consumer: (List<ResultRow>) -> Unit,
+    ): TableScanProgress {
+        val startNanos = System.nanoTime()
+        val idRanges = idRanges()
+        val totalIds = idRanges.sumOf { it.last - it.first + 1 }
+        // ids covered per range, to estimate progress
+        val covered = LongArray(idRanges.size)
+        var rows = 0L
+        var pages = 0L
+        var rangesDone = 0
+
+        fun progress() = TableScanProgress(
+            rows = rows,
+            pages = pages,
+            rangesDone = rangesDone,
+            ranges = idRanges.size,
+            fraction = if (totalIds == 0L) 1.0 else covered.sum().toDouble() / totalIds,
+            elapsed = Duration.ofNanos(System.nanoTime() - startNanos),
+        )
+
+        if (idRanges.isEmpty()) return progress()
+
+        val queue = ArrayBlockingQueue<Item>(queueCapacity)
+        val failure = AtomicReference<Throwable>()
+        val executor = Executors.newFixedThreadPool(
+            idRanges.size,
+            ThreadFactoryFactory.multi(name = "TableScanner-$name", daemon = true),
+        )
+        try {
+            idRanges.forEach { range ->
+                executor.execute {
+                    try {
+                        readRange(range, queue)
+                    } catch (e: InterruptedException) {
+                        // scan was aborted
+                    } catch (e: Throwable) {
+                        failure.compareAndSet(null, e)
+                    }
+                }
+            }
+
+            while (rangesDone < idRanges.size) {
+                failure.get()?.let { throw it }
+                when (val item = queue.poll(100, TimeUnit.MILLISECONDS)) {
+                    null -> continue
+                    is Item.Page -> {
+                        consumer(item.rows)
+                        rows += item.rows.size
+                        pages++
+                        covered[item.range] = item.lastId - idRanges[item.range].first + 1
+                    }
+                    is Item.Done -> {
+                        rangesDone++
+                        covered[item.range] = idRanges[item.range].let { it.last - it.first + 1 }
+                    }
+                }
+                onProgress?.invoke(progress())
+            }
+
+            return progress()
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    /**
+     * Split the ids from the lowest to the highest that match [where] into at most [ranges] ranges.
+     */
+    private fun idRanges(): List<IdRange> {
+        val minId = table.id.min()
+        val maxId = table.id.max()
+        val (lo, hi) = transaction(db) {
+            table.slice(minId, maxId)
+                .select { where(table) }
+                .single()
+                .let { it[minId] to it[maxId] }
+        }
+        if (lo == null || hi == null) return emptyList()
+
+        return splitIdRange(idType.toLong(lo.value), idType.toLong(hi.value), ranges)
+    }
+
+    private fun readRange(range: IdRange, queue: ArrayBlockingQueue<Item>) {
+        val first = EntityID(idType.fromLong(range.first), table)
+        val last = EntityID(idType.fromLong(range.last), table)
+        var after: EntityID<I>? = null
+        do {
+            val startNanos = System.nanoTime()
+            val rows = transaction(db) {
+                slice
+                    .select {
+                        compoundAnd(
+                            if (after == null) table.id greaterEq first else table.id greater after!!,
+                            table.id lessEq last,
+                            where(table),
+                        )
+                    }
+                    .orderBy(table.id, SortOrder.ASC)
+                    .limit(pageSize)
+                    .toList()
+            }
+            pageTimer?.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS)
+            if (rows.isEmpty()) break
+
+            rowCounter?.increment(rows.size.toDouble())
+            pageCounter?.increment()
+            after = rows.last()[table.id]
+            queue.put(Item.Page(rows, range.index, idType.toLong(after.value)))
+        } while (rows.size == pageSize)
+        queue.put(Item.Done(range.index))
+    }
+
+}
+
+internal data class IdRange(val index: Int, val first: Long, val last: Long)
+
+/**
+ * Split the ids from [first] to [last] into at most [ranges] consecutive ranges of equal size,
+ * except for the last one, which may be smaller.
+ */
+internal fun splitIdRange(first: Long, last: Long, ranges: Int): List<IdRange> {
+    val span = Math.addExact(Math.subtractExact(last, first), 1)
+    val count = minOf(ranges.toLong(), span).toInt()
+    val step = (span + count - 1) / count
+    return (0 until count)
+        .map { i -> first + i * step }
+        .takeWhile { it <= last }
+        .mapIndexed { i, start ->
+            IdRange(i, start, if (last - start < step) last else start + step - 1)
+        }
+}
+
+/**
+ * Progress of [TableScanner.scan].
+ * @param fraction Estimate of the fraction of the rows that has been read,
+ *                 based on the ids read so far, so assuming they are evenly distributed.
+ */
+data class TableScanProgress(
+    val rows: Long,
+    val pages: Long,
+    val rangesDone: Int,
+    val ranges: Int,
+    val fraction: Double,
+    val elapsed: Duration,
+) {
+
+    val rowsPerSecond: Double
+        get() = if (elapsed.isZero) 0.0 else rows * 1e9 / elapsed.toNanos()
+
+    /** Estimated time until done, or `null` if nothing has been read yet. */
+    val remaining: Duration?
+        get() = if (fraction <= 0.0) null else Duration.ofNanos((elapsed.toNanos() * (1 - fraction) / fraction).toLong())
+
+}
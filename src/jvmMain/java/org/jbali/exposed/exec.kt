@@ -10,6 +10,7 @@ import org.jetbrains.exposed.sql.statements.Statement
 import org.jetbrains.exposed.sql.statements.StatementType
 import org.jetbrains.exposed.sql.statements.api.PreparedStatementApi
 import java.sql.ResultSet
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Executes the given SQL statement, which must be an SQL Data Manipulation Language (DML) statement, such as INSERT, UPDATE or DELETE; or an SQL statement that returns nothing, such as a DDL statement.
@@ -22,8 +23,13 @@ fun Transaction.execUpdate(
     exec(object : Statement<Int>(statementTypeOf(stmt), emptyList()) {
         override fun arguments() = listOf(args)
         override fun prepareSQL(transaction: Transaction) = stmt
+        override fun prepared(transaction: Transaction, sql: String) = PreparedStatementCache.prepare(transaction, sql)
         override fun PreparedStatementApi.executeInternal(transaction: Transaction): Int =
-            executeUpdate()
+            try {
+                executeUpdate()
+            } finally {
+                PreparedStatementCache.release(this)
+            }
     })!!
 
 /**
@@ -33,13 +39,25 @@ fun statementTypeOf(@Language("sql") stmt: String): StatementType =
     statementTypeOrNullOf(stmt)
         ?: throw IllegalArgumentException("Failed to determine statementTypeOf(${stmt.truncatedWithEllipsis(16).jsonQuote()})")
 
-fun statementTypeOrNullOf(@Language("sql") stmt: String): StatementType? {
+fun statementTypeOrNullOf(@Language("sql") stmt: String): StatementType? =
+    statementTypes[stmt]
+        ?: parseStatementType(stmt)?.also {
+            // statements with inlined values could fill it indefinitely
+            if (statementTypes.size < STATEMENT_TYPES_MAX_SIZE) {
+                statementTypes[stmt] = it
+            }
+        }
+
+private const val STATEMENT_TYPES_MAX_SIZE = 4096
+private val statementTypes = ConcurrentHashMap<String, StatementType>()
+
+private fun parseStatementType(stmt: String): StatementType? {
     val trim = stmt.trim()
     return if (trim.startsWith("SET", true)) {
         StatementType.OTHER
     } else {
         StatementType.entries.singleOrNull {
-            stmt.trim().startsWith(it.name, true)
+            trim.startsWith(it.name, true)
         }
     }
 }
@@ -54,6 +72,25 @@ fun <T> Transaction.execAndMap(
     explicitStatementType: StatementType? = null,
     transform: (ResultSet) -> T
 ): List<T> =
-    exec(stmt, args, explicitStatementType) { rs ->
-        rs.map(transform)
-    } ?: error("No result set")
+    exec(object : Statement<List<T>>(
+        explicitStatementType ?: statementTypeOrNullOf(stmt) ?: StatementType.OTHER,
+        emptyList(),
+    ) {
+        override fun arguments() = listOf(args)
+        override fun prepareSQL(transaction: Transaction) = stmt
+        override fun prepared(transaction: Transaction, sql: String) = PreparedStatementCache.prepare(transaction, sql)
+        // like Transaction.exec(String)
+        override fun PreparedStatementApi.executeInternal(transaction: Transaction): List<T> =
+            try {
+                val rs = when (type) {
+                    StatementType.SELECT, StatementType.EXEC -> executeQuery()
+                    else -> {
+                        executeUpdate()
+                        resultSet
+                    }
+                } ?: error("No result set")
+                rs.use { it.map(transform) }
+            } finally {
+                PreparedStatementCache.release(this)
+            }
+    })!!
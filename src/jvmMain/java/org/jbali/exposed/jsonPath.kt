@@ -0,0 +1,158 @@
+package org.jbali.exposed
+
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.descriptors.PolymorphicKind
+import kotlinx.serialization.descriptors.SerialDescriptor
+import kotlinx.serialization.descriptors.SerialKind
+import kotlinx.serialization.descriptors.StructureKind
+import kotlinx.serialization.encoding.CompositeDecoder
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.decodeFromStream
+import kotlinx.serialization.serializer
+import org.jetbrains.exposed.sql.*
+import java.io.InputStream
+import java.sql.ResultSet
+
+/**
+ * `JSON_EXTRACT(column, path)`, i.e. the part of the JSON value of this [ObjectAsJsonColumnType] column at [path],
+ * decoded with [serializer], so that only that part is sent by the database and parsed.
+ *
+ * [path] consists of property names, map keys and list indices, and is checked against the descriptor of
+ * the column's serializer, which must also agree with that of [serializer].
+ *
+ * Is `null` if there is no value at [path], or if that value is JSON `null`.
+ *
+ * @throws IllegalArgumentException if this is not an [ObjectAsJsonColumnType] column, or [path] doesn't match it.
+ */
+fun <F : Any> Column<*>.jsonExtract(serializer: KSerializer<F>, vararg path: String): ExpressionWithColumnType<F?> {
+    val ct = jsonColumnType()
+    val target = ct.serializer.descriptor.descend(path)
+    require(target.isCompatibleWith(serializer.descriptor)) {
+        "$name at ${path.toList()} is a ${target.serialName}, not a ${serializer.descriptor.serialName}"
+    }
+    return CustomFunction(
+        "JSON_EXTRACT",
+        JsonValueColumnType(serializer, ct.jsonFormat).apply { nullable = true },
+        this, stringLiteral(jsonPathOf(path)),
+    )
+}
+
+inline fun <reified F : Any> Column<*>.jsonExtract(vararg path: String): ExpressionWithColumnType<F?> =
+    jsonExtract(serializer(), *path)
+
+/**
+ * `JSON_UNQUOTE(JSON_EXTRACT(column, path))`, i.e. MySQL's `column->>path`:
+ * the part of the JSON value of this [ObjectAsJsonColumnType] column at [path], as text,
+ * for use in conditions, e.g. `table.data.jsonExtractText("owner", "name") eq "x"`.
+ *
+ * Strings are unquoted, other values are their JSON text. See [jsonExtract] for [path].
+ */
+fun Column<*>.jsonExtractText(vararg path: String): ExpressionWithColumnType<String?> {
+    jsonColumnType().serializer.descriptor.descend(path)
+    return CustomFunction(
+        "JSON_UNQUOTE",
+        TextColumnType().apply { nullable = true },
+        CustomFunction<String?>("JSON_EXTRACT", TextColumnType(), this, stringLiteral(jsonPathOf(path))),
+    )
+}
+
+private fun Column<*>.jsonColumnType(): ObjectAsJsonColumnType<*> =
+    columnType as? ObjectAsJsonColumnType<*>
+        ?: throw IllegalArgumentException("$name is not an ObjectAsJsonColumnType column but ${columnType::class.simpleName}")
+
+/**
+ * MySQL JSON path for [path], with all property names and map keys quoted, so they may contain any character.
+ */
+internal fun jsonPathOf(path: Array<out String>): String =
+    buildString {
+        append('$')
+        path.forEach { p ->
+            val index = p.toIntOrNull()
+            if (index != null && index >= 0) {
+                append('[').append(index).append(']')
+            } else {
+                append(".\"")
+                p.forEach { c ->
+                    if (c == '"' || c == '\\') append('\\')
+                    append(c)
+                }
+                append('"')
+            }
+        }
+    }
+
+/**
+ * The descriptor of the value at [path] within values described by this.
+ * @throws IllegalArgumentException if [path] can't exist in such values.
+ */
+@OptIn(ExperimentalSerializationApi::class)
+internal fun SerialDescriptor.descend(path: Array<out String>): SerialDescriptor =
+    path.fold(this) { d, p ->
+        val s = d.unwrapInline()
+        when (s.kind) {
+            StructureKind.CLASS, StructureKind.OBJECT -> {
+                val i = s.getElementIndex(p)
+                require(i != CompositeDecoder.UNKNOWN_NAME) { "$p is not a property of ${s.serialName}" }
+                s.getElementDescriptor(i)
+            }
+            StructureKind.LIST -> {
+                require((p.toIntOrNull() ?: -1) >= 0) { "$p is not an index of ${s.serialName}" }
+                s.getElementDescriptor(0)
+            }
+            StructureKind.MAP -> {
+                require(p.toIntOrNull() == null) { "Map key $p would be taken as an index" }
+                s.getElementDescriptor(1)
+            }
+            // can't tell what's in there
+            is PolymorphicKind, SerialKind.CONTEXTUAL -> return@descend s
+            else -> throw IllegalArgumentException("Can't select $p in ${s.serialName}, which is a ${s.kind}")
+        }
+    }
+
+@OptIn(ExperimentalSerializationApi::class)
+private fun SerialDescriptor.unwrapInline(): SerialDescriptor =
+    if (isInline) getElementDescriptor(0).unwrapInline() else this
+
+@OptIn(ExperimentalSerializationApi::class)
+private fun SerialDescriptor.isCompatibleWith(other: SerialDescriptor): Boolean =
+    kind is PolymorphicKind || kind == SerialKind.CONTEXTUAL ||
+        serialName.removeSuffix("?") == other.serialName.removeSuffix("?") ||
+        unwrapInline().serialName.removeSuffix("?") == other.unwrapInline().serialName.removeSuffix("?")
+
+/**
+ * Type of the result of [jsonExtract]: a JSON value decoded with [serializer].
+ *
+ * Unlike [ObjectAsJsonColumnType], never takes a value from the database as already decoded,
+ * since a [String] from the database is JSON text, even if [T] is [String].
+ */
+internal class JsonValueColumnType<T : Any>(
+    private val serializer: KSerializer<T>,
+    private val jsonFormat: Json,
+) : ColumnType() {
+
+    override fun sqlType(): String = "JSON"
+
+    // JSON null is not SQL NULL
+    override fun readObject(rs: ResultSet, index: Int): Any? =
+        super.readObject(rs, index)?.takeUnless { it == "null" }
+
+    @OptIn(ExperimentalSerializationApi::class)
+    override fun valueFromDB(value: Any): T =
+        when (value) {
+            is String -> jsonFormat.decodeFromString(serializer, value)
+            is ByteArray -> jsonFormat.decodeFromString(serializer, value.decodeToString())
+            is JsonElement -> jsonFormat.decodeFromJsonElement(serializer, value)
+            is InputStream -> value.use { jsonFormat.decodeFromStream(serializer, it) }
+            else -> throw IllegalArgumentException("Can't convert ${value::class} to JSON value")
+        }
+
+    override fun notNullValueToDB(value: Any): Any =
+        @Suppress("UNCHECKED_CAST")
+        jsonFormat.encodeToString(serializer, value as T)
+
+    override fun nonNullValueToString(value: Any): String =
+        (notNullValueToDB(value) as String).toSqlLiteral()
+
+}
@@ -0,0 +1,250 @@
+package org.jbali.exposed.mysql
+
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
+import org.jbali.exposed.ExposedTxScope
+import org.jbali.exposed.JsonColumnType
+import org.jbali.exposed.ObjectAsJsonColumnType
+import org.jetbrains.exposed.sql.Column
+import org.jetbrains.exposed.sql.IColumnType
+import org.jetbrains.exposed.sql.Table
+import org.jetbrains.exposed.sql.TextColumnType
+import org.jetbrains.exposed.sql.Transaction
+import org.jetbrains.exposed.sql.statements.Statement
+import org.jetbrains.exposed.sql.statements.StatementType
+import org.jetbrains.exposed.sql.statements.api.PreparedStatementApi
+import java.util.concurrent.TimeUnit
+
+/**
+ * Inserts rows into [table] in batches, using `INSERT ... ON DUPLICATE KEY UPDATE` if there are [updateColumns].
+ *
+ * Rows are written in batches of at most [maxRows] rows and approximately at most [maxBytes] bytes of values,
+ * which should stay below `max_allowed_packet`. Each batch is one round trip, either:
+ *
+ * - [Mode.MULTI_ROW]: a single statement with a `VALUES (...), (...)` list of all rows of the batch.
+ * - [Mode.JDBC_BATCH]: a JDBC batch of single-row statements, which MySQL Connector/J rewrites into a
+ *   multi-row statement if the connection has `rewriteBatchedStatements=true`. The statement is the same
+ *   for every batch, so it can be cached by the driver and server.
+ *
+ * Values of [myObjectAsJson][org.jbali.exposed.myObjectAsJson] and [myJson][org.jbali.exposed.myJson] columns
+ * are encoded only once.
+ *
+ * The number of rows and batches written, and the time per batch, are exported to [registry],
+ * tagged with `table=`the table name.
+ */
+class MyBatchUpsert<T : Table>(
+    val table: T,
+    /**
+     * Columns that are updated when a row with the same primary or unique key already exists,
+     * which must be set for each row, or `null` for all columns that are set except those of the primary key.
+     */
+    val updateColumns: List<Column<*>>? = emptyList(),
+    val maxRows: Int = 1000,
+    val maxBytes: Int = 4 shl 20,
+    val mode: Mode = Mode.MULTI_ROW,
+    registry: MeterRegistry? = Metrics.globalRegistry,
+) {
+
+    init {
+        require(maxRows > 0) { "maxRows must be positive" }
+        require(maxBytes > 0) { "maxBytes must be positive" }
+        updateColumns?.forEach {
+            require(it.table == table) { "$it is not a column of ${table.tableName}" }
+        }
+    }
+
+    enum class Mode {
+        MULTI_ROW,
+        JDBC_BATCH,
+    }
+
+    /**
+     * Values of a row to insert, set like `row[table.column] = value`.
+     */
+    class Row internal constructor() {
+
+        internal val values = LinkedHashMap<Column<*>, Any?>()
+
+        operator fun <V> set(column: Column<V>, value: V) {
+            values[column] = value
+        }
+
+    }
+
+    private val encodedColumnType = TextColumnType()
+
+    private val rowCounter = registry?.let {
+        Counter.builder("jbali_exposed_batch_rows")
+            .description("Number of rows written by MyBatchUpsert")
+            .tag("table", table.tableName)
+            .register(it)
+    }
+
+    private val batchTimer = registry?.let {
+        Timer.builder("jbali_exposed_batch")
+            .description("Time to write a batch of rows with MyBatchUpsert")
+            .tag("table", table.tableName)
+            .register(it)
+    }
+
+    /**
+     * Insert or update a row for each of [items], with values set by [body].
+     *
+     * The columns are those set for the first item. Columns not set for later items get their default value,
+     * or `null`, if they have one.
+     *
+     * @return The sum of the affected row counts, which MySQL counts as 1 for each inserted row and 2 for each
+     *         updated row (or 0 if its values didn't change). In [Mode.JDBC_BATCH] the driver may not report
+     *         the counts of rewritten batches, which are then counted as 0.
+     */
+    context(ExposedTxScope)
+    fun <E> execute(items: Iterable<E>, body: T.(Row, E) -> Unit): Int {
+        val iterator = items.iterator()
+        if (!iterator.hasNext()) return 0
+
+        val first = Row().apply { table.body(this, iterator.next()) }
+        val columns = first.values.keys.toList()
+        require(columns.isNotEmpty()) { "No columns set" }
+        columns.forEach {
+            require(it.table == table) { "$it is not a column of ${table.tableName}" }
+        }
+        val update = updateColumns
+            ?: columns.filter { c -> table.primaryKey?.columns?.contains(c) != true }
+        require(columns.containsAll(update)) {
+            "Update columns ${update.filterNot(columns::contains).map { it.name }} are not set"
+        }
+
+        var affected = 0
+        val batch = ArrayList<List<Pair<IColumnType, Any?>>>(minOf(maxRows, 1024))
+        var batchBytes = 0L
+
+        fun flush() {
+            if (batch.isEmpty()) return
+            val startNanos = System.nanoTime()
+            affected += exposedTx.exec(BatchStatement(columns, update, batch.toList()))!!
+            batchTimer?.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS)
+            rowCounter?.increment(batch.size.toDouble())
+            batch.clear()
+            batchBytes = 0
+        }
+
+        fun add(row: Row) {
+            var rowBytes = 0L
+            val args = columns.map { column ->
+                val value = when {
+                    column in row.values -> row.values[column]
+                    column.defaultValueFun != null -> column.defaultValueFun!!()
+                    column.columnType.nullable -> null
+                    else -> throw IllegalArgumentException("No value for ${column.name}")
+                }
+                val dbValue = value?.let { column.columnType.valueToDB(it) }
+                rowBytes += estimateBytes(dbValue)
+                when (column.columnType) {
+                    // bind the JSON encoded above as is, since these would encode a String value again
+                    is ObjectAsJsonColumnType<*>, is JsonColumnType -> encodedColumnType to dbValue
+                    else -> column.columnType to value
+                }
+            }
+            if (batch.isNotEmpty() && batchBytes + rowBytes > maxBytes) {
+                flush()
+            }
+            batch.add(args)
+            batchBytes += rowBytes
+            if (batch.size >= maxRows) {
+                flush()
+            }
+        }
+
+        add(first)
+        iterator.forEach { item ->
+            add(Row().apply { table.body(this, item) })
+        }
+        flush()
+
+        return affected
+    }
+
+    private fun estimateBytes(dbValue: Any?): Long =
+        when (dbValue) {
+            null -> 4
+            is String -> dbValue.length.toLong()
+            is ByteArray -> dbValue.size.toLong()
+            else -> 16
+        }
+
+    private inner class BatchStatement(
+        private val columns: List<Column<*>>,
+        private val updateColumns: List<Column<*>>,
+        private val rows: List<List<Pair<IColumnType, Any?>>>,
+    ) : Statement<Int>(StatementType.INSERT, listOf(table)) {
+
+        override fun arguments(): Iterable<Iterable<Pair<IColumnType, Any?>>> =
+            when (mode) {
+                Mode.MULTI_ROW -> listOf(rows.flatten())
+                Mode.JDBC_BATCH -> rows
+            }
+
+        override fun prepareSQL(transaction: Transaction): String {
+            val valueList = columns.joinToString(", ", "(", ")") { "?" }
+            return buildString {
+                append("INSERT INTO ").append(transaction.identity(table))
+                append(columns.joinToString(", ", " (", ")") { transaction.identity(it) })
+                append(" VALUES ")
+                when (mode) {
+                    Mode.MULTI_ROW -> repeat(rows.size) { i ->
+                        if (i > 0) append(", ")
+                        append(valueList)
+                    }
+                    Mode.JDBC_BATCH -> append(valueList)
+                }
+                if (updateColumns.isNotEmpty()) {
+                    append(" ON DUPLICATE KEY UPDATE ")
+                    append(updateColumns.joinToString(", ") {
+                        val c = transaction.identity(it)
+                        "$c = VALUES($c)"
+                    })
+                }
+            }
+        }
+
+        override fun PreparedStatementApi.executeInternal(transaction: Transaction): Int =
+            // Exposed only uses addBatch if there is more than one set of arguments
+            if (mode == Mode.JDBC_BATCH && rows.size > 1) {
+                executeBatch().sumOf { maxOf(it, 0) }
+            } else {
+                executeUpdate()
+            }
+
+    }
+
+}
+
+/**
+ * Insert rows with [MyBatchUpsert], without updating existing rows.
+ * See [MyBatchUpsert.execute].
+ */
+context(ExposedTxScope)
+fun <T : Table, E> T.myBatchInsert(
+    items: Iterable<E>,
+    maxRows: Int = 1000,
+    mode: MyBatchUpsert.Mode = MyBatchUpsert.Mode.MULTI_ROW,
+    body: T.(MyBatchUpsert.Row, E) -> Unit,
+): Int =
+    MyBatchUpsert(this, maxRows = maxRows, mode = mode).execute(items, body)
+
+/**
+ * Insert rows with [MyBatchUpsert], updating [updateColumns] of existing rows,
+ * by default all columns that are set, except those of the primary key.
+ * See [MyBatchUpsert.execute].
+ */
+context(ExposedTxScope)
+fun <T : Table, E> T.myBatchUpsert(
+    items: Iterable<E>,
+    updateColumns: List<Column<*>>? = null,
+    maxRows: Int = 1000,
+    mode: MyBatchUpsert.Mode = MyBatchUpsert.Mode.MULTI_ROW,
+    body: T.(MyBatchUpsert.Row, E) -> Unit,
+): Int =
+    MyBatchUpsert(this, updateColumns = updateColumns, maxRows = maxRows, mode = mode).execute(items, body)
@@ -2,6 +2,7 @@ package org.jbali.exposed.mysql
 
 import org.jbali.exposed.ExposedTxScope
 import org.jbali.math.toLongBits
+import org.jbali.sql.my.InnoDBTrxSampler
 import org.jbali.sql.my.getCurrentInnoDBTrxInfo
 import org.jbali.util.cast
 import java.sql.Connection
@@ -27,3 +28,11 @@ context(ExposedTxScope)
 fun innoDbTrxInfo(): Pair<Long, Instant>? =
     exposedTx.connection.connection.cast<Connection>().getCurrentInnoDBTrxInfo()
         ?.let { Pair(it.trxId.toLongBits(), it.trxStarted) }
+
+/**
+ * Run [block] with the current thread, OpenTelemetry span and call ID registered in [sampler]
+ * as the owner of the connection of this transaction, see [InnoDBTrxSampler.track].
+ */
+context(ExposedTxScope)
+fun <T> InnoDBTrxSampler.tracking(block: () -> T): T =
+    track(exposedTx.connection.connection.cast<Connection>()).use { block() }
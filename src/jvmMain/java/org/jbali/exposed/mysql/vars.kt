@@ -1,11 +1,11 @@
 package org.jbali.exposed.mysql
 
 import org.jbali.exposed.ExposedTxScope
+import org.jbali.exposed.execAndMap
 import org.jbali.exposed.execUpdate
-import org.jbali.random.nextHex
 import org.jbali.sql.SqlIdentifier
+import org.jetbrains.exposed.sql.LongColumnType
 import java.time.Duration
-import kotlin.random.Random
 
 
 /**
@@ -18,13 +18,14 @@ import kotlin.random.Random
  */
 context(ExposedTxScope)
 fun <T> withSystemVar(name: SqlIdentifier, value: Int, block: () -> T): T {
-    val backupName = "savedVar_${Random.nextHex(8u)}" // TODO instead of savedVar, use name, but safely
-    exposedTx.execUpdate("SET @$backupName = @@${name.sql}")
+    // the statements don't contain the values, so that they are the same every time and their prepared statements are cached
+    val set = "SET @@${name.sql} = ?"
+    val before = exposedTx.execAndMap("SELECT @@${name.sql}") { it.getLong(1) }.single()
     return try {
-        exposedTx.execUpdate("SET @@${name.sql} = $value")
+        exposedTx.execUpdate(set, listOf(LongColumnType() to value.toLong()))
         block()
     } finally {
-        exposedTx.execUpdate("SET @@${name.sql} = @$backupName")
+        exposedTx.execUpdate(set, listOf(LongColumnType() to before))
     }
 }
 
@@ -1,9 +1,15 @@
 package org.jbali.exposed
 
-import org.jbali.collect.map
 import org.jbali.collect.singleIfAny
+import org.jetbrains.exposed.dao.id.EntityID
 import org.jetbrains.exposed.dao.id.IdTable
 import org.jetbrains.exposed.sql.*
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.greater
+import org.jetbrains.exposed.sql.statements.StatementContext
+import org.jetbrains.exposed.sql.statements.StatementInterceptor
+import org.jetbrains.exposed.sql.statements.api.PreparedStatementApi
+import org.jetbrains.exposed.sql.transactions.TransactionManager
+import java.sql.ResultSet
 
 fun <T> ColumnSet.pluck(expr: Expression<T>) =
     PluckedField(expr, slice(expr))
@@ -61,21 +67,112 @@ class PluckedIdTableColumn<I : Comparable<I>, T : IdTable<I>, E>(
     
     fun selectSingle(id: I): E =
         select(id).single()
+    
+    /**
+     * Select the values of the first [pageSize] rows matching [where] with an id greater than [after] (if not `null`),
+     * in order of id.
+     *
+     * Pass [KeysetPage.lastId] as [after] to get the next page. Unlike paging with an offset,
+     * this doesn't have to skip the previous rows, so every page is as cheap as the first.
+     */
+    fun selectPage(after: I?, pageSize: Int, where: Op<Boolean> = Op.TRUE): KeysetPage<I, E> {
+        require(pageSize > 0) { "pageSize must be positive" }
+        val query = table
+            .slice(listOf(table.id, expr).distinct())
+            .select(compoundAnd(
+                if (after == null) Op.TRUE else table.id greater EntityID(after, table),
+                where,
+            ))
+            .orderBy(table.id, SortOrder.ASC)
+            .limit(pageSize)
+        val idIndex = query.indexOf(table.id)
+        val exprIndex = query.indexOf(expr)
+        val values = ArrayList<E>(pageSize)
+        var lastId: I? = null
+        query.forEachResult { rs ->
+            lastId = table.id.readFrom(rs, idIndex).value
+            values.add(expr.readFrom(rs, exprIndex))
+        }
+        return KeysetPage(values, lastId, values.size < pageSize)
+    }
+    
+    /**
+     * The values of all rows matching [where], in order of id, lazily selected in pages of [pageSize]
+     * using [selectPage]. Each page, including the first, is selected in the transaction that is current
+     * when it's needed, so iteration can span transactions.
+     */
+    fun selectPages(pageSize: Int, where: Op<Boolean> = Op.TRUE): kotlin.sequences.Sequence<List<E>> =
+        generateSequence({ selectPage(null, pageSize, where) }) { prev ->
+            if (prev.isLast) null
+            else selectPage(prev.lastId, pageSize, where)
+        }
+            .map { it.values }
+            .filter { it.isNotEmpty() }
 }
 
+/**
+ * Result of [PluckedIdTableColumn.selectPage].
+ * @param lastId The id of the last row, or `null` if there are none.
+ * @param isLast Whether there are no more rows after this page.
+ */
+class KeysetPage<I : Comparable<I>, E>(
+    val values: List<E>,
+    val lastId: I?,
+    val isLast: Boolean,
+)
+
 fun <I : Comparable<I>, T : IdTable<I>, E> T.get(id: I, plucker: (T) -> Expression<E>): E =
     pluck(plucker).selectSingle(id)
 fun <I : Comparable<I>, T : IdTable<I>, E> T.getOrNull(id: I, plucker: (T) -> Expression<E>): E? =
     pluck(plucker).select(id).singleIfAny()
 
 
+/**
+ * Query of a single expression.
+ *
+ * Values are read directly from the JDBC [ResultSet], without creating a [ResultRow] per row.
+ *
+ * Like iterating a [Query], [iterator] first reads all values into a list, since databases that don't support
+ * multiple open result sets (such as MySQL) close it when another statement is executed, e.g. while iterating.
+ * To scan any number of rows in constant memory instead, stream them from the result set with [useIterator],
+ * [forEachLongChunk] or [forEachIntChunk], or set [fetchSize] or [streaming] to make [iterator] stream too.
+ * No other statements may be executed in the transaction while streaming.
+ *
+ * For numeric columns, [forEachLongChunk] and [forEachIntChunk] read the values without boxing.
+ */
 class PluckingQuery<T>(
     val expr: Expression<T>,
     val query: Query,
 ) :
     SizedIterable<T>
 {
-    override fun copy(): SizedIterable<T> = TODO()
+    /** Whether [iterator] streams the values from the result set. */
+    private var streamIterator = false
+    
+    override fun copy(): PluckingQuery<T> =
+        PluckingQuery(expr, query.copy()).also { it.streamIterator = streamIterator }
+    
+    /**
+     * Set the JDBC fetch size, i.e. the number of rows to fetch from the database at a time,
+     * and make [iterator] stream the values, so no other statements may be executed while iterating.
+     * MySQL Connector/J ignores this unless the connection has `useCursorFetch=true`, see [streaming].
+     */
+    fun fetchSize(n: Int): PluckingQuery<T> =
+        apply {
+            query.fetchSize(n)
+            streamIterator = true
+        }
+    
+    /**
+     * Make MySQL Connector/J stream the rows one by one instead of reading all of them into memory first,
+     * by setting the fetch size to [Int.MIN_VALUE]. Other statements can't be executed on the connection
+     * until all rows have been read.
+     *
+     * Alternatively, use a positive [fetchSize] with `useCursorFetch=true` on the connection,
+     * which uses a server-side cursor.
+     */
+    fun streaming(): PluckingQuery<T> =
+        fetchSize(Int.MIN_VALUE)
     
     override fun count(): Long = query.count()
     override fun empty(): Boolean = query.empty()
@@ -85,6 +182,217 @@ class PluckingQuery<T>(
     override fun orderBy(vararg order: Pair<Expression<*>, SortOrder>): PluckingQuery<T> =
         apply { query.orderBy(*order) }
     
+    /**
+     * The values, read into a list first, unless [fetchSize] or [streaming] was set,
+     * in which case this is a [resultIterator].
+     */
     override fun iterator(): Iterator<T> =
-        query.iterator().map { it[expr] }
+        if (streamIterator) {
+            resultIterator()
+        } else {
+            val index = query.indexOf(expr)
+            val values = ArrayList<T>()
+            query.forEachResult { rs ->
+                values.add(expr.readFrom(rs, index))
+            }
+            values.iterator()
+        }
+    
+    /**
+     * Iterator that streams the values from the result set.
+     * No other statements may be executed in the transaction until it's exhausted or closed.
+     */
+    fun resultIterator(): ResultIterator<T> =
+        ResultIterator(expr, query.indexOf(expr), query.executeForResultSet())
+    
+    /**
+     * Call [block] with a [resultIterator] of the values, which is closed afterwards even if not all were read.
+     * No other statements may be executed in the transaction during [block].
+     */
+    inline fun <R> useIterator(block: (Iterator<T>) -> R): R =
+        resultIterator().use(block)
+    
+    /** Like [Iterable.single], but closes the result if there is more than one value. */
+    fun single(): T =
+        useIterator { it.asSequence().single() }
+    
+    /** Like [Iterable.singleIfAny], but closes the result if there is more than one value. */
+    fun singleIfAny(): T? =
+        useIterator { Iterable { it }.singleIfAny() }
+    
+    /**
+     * Iterator over the values in a result set, which closes the result set and its statement
+     * when the last value has been read, when [close]d, or when the transaction it was created in
+     * is committed or rolled back, whichever comes first.
+     */
+    class ResultIterator<T> internal constructor(
+        private val expr: Expression<T>,
+        private val index: Int,
+        private val rs: ResultSet,
+    ) : Iterator<T>, AutoCloseable {
+        
+        private val transaction = TransactionManager.current()
+        private var hasNext: Boolean? = null
+        private var closed = false
+        
+        // like the statements Exposed executes, close it when the transaction ends
+        private val interceptor = object : StatementInterceptor {
+            override fun beforeExecution(transaction: Transaction, context: StatementContext) {}
+            override fun afterExecution(transaction: Transaction, contexts: List<StatementContext>, executedStatement: PreparedStatementApi) {}
+            override fun beforeCommit(transaction: Transaction) = closeResult()
+            override fun afterCommit() {}
+            override fun beforeRollback(transaction: Transaction) = closeResult()
+            override fun afterRollback() {}
+        }
+        
+        init {
+            transaction.registerInterceptor(interceptor)
+        }
+        
+        override fun hasNext(): Boolean =
+            hasNext ?: (!closed && rs.next()).also {
+                hasNext = it
+                if (!it) close()
+            }
+        
+        override fun next(): T {
+            if (!hasNext()) throw NoSuchElementException()
+            hasNext = null
+            return expr.readFrom(rs, index)
+        }
+        
+        override fun close() {
+            if (!closed) {
+                closeResult()
+                // not from the interceptor itself, Exposed is iterating the interceptors then
+                transaction.unregisterInterceptor(interceptor)
+            }
+        }
+        
+        private fun closeResult() {
+            if (!closed) {
+                closed = true
+                hasNext = false
+                rs.closeWithStatement()
+            }
+        }
+    }
+    
+    /**
+     * Read all values, which must be non-null integers, in chunks of up to [chunkSize].
+     * [action] gets the same array for each chunk, of which the first `size` elements are valid.
+     *
+     * The values are streamed from the result set, so [action] may not execute other statements in the transaction.
+     */
+    fun forEachLongChunk(chunkSize: Int = DEFAULT_CHUNK_SIZE, action: (chunk: LongArray, size: Int) -> Unit) {
+        require(chunkSize > 0) { "chunkSize must be positive" }
+        val index = query.indexOf(expr)
+        val chunk = LongArray(chunkSize)
+        var size = 0
+        query.forEachResult { rs ->
+            chunk[size++] = rs.getLong(index)
+            if (rs.wasNull()) throw IllegalStateException("$expr is NULL")
+            if (size == chunkSize) {
+                action(chunk, size)
+                size = 0
+            }
+        }
+        if (size > 0) action(chunk, size)
+    }
+    
+    /** See [forEachLongChunk]. */
+    fun forEachIntChunk(chunkSize: Int = DEFAULT_CHUNK_SIZE, action: (chunk: IntArray, size: Int) -> Unit) {
+        require(chunkSize > 0) { "chunkSize must be positive" }
+        val index = query.indexOf(expr)
+        val chunk = IntArray(chunkSize)
+        var size = 0
+        query.forEachResult { rs ->
+            chunk[size++] = rs.getInt(index)
+            if (rs.wasNull()) throw IllegalStateException("$expr is NULL")
+            if (size == chunkSize) {
+                action(chunk, size)
+                size = 0
+            }
+        }
+        if (size > 0) action(chunk, size)
+    }
+    
+    /** All values, which must be non-null integers. */
+    fun toLongArray(): LongArray {
+        var result = LongArray(0)
+        var n = 0
+        forEachLongChunk { chunk, size ->
+            if (n + size > result.size) result = result.copyOf(maxOf(n + size, result.size * 2))
+            chunk.copyInto(result, n, 0, size)
+            n += size
+        }
+        return if (n == result.size) result else result.copyOf(n)
+    }
+    
+    /** All values, which must be non-null integers. */
+    fun toIntArray(): IntArray {
+        var result = IntArray(0)
+        var n = 0
+        forEachIntChunk { chunk, size ->
+            if (n + size > result.size) result = result.copyOf(maxOf(n + size, result.size * 2))
+            chunk.copyInto(result, n, 0, size)
+            n += size
+        }
+        return if (n == result.size) result else result.copyOf(n)
+    }
+    
+    companion object {
+        const val DEFAULT_CHUNK_SIZE = 4096
+    }
+}
+
+private fun Query.executeForResultSet(): ResultSet =
+    TransactionManager.current().exec(this)
+        ?: error("No result set")
+
+/**
+ * Execute this query and call [action] for each row of the result, then close it and its statement.
+ */
+private inline fun Query.forEachResult(action: (ResultSet) -> Unit) {
+    val rs = executeForResultSet()
+    try {
+        while (rs.next()) {
+            action(rs)
+        }
+    } finally {
+        rs.closeWithStatement()
+    }
+}
+
+/**
+ * Close this result set and its statement, which Exposed would otherwise only close
+ * when the next statement is executed or the transaction ends.
+ */
+private fun ResultSet.closeWithStatement() {
+    val statement = statement
+    try {
+        close()
+    } finally {
+        statement?.close()
+    }
+}
+
+/** 1-based index of [expr] in the result of this query. */
+private fun Query.indexOf(expr: Expression<*>): Int =
+    set.realFields.indexOf(expr)
+        .also { require(it >= 0) { "$expr is not selected by $this" } } + 1
+
+/**
+ * Read the value of this expression from column [index] of the current row of [rs],
+ * as [ResultRow] would.
+ */
+private fun <T> Expression<T>.readFrom(rs: ResultSet, index: Int): T {
+    val columnType = (this as? ExpressionWithColumnType<*>)?.columnType
+    val raw = columnType?.readObject(rs, index) ?: rs.getObject(index)
+    @Suppress("UNCHECKED_CAST")
+    return when {
+        raw == null -> null
+        columnType != null -> columnType.valueFromDB(raw)
+        else -> raw
+    } as T
 }
\ No newline at end of file
@@ -21,15 +21,21 @@ class HumMap<K : HumValue<K>, out V> private constructor(
             fromOrderedValues(type, type.map(valueGetter))
     }
 
+    /**
+     * @return A [MutableHumMap] with a copy of these values.
+     */
+    fun toMutableHumMap(): MutableHumMap<K, @UnsafeVariance V> =
+        MutableHumMap.fromOrderedValues(type, values)
+
     init {
         require(values.size == type.values.size)
     }
 
     override fun toString() =
-            toMap().toString() // TODO optimize
+            humMapToString(keys, values)
 
     override val entries: Set<Map.Entry<K, V>>
-        get() = type.values.associateWith(this::get).entries // TODO optimize
+        get() = HumEntrySet(keys, values)
 
     override val keys: ListSet<K>
         get() = type.values
@@ -64,3 +70,40 @@ class HumMap<K : HumValue<K>, out V> private constructor(
     }
 
 }
+
+/**
+ * View of the entries of a map with a value for each of [keys], which are all values of a hierarchical enumeration.
+ */
+internal open class HumEntrySet<K : HumValue<K>, out V>(
+    private val keys: List<K>,
+    private val values: List<V>,
+) : AbstractSet<Map.Entry<K, V>>() {
+
+    override val size get() = keys.size
+
+    override fun iterator(): Iterator<Map.Entry<K, V>> =
+        object : Iterator<Map.Entry<K, V>> {
+            private var i = 0
+            override fun hasNext() = i < keys.size
+            override fun next(): Map.Entry<K, V> {
+                if (i >= keys.size) throw NoSuchElementException()
+                return java.util.AbstractMap.SimpleImmutableEntry(keys[i], values[i++])
+            }
+        }
+
+    override fun contains(element: Map.Entry<K, @UnsafeVariance V>): Boolean {
+        val k = element.key as Any?
+        return k is HumValue<*> && keys.getOrNull(k.ordinal) === k && values[k.ordinal] == element.value
+    }
+
+}
+
+internal fun humMapToString(keys: List<*>, values: List<*>) =
+    buildString(keys.size * 32) {
+        append('{')
+        for (i in keys.indices) {
+            if (i > 0) append(", ")
+            append(keys[i]).append('=').append(values[i])
+        }
+        append('}')
+    }
@@ -0,0 +1,127 @@
+package org.jbali.hum
+
+import org.jbali.collect.ListSet
+
+/**
+ * Mutable map from each entry of the [HumValue] denoted by [type] to an [Int], backed by an [IntArray],
+ * so that e.g. counting or summing per key doesn't box.
+ *
+ * Not a [Map], since that would box the values again, but see [toHumMap].
+ */
+class HumIntMap<K : HumValue<K>>(
+    val type: HumNode<K, K>,
+) {
+
+    val keys: ListSet<K> = type.values
+
+    private val values = IntArray(keys.size)
+
+    companion object {
+        fun <K : HumValue<K>> associate(type: HumNode<K, K>, valueGetter: (K) -> Int) =
+            HumIntMap(type).apply {
+                keys.forEachIndexed { i, k -> values[i] = valueGetter(k) }
+            }
+    }
+
+    val size get() = values.size
+
+    operator fun get(key: K): Int = values[key.ordinal]
+
+    operator fun set(key: K, value: Int) {
+        values[key.ordinal] = value
+    }
+
+    /**
+     * Add [delta] to the value for [key].
+     * @return the new value.
+     */
+    fun add(key: K, delta: Int): Int {
+        val o = key.ordinal
+        values[o] += delta
+        return values[o]
+    }
+
+    fun sum(): Int = values.sum()
+
+    inline fun forEach(action: (key: K, value: Int) -> Unit) {
+        for (i in 0 until size) {
+            action(keys[i], valueAt(i))
+        }
+    }
+
+    /** Value for the key with the given [HumValue.ordinal]. */
+    fun valueAt(ordinal: Int): Int = values[ordinal]
+
+    fun toIntArray(): IntArray = values.copyOf()
+
+    fun toHumMap(): HumMap<K, Int> = HumMap.fromOrderedValues(type, values.toList())
+
+    override fun equals(other: Any?) =
+        other is HumIntMap<*> && type == other.type && values.contentEquals(other.values)
+
+    override fun hashCode() = 31 * type.hashCode() + values.contentHashCode()
+
+    override fun toString() = humMapToString(keys, values.asList())
+
+}
+
+/**
+ * Mutable map from each entry of the [HumValue] denoted by [type] to a [Double], backed by a [DoubleArray].
+ * See [HumIntMap].
+ */
+class HumDoubleMap<K : HumValue<K>>(
+    val type: HumNode<K, K>,
+) {
+
+    val keys: ListSet<K> = type.values
+
+    private val values = DoubleArray(keys.size)
+
+    companion object {
+        fun <K : HumValue<K>> associate(type: HumNode<K, K>, valueGetter: (K) -> Double) =
+            HumDoubleMap(type).apply {
+                keys.forEachIndexed { i, k -> values[i] = valueGetter(k) }
+            }
+    }
+
+    val size get() = values.size
+
+    operator fun get(key: K): Double = values[key.ordinal]
+
+    operator fun set(key: K, value: Double) {
+        values[key.ordinal] = value
+    }
+
+    /**
+     * Add [delta] to the value for [key].
+     * @return the new value.
+     */
+    fun add(key: K, delta: Double): Double {
+        val o = key.ordinal
+        values[o] += delta
+        return values[o]
+    }
+
+    fun sum(): Double = values.sum()
+
+    inline fun forEach(action: (key: K, value: Double) -> Unit) {
+        for (i in 0 until size) {
+            action(keys[i], valueAt(i))
+        }
+    }
+
+    /** Value for the key with the given [HumValue.ordinal]. */
+    fun valueAt(ordinal: Int): Double = values[ordinal]
+
+    fun toDoubleArray(): DoubleArray = values.copyOf()
+
+    fun toHumMap(): HumMap<K, Double> = HumMap.fromOrderedValues(type, values.toList())
+
+    override fun equals(other: Any?) =
+        other is HumDoubleMap<*> && type == other.type && values.contentEquals(other.values)
+
+    override fun hashCode() = 31 * type.hashCode() + values.contentHashCode()
+
+    override fun toString() = humMapToString(keys, values.asList())
+
+}
@@ -0,0 +1,163 @@
+package org.jbali.hum
+
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.builtins.ListSerializer
+import kotlinx.serialization.builtins.serializer
+import kotlinx.serialization.encoding.Decoder
+import kotlinx.serialization.encoding.Encoder
+
+/**
+ * Immutable set of values of the hierarchical enumeration with root [root], as a bitset over their [HumValue.ordinal]s.
+ *
+ * Every [HumNode] has its subtree precomputed as [HumNode.asHumSet], so membership of values and groups,
+ * and set operations between [HumSet]s, are operations on whole words.
+ *
+ * Serialized (see [HumRoot.setSerializer]) as a list of value names, the same as those
+ * of the [HumNode] string serializer, so as a `List<R>`. Deserialization also accepts group names,
+ * which include all values of that group.
+ */
+class HumSet<R : HumValue<R>> private constructor(
+    val root: HumRoot<R>,
+    private val words: LongArray,
+) : AbstractSet<R>() {
+
+    companion object {
+
+        private fun wordCount(root: HumRoot<*>) = (root.size + 63) ushr 6
+
+        fun <R : HumValue<R>> empty(root: HumRoot<R>): HumSet<R> =
+            HumSet(root, LongArray(wordCount(root)))
+
+        fun <R : HumValue<R>> of(root: HumRoot<R>, values: Iterable<R>): HumSet<R> {
+            val words = LongArray(wordCount(root))
+            values.forEach { v ->
+                val o = v.ordinal
+                words[o ushr 6] = words[o ushr 6] or (1L shl o)
+            }
+            return HumSet(root, words)
+        }
+
+        fun <R : HumValue<R>> of(root: HumRoot<R>, vararg values: R): HumSet<R> =
+            of(root, values.asIterable())
+
+        /** Used by [HumNode.asHumSet] */
+        internal fun <R : HumValue<R>> ofNode(root: HumRoot<R>, node: HumNode<R, *>): HumSet<R> =
+            of(root, node)
+
+    }
+
+    override val size: Int by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        words.sumOf { it.countOneBits() }
+    }
+
+    override fun isEmpty() = words.all { it == 0L }
+
+    override fun contains(element: R): Boolean {
+        val o = element.ordinal
+        return element.root === root && (words[o ushr 6] and (1L shl o)) != 0L
+    }
+
+    /** Whether all values of [node] are in this set. */
+    operator fun contains(node: HumNode<R, *>): Boolean =
+        node.asHumSet.isSubsetOf(this)
+
+    override fun containsAll(elements: Collection<R>): Boolean =
+        when (elements) {
+            is HumSet<R> -> elements.isSubsetOf(this)
+            is HumNode<R, *> -> contains(elements)
+            else -> elements.all { contains(it) }
+        }
+
+    fun isSubsetOf(other: HumSet<R>): Boolean {
+        requireSameRoot(other)
+        for (i in words.indices) {
+            if (words[i] and other.words[i].inv() != 0L) return false
+        }
+        return true
+    }
+
+    fun intersects(other: HumSet<R>): Boolean {
+        requireSameRoot(other)
+        for (i in words.indices) {
+            if (words[i] and other.words[i] != 0L) return true
+        }
+        return false
+    }
+
+    private fun requireSameRoot(other: HumSet<R>) {
+        require(other.root === root) { "$other is not of the same hierarchy as $this" }
+    }
+
+    private inline fun combine(other: HumSet<R>, op: (Long, Long) -> Long): HumSet<R> {
+        requireSameRoot(other)
+        return HumSet(root, LongArray(words.size) { op(words[it], other.words[it]) })
+    }
+
+    infix fun union(other: HumSet<R>): HumSet<R> = combine(other) { a, b -> a or b }
+    infix fun intersect(other: HumSet<R>): HumSet<R> = combine(other) { a, b -> a and b }
+    infix fun subtract(other: HumSet<R>): HumSet<R> = combine(other) { a, b -> a and b.inv() }
+
+    operator fun plus(other: HumSet<R>) = union(other)
+    operator fun minus(other: HumSet<R>) = subtract(other)
+    operator fun plus(node: HumNode<R, *>) = union(node.asHumSet)
+    operator fun minus(node: HumNode<R, *>) = subtract(node.asHumSet)
+
+    /** All values of [root] that are not in this set. */
+    fun complement(): HumSet<R> = root.asHumSet subtract this
+
+    override fun iterator(): Iterator<R> =
+        object : Iterator<R> {
+            private var next = nextSetBit(0)
+            override fun hasNext() = next >= 0
+            override fun next(): R {
+                if (next < 0) throw NoSuchElementException()
+                return root[next].also {
+                    next = nextSetBit(next + 1)
+                }
+            }
+        }
+
+    private fun nextSetBit(from: Int): Int {
+        var w = from ushr 6
+        if (w >= words.size) return -1
+        var word = words[w] and (-1L shl from)
+        while (true) {
+            if (word != 0L) return (w shl 6) + word.countTrailingZeroBits()
+            if (++w == words.size) return -1
+            word = words[w]
+        }
+    }
+
+    override fun equals(other: Any?) =
+        when (other) {
+            is HumSet<*> -> other.root === root && other.words.contentEquals(words)
+            else -> super.equals(other)
+        }
+
+    // must equal that of other sets, so can't use words
+    override fun hashCode() = super.hashCode()
+
+}
+
+/**
+ * Serializes a [HumSet] as a list of names, see [HumSet].
+ */
+internal class HumSetSerializer<R : HumValue<R>>(
+    private val root: HumRoot<R>,
+) : KSerializer<HumSet<R>> {
+
+    private val listSerializer = ListSerializer(String.serializer())
+
+    override val descriptor = listSerializer.descriptor
+
+    override fun serialize(encoder: Encoder, value: HumSet<R>) {
+        listSerializer.serialize(encoder, value.map { root.toString(it) })
+    }
+
+    override fun deserialize(decoder: Decoder): HumSet<R> =
+        listSerializer.deserialize(decoder)
+            .fold(HumSet.empty(root)) { s, name ->
+                s + root.descendantByLocalName(name)
+            }
+
+}
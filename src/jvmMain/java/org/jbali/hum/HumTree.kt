@@ -177,6 +177,14 @@ sealed class HumNode<R : HumValue<R>, G : R>(
     operator fun contains(tree: HumNode<R, *>): Boolean =
             tree.groupClass.isSubclassOf(groupClass)
 
+    /**
+     * The values of this subtree as a [HumSet], for membership tests and set operations on bitsets.
+     */
+    val asHumSet: HumSet<R> by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        @Suppress("UNCHECKED_CAST")
+        HumSet.ofNode(rootClass.companionObjectInstance as HumRoot<R>, this)
+    }
+
     // TODO find a way to init this once per hierarchy, instead of the runtime overhead of lazy
     // must be lazy because the leaf objects have not been constructed yet when this companion is inited
     private val late by lazy(LazyThreadSafetyMode.PUBLICATION) { Late() }; inner class Late {
@@ -325,6 +333,11 @@ abstract class HumRoot<R : HumValue<R>>(rootClass: KClass<R>)
     : HumGroup<R, R>(rootClass, rootClass) {
     override val parent: Nothing? = null
     override val localName: Nothing? = null
+
+    /** Serializer for [HumSet]s of this hierarchy. */
+    val setSerializer: KSerializer<HumSet<R>> by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        HumSetSerializer(this)
+    }
 }
 
 
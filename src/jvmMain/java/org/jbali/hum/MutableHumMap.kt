@@ -0,0 +1,102 @@
+package org.jbali.hum
+
+import org.jbali.collect.ListSet
+
+/**
+ * Mutable variant of [HumMap], which also contains a value for each entry of the [HumValue] denoted by [type],
+ * whose values can be replaced, but not removed.
+ */
+class MutableHumMap<K : HumValue<K>, V> private constructor(
+    val type: HumNode<K, K>,
+    private val valueList: ArrayList<V>
+) : AbstractMutableMap<K, V>() {
+
+    companion object {
+        /**
+         * Create a MutableHumMap for the given [type] with a copy of the given associated [values].
+         * The caller is responsible for ensuring these are in the same order as the [HumNode.values].
+         */
+        fun <K : HumValue<K>, V> fromOrderedValues(type: HumNode<K, K>, values: List<V>) = MutableHumMap(type, ArrayList(values))
+
+        fun <K : HumValue<K>, V> associate(type: HumNode<K, K>, valueGetter: (K) -> V) =
+            MutableHumMap(type, type.mapTo(ArrayList(type.size), valueGetter))
+    }
+
+    init {
+        require(valueList.size == type.values.size)
+    }
+
+    private val keyList: ListSet<K> = type.values
+
+    override val size: Int
+        get() = valueList.size
+
+    override fun containsKey(key: K) = true
+
+    override fun containsValue(value: V) =
+            value in valueList
+
+    override fun get(key: K): V =
+            valueList[key.ordinal]
+
+    override fun isEmpty() = false
+
+    /**
+     * Replace the value for [key].
+     * @return the previous value.
+     */
+    override fun put(key: K, value: V): V =
+            valueList.set(key.ordinal, value)
+
+    /**
+     * Replace the value for [key] with the result of [f] applied to the current value.
+     */
+    inline fun update(key: K, f: (V) -> V) {
+        this[key] = f(this[key])
+    }
+
+    override fun remove(key: K): V = throw unsupported()
+    override fun clear() = throw unsupported()
+
+    private fun unsupported() =
+            UnsupportedOperationException("MutableHumMap contains a value for every key, which can't be removed")
+
+    override val entries: MutableSet<MutableMap.MutableEntry<K, V>>
+        get() = object : AbstractMutableSet<MutableMap.MutableEntry<K, V>>() {
+
+            override val size get() = valueList.size
+
+            override fun iterator(): MutableIterator<MutableMap.MutableEntry<K, V>> =
+                object : MutableIterator<MutableMap.MutableEntry<K, V>> {
+                    private var i = 0
+                    override fun hasNext() = i < valueList.size
+                    override fun next(): MutableMap.MutableEntry<K, V> {
+                        if (i >= valueList.size) throw NoSuchElementException()
+                        return Entry(i++)
+                    }
+                    override fun remove() = throw unsupported()
+                }
+
+            override fun add(element: MutableMap.MutableEntry<K, V>): Boolean = throw unsupported()
+
+        }
+
+    private inner class Entry(private val i: Int) : MutableMap.MutableEntry<K, V> {
+        override val key: K get() = keyList[i]
+        override val value: V get() = valueList[i]
+        override fun setValue(newValue: V): V = valueList.set(i, newValue)
+        override fun equals(other: Any?) = other is Map.Entry<*, *> && key == other.key && value == other.value
+        override fun hashCode() = key.hashCode() xor value.hashCode()
+        override fun toString() = "$key=$value"
+    }
+
+    /**
+     * @return An immutable [HumMap] with a copy of the current values.
+     */
+    fun toHumMap(): HumMap<K, V> =
+            HumMap.fromOrderedValues(type, valueList.toList())
+
+    override fun toString() =
+            humMapToString(keyList, valueList)
+
+}
@@ -229,8 +229,15 @@ private fun KSerializer<*>.asTms() = this
     .elementTransformer()
 
 internal object JjsAsTms : TMSSerializer {
+    
+    /**
+     * Send values that are not plain JSON in the compact [org.jbali.serialize.JavaBinarySerializer] format.
+     * They are always accepted when received, so this should only be enabled once all peers are up to date.
+     */
+    private val binary = System.getProperty("org.jbali.jmsrpc.JjsAsTms.binary")?.toBoolean() ?: false
+    
     override fun transform(obj: Any?) =
-        JavaJsonSerializer.serialize(obj).toJson2()
+        JavaJsonSerializer.serialize(obj, binary).toJson2()
     
     override fun detransform(tf: JsonElement): Any? =
         JavaJsonSerializer.unserialize(tf.fromJson2())
@@ -0,0 +1,466 @@
+package org.jbali.json;
+
+/**
+ * Single-pass replacement for {@link JSONTokener} when the whole source is available as a string or char array.
+ * <p>
+ * Accepts the same (lenient) syntax and produces the same values as {@link JSONTokener#nextValue()}, but:
+ * <ul>
+ *     <li>scans the array by index, without a {@link java.io.Reader} or <code>back()</code> bookkeeping;</li>
+ *     <li>fills {@link JSONObject} and {@link JSONArray} directly;</li>
+ *     <li>creates strings without escapes straight from the array, and reuses the instances of short object keys;</li>
+ *     <li>parses plain integers, and decimals that can be represented exactly, without building an intermediate string.</li>
+ * </ul>
+ * Used by {@link JSONObject#JSONObject(String)} and {@link JSONArray#JSONArray(String)},
+ * unless system property <code>org.jbali.json.FastJSONTokener.enabled</code> is <code>false</code>.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class FastJSONTokener {
+
+    static final boolean ENABLED = !"false".equals(System.getProperty(FastJSONTokener.class.getName() + ".enabled"));
+
+    /** Must be a power of 2 */
+    private static final int KEY_CACHE_SIZE = 256;
+    private static final int MAX_CACHED_KEY_LENGTH = 32;
+
+    /** Characters that end an unquoted value, see {@link JSONTokener#nextValue()} */
+    private static final boolean[] TERMINATORS = new boolean[128];
+    static {
+        for (char c : ",:]}/\\\"[{;=#".toCharArray()) {
+            TERMINATORS[c] = true;
+        }
+    }
+
+    /** Powers of 10 that are exactly representable as double */
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final char[] buf;
+    private final int begin;
+    private final int end;
+    private int pos;
+
+    private String[] keyCache;
+
+    public FastJSONTokener(String s) {
+        this(s.toCharArray());
+    }
+
+    public FastJSONTokener(char[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    /**
+     * Tokenize the characters from <code>offset</code> to <code>offset + length</code>.
+     * The array is not copied and must not be modified while tokenizing.
+     */
+    public FastJSONTokener(char[] buf, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > buf.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", array length " + buf.length);
+        }
+        this.buf = buf;
+        this.begin = offset;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * Get the next value. The value can be a Boolean, Double, Integer,
+     * JSONArray, JSONObject, Long, or String, or the JSONObject.NULL object.
+     * @throws JSONException If syntax error.
+     */
+    public Object nextValue() throws JSONException {
+        final char c = nextClean();
+        switch (c) {
+            case '"':
+            case '\'':
+                return nextString(c, false);
+            case '{':
+                pos--;
+                final JSONObject o = new JSONObject();
+                nextObject(o);
+                return o;
+            case '[':
+            case '(':
+                pos--;
+                final JSONArray a = new JSONArray();
+                nextArray(a);
+                return a;
+        }
+        if (c != 0) pos--;
+        return nextUnquoted();
+    }
+
+    /**
+     * Parse the next object into <code>o</code>, see {@link JSONObject#JSONObject(JSONTokener)}.
+     */
+    public void nextObject(JSONObject o) throws JSONException {
+        if (nextClean() != '{') {
+            throw syntaxError("A JSONObject text must begin with '{'");
+        }
+        for (;;) {
+            char c = nextClean();
+            final String key;
+            switch (c) {
+            case 0:
+                throw syntaxError("A JSONObject text must end with '}'");
+            case '}':
+                return;
+            case '"':
+            case '\'':
+                key = nextString(c, true);
+                break;
+            default:
+                pos--;
+                key = nextValue().toString();
+            }
+
+            // The key is followed by ':'. We will also tolerate '=' or '=>'.
+            c = nextClean();
+            if (c == '=') {
+                if (pos < end && buf[pos] == '>') {
+                    pos++;
+                }
+            } else if (c != ':') {
+                throw syntaxError("Expected a ':' after a key");
+            }
+            o.putParsed(key, nextValue());
+
+            // Pairs are separated by ','. We will also tolerate ';'.
+            switch (nextClean()) {
+            case ';':
+            case ',':
+                if (nextClean() == '}') {
+                    return;
+                }
+                back();
+                break;
+            case '}':
+                return;
+            default:
+                throw syntaxError("Expected a ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * Parse the next array into <code>a</code>, see {@link JSONArray#JSONArray(JSONTokener)}.
+     */
+    public void nextArray(JSONArray a) throws JSONException {
+        char c = nextClean();
+        final char q;
+        if (c == '[') {
+            q = ']';
+        } else if (c == '(') {
+            q = ')';
+        } else {
+            throw syntaxError("A JSONArray text must start with '['");
+        }
+        if (nextClean() == ']') {
+            return;
+        }
+        back();
+        for (;;) {
+            if (nextClean() == ',') {
+                back();
+                a.put((Object) null);
+            } else {
+                back();
+                a.put(nextValue());
+            }
+            c = nextClean();
+            switch (c) {
+            case ';':
+            case ',':
+                if (nextClean() == ']') {
+                    return;
+                }
+                back();
+                break;
+            case ']':
+            case ')':
+                if (q != c) {
+                    throw syntaxError("Expected a '" + q + "'");
+                }
+                return;
+            default:
+                throw syntaxError("Expected a ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * Whether there are any non-whitespace characters left.
+     */
+    public boolean more() {
+        if (nextClean() == 0) return false;
+        pos--;
+        return true;
+    }
+
+    public JSONException syntaxError(String message) {
+        return new JSONException(message + toString());
+    }
+
+    @Override
+    public String toString() {
+        int line = 1;
+        int character = 0;
+        for (int i = begin; i < pos && i < end; i++) {
+            final char c = buf[i];
+            if (c == '\n' || (c == '\r' && (i + 1 >= end || buf[i + 1] != '\n'))) {
+                line++;
+                character = 0;
+            } else {
+                character++;
+            }
+        }
+        return " at " + (Math.min(pos, end) - begin) + " [character " + character + " line " + line + "]";
+    }
+
+    // ------------------------------ internals -------------------------------- //
+
+    /**
+     * Like {@link JSONTokener#nextClean()}, returning 0 at the end.
+     * At the end the position is moved past it, so that {@link #back()} knows not to step back.
+     */
+    private char nextClean() {
+        while (pos < end) {
+            final char c = buf[pos++];
+            if (c == 0 || c > ' ') {
+                return c;
+            }
+        }
+        pos = end + 1;
+        return 0;
+    }
+
+    /** Undo {@link #nextClean()}, unless it reached the end. */
+    private void back() {
+        if (pos <= end) pos--;
+    }
+
+    private String nextString(char quote, boolean isKey) throws JSONException {
+        final int start = pos;
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            final char c = buf[i];
+            if (c == quote) {
+                pos = i + 1;
+                final int len = i - start;
+                return isKey && len <= MAX_CACHED_KEY_LENGTH ? cachedKey(start, len, h) : new String(buf, start, len);
+            }
+            if (c == '\\') {
+                pos = i;
+                return nextEscapedString(quote, start);
+            }
+            if (c == 0 || c == '\n' || c == '\r') {
+                pos = i;
+                throw syntaxError("Unterminated string");
+            }
+            h = 31 * h + c;
+        }
+        pos = end;
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * Continue {@link #nextString} at the first backslash, with the characters from <code>start</code> up to it
+     * being the first part of the string.
+     */
+    private String nextEscapedString(char quote, int start) throws JSONException {
+        final StringBuilder sb = new StringBuilder(pos - start + 16);
+        sb.append(buf, start, pos - start);
+        while (pos < end) {
+            char c = buf[pos++];
+            switch (c) {
+            case 0:
+            case '\n':
+            case '\r':
+                throw syntaxError("Unterminated string");
+            case '\\':
+                c = pos < end ? buf[pos++] : 0;
+                switch (c) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'u':
+                    if (pos + 4 > end) {
+                        throw syntaxError("Substring bounds error");
+                    }
+                    int u = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int d = JSONTokener.dehexchar(buf[pos++]);
+                        if (d < 0) {
+                            throw syntaxError("Illegal escape.");
+                        }
+                        u = (u << 4) | d;
+                    }
+                    sb.append((char) u);
+                    break;
+                case '"':
+                case '\'':
+                case '\\':
+                case '/':
+                    sb.append(c);
+                    break;
+                default:
+                    throw syntaxError("Illegal escape.");
+                }
+                break;
+            default:
+                if (c == quote) {
+                    return sb.toString();
+                }
+                sb.append(c);
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * @param h The {@link String#hashCode()} of the key.
+     * @return An existing string with the same characters, or a new one that is then cached.
+     */
+    private String cachedKey(int start, int len, int h) {
+        if (keyCache == null) {
+            keyCache = new String[KEY_CACHE_SIZE];
+        }
+        final int slot = (h ^ (h >>> 8)) & (KEY_CACHE_SIZE - 1);
+        final String cached = keyCache[slot];
+        if (cached != null && cached.hashCode() == h && cached.length() == len) {
+            int i = 0;
+            while (i < len && cached.charAt(i) == buf[start + i]) i++;
+            if (i == len) return cached;
+        }
+        return keyCache[slot] = new String(buf, start, len);
+    }
+
+    /**
+     * Handle unquoted text. This could be the values true, false, or
+     * null, or it can be a number. Non-standard forms are handled by
+     * {@link JSONObject#stringToValue(String)}, just like {@link JSONTokener#nextValue()} does.
+     */
+    private Object nextUnquoted() throws JSONException {
+        final int start = pos;
+        while (pos < end) {
+            final char c = buf[pos];
+            if (c < ' ' || (c < 128 && TERMINATORS[c])) break;
+            pos++;
+        }
+        // trim, only trailing spaces are possible
+        int e = pos;
+        while (e > start && buf[e - 1] == ' ') e--;
+        final int len = e - start;
+        if (len == 0) {
+            throw syntaxError("Missing value");
+        }
+
+        final Object n = parseNumber(start, e);
+        if (n != null) return n;
+        if (matches(start, len, "true")) return Boolean.TRUE;
+        if (matches(start, len, "false")) return Boolean.FALSE;
+        if (matches(start, len, "null")) return JSONObject.NULL;
+        return JSONObject.stringToValue(new String(buf, start, len));
+    }
+
+    private boolean matches(int start, int len, String s) {
+        if (len != s.length()) return false;
+        for (int i = 0; i < len; i++) {
+            if (buf[start + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parse standard JSON numbers with the same result as {@link JSONObject#stringToValue(String)},
+     * for as far as possible without intermediate strings.
+     * @return null if the text is not a standard number, or is one that must be parsed the slow way.
+     */
+    private Object parseNumber(int s, int e) {
+        int i = s;
+        final boolean neg = buf[i] == '-';
+        if (neg) i++;
+
+        long m = 0;
+        int digits = 0;
+        int intDigits = 0;
+        for (; i < e && isDigit(buf[i]); i++, intDigits++) {
+            m = m * 10 + (buf[i] - '0');
+        }
+        if (intDigits == 0) return null;
+        digits += intDigits;
+
+        if (i == e) {
+            // integer, stringToValue returns Integer if it fits, else Long
+            if (digits > 18) return null;
+            final long v = neg ? -m : m;
+            return v == (int) v ? (Object) (int) v : (Object) v;
+        }
+
+        int fracDigits = 0;
+        if (buf[i] == '.') {
+            i++;
+            for (; i < e && isDigit(buf[i]); i++, fracDigits++) {
+                m = m * 10 + (buf[i] - '0');
+            }
+            if (fracDigits == 0) return null;
+            digits += fracDigits;
+        }
+
+        int exp = 0;
+        if (i < e && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            boolean expNeg = false;
+            if (i < e && (buf[i] == '+' || buf[i] == '-')) {
+                expNeg = buf[i] == '-';
+                i++;
+            }
+            int expDigits = 0;
+            for (; i < e && isDigit(buf[i]); i++, expDigits++) {
+                exp = exp * 10 + (buf[i] - '0');
+            }
+            if (expDigits == 0 || expDigits > 3) return null;
+            if (expNeg) exp = -exp;
+        }
+        if (i != e) return null;
+
+        // with at most 15 digits the mantissa is exact, and so is a single multiplication
+        // or division by an exact power of 10, which gives the same result as Double.valueOf
+        if (digits > 15) return null;
+        final int exp10 = exp - fracDigits;
+        double d;
+        if (m == 0) {
+            d = 0;
+        } else if (exp10 >= 0 && exp10 < POW10.length) {
+            d = m * POW10[exp10];
+        } else if (exp10 < 0 && -exp10 < POW10.length) {
+            d = m / POW10[-exp10];
+        } else {
+            return null;
+        }
+        return neg ? -d : d;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
@@ -24,7 +24,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
-import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
@@ -102,6 +102,11 @@ public class JSONArray {
      */
     public JSONArray(JSONTokener x) throws JSONException {
         this();
+        parse(x);
+    }
+
+
+    private void parse(JSONTokener x) throws JSONException {
         char c = x.nextClean();
         char q;
         if (c == '[') {
@@ -153,7 +158,12 @@ public class JSONArray {
      *  @throws JSONException If there is a syntax error.
      */
     public JSONArray(String source) throws JSONException {
-        this(new JSONTokener(source));
+        this();
+        if (FastJSONTokener.ENABLED) {
+            new FastJSONTokener(source).nextArray(this);
+        } else {
+            parse(new JSONTokener(source));
+        }
     }
 
 
@@ -887,31 +897,20 @@ public class JSONArray {
      * @throws JSONException
      */
     public Writer write(Writer writer) throws JSONException {
-        try {
-            boolean b = false;
-            int     len = length();
+        return JSONStreamWriter.write(this, writer);
+    }
 
-            writer.write('[');
 
-            for (int i = 0; i < len; i += 1) {
-                if (b) {
-                    writer.write(',');
-                }
-                Object v = this.myArrayList.get(i);
-                if (v instanceof JSONObject) {
-                    ((JSONObject)v).write(writer);
-                } else if (v instanceof JSONArray) {
-                    ((JSONArray)v).write(writer);
-                } else {
-                    writer.write(JSONObject.valueToString(v));
-                }
-                b = true;
-            }
-            writer.write(']');
-            return writer;
-        } catch (IOException e) {
-           throw new JSONException(e);
-        }
+    /**
+     * Write the contents of the JSONArray as UTF-8 encoded JSON text to a stream,
+     * without building the whole text in memory first. Does not close the stream.
+     * <p>
+     * Warning: This method assumes that the data structure is acyclical.
+     *
+     * @throws JSONException
+     */
+    public void write(OutputStream out) throws JSONException {
+        JSONStreamWriter.write(this, out);
     }
     
     public static JSONArray create(Object... array) {
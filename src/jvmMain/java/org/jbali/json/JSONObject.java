@@ -24,7 +24,7 @@ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
 SOFTWARE.
 */
 
-import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -188,6 +188,11 @@ public class JSONObject {
      */
     public JSONObject(JSONTokener x) throws JSONException {
         this();
+        parse(x);
+    }
+
+
+    private void parse(JSONTokener x) throws JSONException {
         char c;
         String key;
 
@@ -317,7 +322,12 @@ public class JSONObject {
      *  string or a duplicated key.
      */
     public JSONObject(String source) throws JSONException {
-        this(new JSONTokener(source));
+        this();
+        if (FastJSONTokener.ENABLED) {
+            new FastJSONTokener(source).nextObject(this);
+        } else {
+            parse(new JSONTokener(source));
+        }
     }
 
 
@@ -1064,6 +1074,19 @@ public class JSONObject {
     }
 
 
+    /**
+     * Put a parsed key/value pair, like {@link #putOnce(String, Object)}
+     * but with a single map lookup.
+     * @throws JSONException if the key is a duplicate or the value is a non-finite number
+     */
+    void putParsed(String key, Object value) throws JSONException {
+        testValidity(value);
+        if (this.map.putIfAbsent(key, value) != null) {
+            throw new JSONException("Duplicate key \"" + key + "\"");
+        }
+    }
+
+
     /**
      * Put a key/value pair in the JSONObject, but only if the key and the
      * value are both non-null, and only if there is not already a member
@@ -1556,33 +1579,20 @@ public class JSONObject {
       * @throws JSONException
       */
      public Writer write(Writer writer) throws JSONException {
-        try {
-            boolean  b = false;
-            Iterator<String> keys = keys();
-            writer.write('{');
+        return JSONStreamWriter.write(this, writer);
+     }
 
-            while (keys.hasNext()) {
-                if (b) {
-                    writer.write(',');
-                }
-                Object k = keys.next();
-                writer.write(quote(k.toString()));
-                writer.write(':');
-                Object v = this.map.get(k);
-                if (v instanceof JSONObject) {
-                    ((JSONObject)v).write(writer);
-                } else if (v instanceof JSONArray) {
-                    ((JSONArray)v).write(writer);
-                } else {
-                    writer.write(valueToString(v));
-                }
-                b = true;
-            }
-            writer.write('}');
-            return writer;
-        } catch (IOException exception) {
-            throw new JSONException(exception);
-        }
+
+     /**
+      * Write the contents of the JSONObject as UTF-8 encoded JSON text to a stream,
+      * without building the whole text in memory first. Does not close the stream.
+      * <p>
+      * Warning: This method assumes that the data structure is acyclical.
+      *
+      * @throws JSONException
+      */
+     public void write(OutputStream out) throws JSONException {
+         JSONStreamWriter.write(this, out);
      }
 
 
@@ -0,0 +1,230 @@
+package org.jbali.json;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Writes {@link JSONObject} and {@link JSONArray} trees as compact JSON text, directly to an {@link Appendable}
+ * or UTF-8 {@link OutputStream}, through a fixed size buffer.
+ * <p>
+ * Unlike {@link JSONObject#toString()}, no string of the whole text, or of any nested object, array or
+ * quoted string, is built first. The output is identical to that of <code>toString()</code>,
+ * except that invalid content, such as a non-finite number, throws a {@link JSONException}
+ * instead of producing a <code>[toString error: ...]</code> text.
+ * <p>
+ * Values of other types than those produced by parsing are written using {@link JSONObject#valueToString(Object)}.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class JSONStreamWriter implements Flushable {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Appendable out;
+    private final char[] buf;
+    private int n;
+
+    public JSONStreamWriter(Appendable out) {
+        this.out = out;
+        this.buf = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Write to <code>out</code> encoded as UTF-8.
+     */
+    public JSONStreamWriter(OutputStream out) {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write <code>value</code> to <code>out</code>. Does not flush or close <code>out</code>.
+     * @return out
+     */
+    public static <A extends Appendable> A write(Object value, A out) throws JSONException {
+        final JSONStreamWriter w = new JSONStreamWriter(out);
+        w.value(value);
+        w.drain();
+        return out;
+    }
+
+    /**
+     * Write <code>value</code> to <code>out</code> encoded as UTF-8, and flush. Does not close <code>out</code>.
+     */
+    public static void write(Object value, OutputStream out) throws JSONException {
+        final JSONStreamWriter w = new JSONStreamWriter(out);
+        w.value(value);
+        w.flush();
+    }
+
+    /**
+     * Write a value, which can be anything accepted by {@link JSONObject#valueToString(Object)}.
+     * The text may remain in the buffer until {@link #flush()} is called.
+     */
+    public JSONStreamWriter value(Object value) throws JSONException {
+        if (value instanceof JSONObject) {
+            writeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value);
+        } else if (value instanceof String) {
+            writeQuoted((String) value);
+        } else {
+            // rare or small, see valueToString
+            writeRaw(JSONObject.valueToString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Write the buffered text to the underlying output, and flush it if it is {@link Flushable}.
+     */
+    @Override
+    public void flush() throws JSONException {
+        drain();
+        if (out instanceof Flushable) {
+            try {
+                ((Flushable) out).flush();
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+        }
+    }
+
+    // ------------------------------ internals -------------------------------- //
+
+    /** See {@link JSONObject#toString()} */
+    private void writeObject(JSONObject o) throws JSONException {
+        put('{');
+        boolean first = true;
+        for (Iterator<String> keys = o.keys(); keys.hasNext(); ) {
+            if (!first) {
+                put(',');
+            }
+            first = false;
+            final String k = keys.next();
+            writeQuoted(k);
+            put(':');
+            value(o.opt(k));
+        }
+        put('}');
+    }
+
+    /** See {@link JSONArray#toString()} */
+    private void writeArray(JSONArray a) throws JSONException {
+        put('[');
+        final int len = a.length();
+        for (int i = 0; i < len; i++) {
+            if (i > 0) {
+                put(',');
+            }
+            value(a.opt(i));
+        }
+        put(']');
+    }
+
+    /** Same escaping as {@link JSONObject#quote(String)} */
+    private void writeQuoted(String s) throws JSONException {
+        put('"');
+        final int len = s.length();
+        char c = 0;
+        for (int i = 0; i < len; i++) {
+            final char b = c;
+            c = s.charAt(i);
+            // room for the longest escape
+            if (n + 6 > buf.length) {
+                drain();
+            }
+            switch (c) {
+            case '\\':
+            case '"':
+                buf[n++] = '\\';
+                buf[n++] = c;
+                break;
+            case '/':
+                if (b == '<') {
+                    buf[n++] = '\\';
+                }
+                buf[n++] = c;
+                break;
+            case '\b':
+                buf[n++] = '\\';
+                buf[n++] = 'b';
+                break;
+            case '\t':
+                buf[n++] = '\\';
+                buf[n++] = 't';
+                break;
+            case '\n':
+                buf[n++] = '\\';
+                buf[n++] = 'n';
+                break;
+            case '\f':
+                buf[n++] = '\\';
+                buf[n++] = 'f';
+                break;
+            case '\r':
+                buf[n++] = '\\';
+                buf[n++] = 'r';
+                break;
+            default:
+                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') ||
+                               (c >= '\u2000' && c < '\u2100')) {
+                    buf[n++] = '\\';
+                    buf[n++] = 'u';
+                    buf[n++] = HEX[(c >> 12) & 0xF];
+                    buf[n++] = HEX[(c >> 8) & 0xF];
+                    buf[n++] = HEX[(c >> 4) & 0xF];
+                    buf[n++] = HEX[c & 0xF];
+                } else {
+                    buf[n++] = c;
+                }
+            }
+        }
+        put('"');
+    }
+
+    private void writeRaw(String s) throws JSONException {
+        int i = 0;
+        final int len = s.length();
+        while (i < len) {
+            if (n == buf.length) {
+                drain();
+            }
+            final int chunk = Math.min(len - i, buf.length - n);
+            s.getChars(i, i + chunk, buf, n);
+            n += chunk;
+            i += chunk;
+        }
+    }
+
+    private void put(char c) throws JSONException {
+        if (n == buf.length) {
+            drain();
+        }
+        buf[n++] = c;
+    }
+
+    /** Write the buffer to {@link #out}, without flushing that. */
+    void drain() throws JSONException {
+        if (n == 0) return;
+        try {
+            if (out instanceof Writer) {
+                ((Writer) out).write(buf, 0, n);
+            } else if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(buf, 0, n);
+            } else {
+                out.append(CharBuffer.wrap(buf, 0, n));
+            }
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        n = 0;
+    }
+
+}
@@ -90,6 +90,11 @@ public class JSONWriter {
      */
     protected Writer writer;
 
+    /**
+     * Writes JSONObject and JSONArray values to {@link #writer}, created when first needed.
+     */
+    private JSONStreamWriter streamWriter;
+
     /**
      * Make a fresh JSONWriter. It can be used to build one JSON text.
      */
@@ -111,12 +116,31 @@ public class JSONWriter {
         if (s == null) {
             throw new JSONException("Null pointer");
         }
+        return this.append(s, null);
+    }
+
+    /**
+     * Append a value, either as text or by streaming it.
+     * @param s A string value, used if tree is null.
+     * @param tree A value to write with {@link JSONStreamWriter}.
+     * @return this
+     * @throws JSONException If the value is out of sequence.
+     */
+    private JSONWriter append(String s, Object tree) throws JSONException {
         if (this.mode == 'o' || this.mode == 'a') {
             try {
                 if (this.comma && this.mode == 'a') {
                     this.writer.write(',');
                 }
-                this.writer.write(s);
+                if (tree == null) {
+                    this.writer.write(s);
+                } else {
+                    if (this.streamWriter == null) {
+                        this.streamWriter = new JSONStreamWriter(this.writer);
+                    }
+                    this.streamWriter.value(tree);
+                    this.streamWriter.drain();
+                }
             } catch (IOException e) {
                 throw new JSONException(e);
             }
@@ -318,6 +342,9 @@ public class JSONWriter {
      * @throws JSONException If the value is out of sequence.
      */
     public JSONWriter value(Object o) throws JSONException {
+        if (o instanceof JSONObject || o instanceof JSONArray) {
+            return this.append(null, o);
+        }
         return this.append(JSONObject.valueToString(o));
     }
 }
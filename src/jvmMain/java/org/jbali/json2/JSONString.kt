@@ -32,6 +32,13 @@ value class JSONString(
     fun parse(): JsonElement =
             BasicJson.parse(string)
 
+    /**
+     * Scan this JSON string into a [LazyJsonElement], which only decodes the parts that are accessed.
+     * Its subtrees can be fully parsed again with `element.json.parse()`.
+     */
+    fun parseLazy(): LazyJsonElement =
+            LazyJsonElement.parse(string)
+
     fun prettify() =
             JSONString(makeJsonPretty(string))
 
@@ -19,7 +19,7 @@ import org.jbali.collect.forEachEntryIndexed
  *
  * TODO do similar standardized formats exist? -> perhaps the Properties format of kotlinx.serialization
  *
- * TODO how hard would it be to write a custom kotlin-serialization format for this?
+ * `org.jbali.kotser.KVONDeserializer` decodes KVON directly, without this conversion.
  *
  */
 sealed class KVON {
@@ -30,6 +30,11 @@ sealed class KVON {
 
     protected abstract fun toJson(): JSONString
 
+    /**
+     * Call [action] for each key and value, in iteration order.
+     */
+    abstract fun forEachEntry(action: (key: String, value: String) -> Unit)
+
     override fun toString() = asJsonObject.toString()
     override fun equals(other: Any?) = other is KVON && other.asJsonObject == asJsonObject
     override fun hashCode() = asJsonObject.hashCode()
@@ -42,6 +47,10 @@ sealed class KVON {
                         key   = { it.key },
                         value = { it.value }
                 )
+
+        override fun forEachEntry(action: (key: String, value: String) -> Unit) {
+            map.forEach(action)
+        }
     }
 
     class Pairs(
@@ -56,6 +65,10 @@ sealed class KVON {
                         key   = { it.first },
                         value = { it.second }
                 )
+
+        override fun forEachEntry(action: (key: String, value: String) -> Unit) {
+            entries.forEach { (k, v) -> action(k, v) }
+        }
     }
 
     protected inline fun <E : Any> Iterable<E>.toJson(
@@ -63,7 +76,8 @@ sealed class KVON {
             value: (E) -> String
     ): JSONString =
             JSONString(buildString(
-                    capacity = 2048 + 1024 // maximum URL length is 2048, JSON takes more space
+                    // quotes, separators and a little escaping per entry
+                    capacity = 2 + sumOf { key(it).length + value(it).length + 8 }
             ) {
                 append('{')
                 forEachEntryIndexed(key, value) { i, k, v ->
@@ -0,0 +1,397 @@
+package org.jbali.json2
+
+/**
+ * Read-only view of a value in a JSON text, which only decodes what is accessed.
+ *
+ * [parse] does a single structural scan of the whole text, which validates it and records the offsets of all values.
+ * Object keys, strings, numbers and child views are then only created when accessed,
+ * so reading a few fields of a large document, e.g. to route it, costs little more than that scan.
+ *
+ * The subtypes mirror those of `kotlinx.serialization.json.JsonElement`:
+ * - [LazyJsonObject] is a [Map] of keys to lazy values
+ * - [LazyJsonArray] is a [List] of lazy values
+ * - [LazyJsonPrimitive] is a string, number, boolean or null
+ *
+ * [toString] returns the JSON text of the value, as it appears in the source.
+ */
+sealed class LazyJsonElement(
+    internal val tape: LazyJsonTape,
+    internal val node: Int,
+) {
+
+    /** The JSON text of this value, as it appears in the source. */
+    val json: JSONString get() = JSONString(toString())
+
+    /**
+     * Get the content of this value as a [JsonableValue]?, deeply, with the same result as
+     * `JsonElement.unwrap()` in `org.jbali.kotser` would have for the same JSON.
+     */
+    abstract fun unwrap(): JsonableValue?
+
+    override fun toString(): String =
+        tape.text.substring(tape.start(node), tape.end(node))
+
+    companion object {
+
+        /**
+         * Scan [text], which must contain a single JSON value, optionally surrounded by whitespace.
+         * @throws IllegalArgumentException if [text] is not valid JSON.
+         */
+        fun parse(text: String): LazyJsonElement =
+            LazyJsonScanner(text).scan().element(0)
+
+    }
+
+}
+
+class LazyJsonObject internal constructor(tape: LazyJsonTape, node: Int) : LazyJsonElement(tape, node), Map<String, LazyJsonElement> {
+
+    /** Node indices of the keys, each followed by its value */
+    private val keyNodes: IntArray = tape.children(node)
+    private val valueViews = arrayOfNulls<LazyJsonElement>(keyNodes.size)
+
+    /** Key to index in [keyNodes], built when needed. Later duplicate keys override earlier ones. */
+    private val index: Map<String, Int> by lazy {
+        LinkedHashMap<String, Int>(keyNodes.size * 2).also { m ->
+            keyNodes.indices.forEach { i -> m[tape.string(keyNodes[i])] = i }
+        }
+    }
+    private var lookups = 0
+
+    private fun indexOf(key: String): Int {
+        // for the first few lookups, compare the keys in the source instead of decoding them all
+        if (++lookups <= LINEAR_LOOKUPS) {
+            for (i in keyNodes.indices.reversed()) {
+                if (tape.stringEquals(keyNodes[i], key)) return i
+            }
+            return -1
+        }
+        return index[key] ?: -1
+    }
+
+    private fun valueAt(i: Int): LazyJsonElement =
+        valueViews[i] ?: tape.element(keyNodes[i] + 1).also { valueViews[i] = it }
+
+    override fun get(key: String): LazyJsonElement? =
+        indexOf(key).takeIf { it >= 0 }?.let(::valueAt)
+
+    override fun containsKey(key: String) = indexOf(key) >= 0
+
+    override val size get() = index.size
+    override fun isEmpty() = keyNodes.isEmpty()
+    override val keys: Set<String> get() = index.keys
+
+    override val values: Collection<LazyJsonElement>
+        get() = index.values.map(::valueAt)
+
+    override val entries: Set<Map.Entry<String, LazyJsonElement>>
+        get() = index.entries.mapTo(LinkedHashSet(index.size)) { (k, i) -> java.util.AbstractMap.SimpleImmutableEntry(k, valueAt(i)) }
+
+    override fun containsValue(value: LazyJsonElement) = values.contains(value)
+
+    override fun unwrap(): JsonableMap =
+        index.mapValues { (_, i) -> valueAt(i).unwrap() }
+
+    override fun equals(other: Any?) = other is Map<*, *> && other.entries == entries
+    override fun hashCode() = entries.hashCode()
+
+    // as per Map, not the default of LazyJsonElement
+    override fun toString(): String = super.toString()
+
+    private companion object {
+        const val LINEAR_LOOKUPS = 4
+    }
+
+}
+
+class LazyJsonArray internal constructor(tape: LazyJsonTape, node: Int) : LazyJsonElement(tape, node), List<LazyJsonElement> {
+
+    private val children: IntArray = tape.children(node)
+    private val elements = arrayOfNulls<LazyJsonElement>(children.size)
+
+    private val list = object : AbstractList<LazyJsonElement>(), RandomAccess {
+        override val size get() = children.size
+        override fun get(index: Int): LazyJsonElement =
+            elements[index] ?: tape.element(children[index]).also { elements[index] = it }
+    }
+
+    override val size get() = children.size
+    override fun get(index: Int) = list[index]
+    override fun isEmpty() = children.isEmpty()
+    override fun contains(element: LazyJsonElement) = list.contains(element)
+    override fun containsAll(elements: Collection<LazyJsonElement>) = list.containsAll(elements)
+    override fun indexOf(element: LazyJsonElement) = list.indexOf(element)
+    override fun lastIndexOf(element: LazyJsonElement) = list.lastIndexOf(element)
+    override fun iterator() = list.iterator()
+    override fun listIterator() = list.listIterator()
+    override fun listIterator(index: Int) = list.listIterator(index)
+    override fun subList(fromIndex: Int, toIndex: Int) = list.subList(fromIndex, toIndex)
+
+    override fun unwrap(): JsonableList =
+        list.map { it.unwrap() }
+
+    override fun equals(other: Any?) = list == other
+    override fun hashCode() = list.hashCode()
+    override fun toString(): String = super.toString()
+
+}
+
+class LazyJsonPrimitive internal constructor(tape: LazyJsonTape, node: Int) : LazyJsonElement(tape, node) {
+
+    private val first = tape.text[tape.start(node)]
+
+    val isString get() = first == '"'
+    val isNull get() = first == 'n'
+
+    /**
+     * The decoded string for strings, or else the literal text, e.g. `12.5`, `true` or `null`.
+     */
+    val content: String by lazy {
+        if (isString) tape.string(node) else super.toString()
+    }
+
+    /**
+     * @return A [Boolean], [Double], [String] or `null`.
+     */
+    override fun unwrap(): JsonableLiteral? =
+        when (first) {
+            '"' -> content
+            't' -> true
+            'f' -> false
+            'n' -> null
+            else -> content.toDouble()
+        }
+
+    override fun equals(other: Any?) =
+        other is LazyJsonPrimitive && other.isString == isString && other.content == content
+    override fun hashCode() = content.hashCode()
+
+}
+
+/**
+ * The offsets of all values in a JSON text, in document order, where each object key precedes its value.
+ * For each node there are 3 ints: start and end offset in the text, and the index of the next node
+ * after this node's subtree.
+ */
+internal class LazyJsonTape(
+    val text: String,
+    private val nodes: IntArray,
+) {
+
+    fun start(node: Int) = nodes[node * 3]
+    fun end(node: Int) = nodes[node * 3 + 1]
+    private fun next(node: Int) = nodes[node * 3 + 2]
+
+    fun element(node: Int): LazyJsonElement =
+        when (text[start(node)]) {
+            '{' -> LazyJsonObject(this, node)
+            '[' -> LazyJsonArray(this, node)
+            else -> LazyJsonPrimitive(this, node)
+        }
+
+    /**
+     * @return The direct children of a container node. For objects only the keys.
+     */
+    fun children(node: Int): IntArray {
+        val isObject = text[start(node)] == '{'
+        val end = next(node)
+        var count = 0
+        var c = node + 1
+        while (c < end) {
+            count++
+            c = next(c)
+            if (isObject) c = next(c)
+        }
+        val children = IntArray(count)
+        c = node + 1
+        for (i in 0 until count) {
+            children[i] = c
+            c = next(c)
+            if (isObject) c = next(c)
+        }
+        return children
+    }
+
+    /** Whether string [node] has the content [s], without decoding it if possible. */
+    fun stringEquals(node: Int, s: String): Boolean {
+        val from = start(node) + 1
+        val to = end(node) - 1
+        return if (text.indexOf('\\', from).let { it < 0 || it >= to }) {
+            to - from == s.length && text.regionMatches(from, s, 0, s.length)
+        } else {
+            string(node) == s
+        }
+    }
+
+    /** The decoded content of string [node]. */
+    fun string(node: Int): String {
+        val from = start(node) + 1
+        val to = end(node) - 1
+        var esc = text.indexOf('\\', from)
+        if (esc < 0 || esc >= to) return text.substring(from, to)
+
+        val sb = StringBuilder(to - from)
+        var i = from
+        while (esc in 0 until to) {
+            sb.append(text, i, esc)
+            val c = text[esc + 1]
+            i = esc + 2
+            when (c) {
+                'b' -> sb.append('\b')
+                'f' -> sb.append('\u000C')
+                'n' -> sb.append('\n')
+                'r' -> sb.append('\r')
+                't' -> sb.append('\t')
+                'u' -> {
+                    sb.append(text.substring(i, i + 4).toInt(16).toChar())
+                    i += 4
+                }
+                else -> sb.append(c)
+            }
+            esc = text.indexOf('\\', i)
+        }
+        sb.append(text, i, to)
+        return sb.toString()
+    }
+
+}
+
+/**
+ * Validates a JSON text and records the offsets of its values, see [LazyJsonTape].
+ */
+internal class LazyJsonScanner(private val text: String) {
+
+    private var pos = 0
+    private var nodes = IntArray(3 * 64)
+    private var count = 0
+
+    fun scan(): LazyJsonTape {
+        skipWhitespace()
+        scanValue()
+        skipWhitespace()
+        if (pos != text.length) fail("Unexpected content after value")
+        return LazyJsonTape(text, nodes)
+    }
+
+    private fun fail(message: String): Nothing =
+        throw IllegalArgumentException("$message at offset $pos of JSON")
+
+    private fun peek(): Char =
+        if (pos < text.length) text[pos] else fail("Unexpected end")
+
+    private fun expect(c: Char) {
+        if (peek() != c) fail("Expected '$c'")
+        pos++
+    }
+
+    private fun skipWhitespace() {
+        while (pos < text.length) {
+            when (text[pos]) {
+                ' ', '\t', '\n', '\r' -> pos++
+                else -> return
+            }
+        }
+    }
+
+    private fun scanValue() {
+        if (count * 3 == nodes.size) nodes = nodes.copyOf(nodes.size * 2)
+        val node = count++
+        nodes[node * 3] = pos
+        when (peek()) {
+            '{' -> scanContainer('}', isObject = true)
+            '[' -> scanContainer(']', isObject = false)
+            '"' -> scanString()
+            't' -> scanWord("true")
+            'f' -> scanWord("false")
+            'n' -> scanWord("null")
+            else -> scanNumber()
+        }
+        nodes[node * 3 + 1] = pos
+        nodes[node * 3 + 2] = count
+    }
+
+    private fun scanContainer(close: Char, isObject: Boolean) {
+        pos++
+        skipWhitespace()
+        if (peek() == close) {
+            pos++
+            return
+        }
+        while (true) {
+            skipWhitespace()
+            if (isObject) {
+                if (peek() != '"') fail("Expected a key")
+                scanValue()
+                skipWhitespace()
+                expect(':')
+                skipWhitespace()
+            }
+            scanValue()
+            skipWhitespace()
+            when (peek()) {
+                ',' -> pos++
+                close -> {
+                    pos++
+                    return
+                }
+                else -> fail("Expected ',' or '$close'")
+            }
+        }
+    }
+
+    private fun scanString() {
+        pos++
+        while (true) {
+            when (peek()) {
+                '"' -> {
+                    pos++
+                    return
+                }
+                '\\' -> {
+                    pos++
+                    when (peek()) {
+                        '"', '\\', '/', 'b', 'f', 'n', 'r', 't' -> pos++
+                        'u' -> {
+                            pos++
+                            repeat(4) {
+                                if (Character.digit(peek(), 16) < 0) fail("Invalid unicode escape")
+                                pos++
+                            }
+                        }
+                        else -> fail("Invalid escape")
+                    }
+                }
+                else -> {
+                    if (text[pos] < ' ') fail("Control character in string")
+                    pos++
+                }
+            }
+        }
+    }
+
+    private fun scanWord(word: String) {
+        if (!text.startsWith(word, pos)) fail("Expected '$word'")
+        pos += word.length
+    }
+
+    private fun scanNumber() {
+        if (pos < text.length && text[pos] == '-') pos++
+        if (scanDigits() == 0) fail("Expected a value")
+        if (pos < text.length && text[pos] == '.') {
+            pos++
+            if (scanDigits() == 0) fail("Expected digits")
+        }
+        if (pos < text.length && (text[pos] == 'e' || text[pos] == 'E')) {
+            pos++
+            if (pos < text.length && (text[pos] == '+' || text[pos] == '-')) pos++
+            if (scanDigits() == 0) fail("Expected digits")
+        }
+    }
+
+    private fun scanDigits(): Int {
+        val start = pos
+        while (pos < text.length && text[pos] in '0'..'9') pos++
+        return pos - start
+    }
+
+}
@@ -1,30 +1,196 @@
 package org.jbali.kotser
 
 import kotlinx.serialization.DeserializationStrategy
+import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.descriptors.PrimitiveKind
+import kotlinx.serialization.descriptors.SerialDescriptor
+import kotlinx.serialization.descriptors.SerialKind
+import kotlinx.serialization.descriptors.StructureKind
+import kotlinx.serialization.encoding.AbstractDecoder
+import kotlinx.serialization.encoding.CompositeDecoder
+import kotlinx.serialization.encoding.CompositeDecoder.Companion.DECODE_DONE
+import kotlinx.serialization.encoding.CompositeDecoder.Companion.UNKNOWN_NAME
+import kotlinx.serialization.encoding.Decoder
 import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonDecoder
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonNames
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.modules.SerializersModule
 import org.jbali.json2.JSONString
 import org.jbali.json2.KVON
 
 /**
  * Parse [KVON] to objects of type [T].
+ *
+ * Objects and maps are decoded directly from the KVON entries, with the same result as decoding [KVON.asJsonObject]
+ * would have. Only values that are JSON themselves (starting with `[` or `{`) are parsed, each on its own.
+ * Other types, e.g. polymorphic ones, are decoded from [KVON.asJsonObject].
+ *
  * @param jsonFormat The [Json] to use for parsing. Will be modified to have [kotlinx.serialization.json.JsonBuilder.isLenient] `true`, since
  *                   [KVON.toJson] (having no knowledge of [T]) cannot determine whether an input of `"true"`
  *                   is supposed to be a boolean or string, and will output it as a quoted string.
  *                   A lenient [Json] allows deserializing such a string to a [Boolean].
+ *                   The direct decoding follows the same rules.
+ * @param intermediateJsonCallback If given, is called with [KVON.asJsonObject] for each input, e.g. for logging.
  */
 class KVONDeserializer<T : Any>(
         val deserializer: DeserializationStrategy<T>,
         jsonFormat: Json = DefaultJson.readLenient,
-        private val intermediateJsonCallback: (JSONString) -> Unit = {}
+        private val intermediateJsonCallback: ((JSONString) -> Unit)? = null
 ) {
 
     private val jsonFormat = Json(jsonFormat) {
         isLenient = true
     }
 
-    fun deserialize(kvon: KVON): T =
-            kvon.asJsonObject
-                    .also(intermediateJsonCallback)
-                    .parse(jsonFormat, deserializer)
+    private val direct = when (deserializer.descriptor.kind) {
+        StructureKind.CLASS, StructureKind.OBJECT, StructureKind.MAP -> true
+        else -> false
+    }
+
+    fun deserialize(kvon: KVON): T {
+        intermediateJsonCallback?.invoke(kvon.asJsonObject)
+        return if (direct) {
+            KVONDecoder(jsonFormat, kvon).decodeSerializableValue(deserializer)
+        } else {
+            deserializeViaJson(kvon)
+        }
+    }
+
+    /**
+     * Deserialize by converting [kvon] to a JSON object and parsing that, which is what [deserialize] does
+     * for types that can't be decoded directly.
+     */
+    fun deserializeViaJson(kvon: KVON): T =
+            kvon.asJsonObject.parse(jsonFormat, deserializer)
+
+}
+
+/**
+ * Decodes a class, object or map from the entries of a [KVON], see [KVONDeserializer].
+ *
+ * Implements [JsonDecoder] so that serializers which require it also work,
+ * with KVON values being presented as [JsonPrimitive] strings.
+ */
+@OptIn(ExperimentalSerializationApi::class)
+internal class KVONDecoder(
+        override val json: Json,
+        private val kvon: KVON,
+) : AbstractDecoder(), JsonDecoder {
+
+    private val keys = ArrayList<String>()
+    private val values = ArrayList<String>()
+
+    init {
+        kvon.forEachEntry { k, v ->
+            keys += k
+            values += v
+        }
+    }
+
+    override val serializersModule: SerializersModule get() = json.serializersModule
+
+    private var structure: SerialDescriptor? = null
+    /** Index of the current entry. For maps, counts keys and values separately. */
+    private var entry = -1
+    private var current = ""
+    private var currentIsKey = false
+
+    private val currentKey get() = if (structure?.kind == StructureKind.MAP) keys[entry / 2] else keys[entry]
+
+    private fun fail(message: String): Nothing =
+            throw SerializationException("$message, for key '$currentKey' in KVON")
+
+    override fun beginStructure(descriptor: SerialDescriptor): CompositeDecoder {
+        if (structure != null) throw SerializationException("Unexpected nested ${descriptor.serialName} in KVON")
+        structure = descriptor
+        return this
+    }
+
+    override fun decodeElementIndex(descriptor: SerialDescriptor): Int {
+        if (descriptor.kind == StructureKind.MAP) {
+            if (++entry >= keys.size * 2) return DECODE_DONE
+            currentIsKey = entry % 2 == 0
+            current = if (currentIsKey) keys[entry / 2] else values[entry / 2]
+            return entry
+        }
+        while (++entry < keys.size) {
+            val i = elementIndex(descriptor, keys[entry])
+            if (i != UNKNOWN_NAME) {
+                current = values[entry]
+                return i
+            }
+            if (!json.configuration.ignoreUnknownKeys) {
+                fail("Unknown key for ${descriptor.serialName}")
+            }
+        }
+        return DECODE_DONE
+    }
+
+    private fun elementIndex(descriptor: SerialDescriptor, name: String): Int {
+        val i = descriptor.getElementIndex(name)
+        if (i != UNKNOWN_NAME || !json.configuration.useAlternativeNames) return i
+        return (0 until descriptor.elementsCount).firstOrNull { e ->
+            descriptor.getElementAnnotations(e).any { it is JsonNames && name in it.names }
+        } ?: UNKNOWN_NAME
+    }
+
+    override fun <T> decodeSerializableValue(deserializer: DeserializationStrategy<T>): T {
+        if (structure == null) return deserializer.deserialize(this)
+
+        val d = deserializer.descriptor
+        return when {
+            !currentIsKey && (current.startsWith('{') || current.startsWith('[')) ->
+                json.decodeFromString(deserializer, current)
+            d.kind is PrimitiveKind || d.kind == SerialKind.ENUM || d.isInline ->
+                deserializer.deserialize(this)
+            else ->
+                json.decodeFromJsonElement(deserializer, JsonPrimitive(current))
+        }
+    }
+
+    override fun decodeJsonElement(): JsonElement =
+            if (structure == null) {
+                // the whole input, e.g. for a JsonTransformingSerializer of a class
+                json.parseToJsonElement(kvon.asJsonObject.string)
+            } else if (!currentIsKey && (current.startsWith('{') || current.startsWith('['))) {
+                json.parseToJsonElement(current)
+            } else {
+                JsonPrimitive(current)
+            }
+
+    // a KVON value is always a string, so never null, like a quoted string in JSON
+    override fun decodeNotNullMark() = true
+    override fun decodeInline(descriptor: SerialDescriptor): Decoder = this
+
+    override fun decodeString() = current
+    override fun decodeChar() = current.singleOrNull() ?: fail("Expected a single character")
+
+    override fun decodeBoolean() =
+            when {
+                current.equals("true", ignoreCase = true) -> true
+                current.equals("false", ignoreCase = true) -> false
+                else -> fail("Expected a boolean")
+            }
+
+    override fun decodeByte() = current.toByteOrNull() ?: fail("Expected a byte")
+    override fun decodeShort() = current.toShortOrNull() ?: fail("Expected a short")
+    override fun decodeInt() = current.toIntOrNull() ?: fail("Expected an int")
+    override fun decodeLong() = current.toLongOrNull() ?: fail("Expected a long")
+
+    override fun decodeFloat() = decodeDouble().toFloat()
+    override fun decodeDouble(): Double {
+        val d = current.toDoubleOrNull() ?: fail("Expected a number")
+        if (!d.isFinite() && !json.configuration.allowSpecialFloatingPointValues) {
+            fail("Unexpected special floating-point value")
+        }
+        return d
+    }
+
+    override fun decodeEnum(enumDescriptor: SerialDescriptor): Int =
+            elementIndex(enumDescriptor, current).takeIf { it != UNKNOWN_NAME }
+                    ?: fail("${enumDescriptor.serialName} does not contain element with name '$current'")
 
 }
@@ -0,0 +1,276 @@
+package org.jbali.kotser
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.builtins.ListSerializer
+import kotlinx.serialization.json.Json
+import java.io.Reader
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ForkJoinTask
+
+/**
+ * Configuration for [decodeArrayParallel] and [decodeLinesParallel].
+ *
+ * At most [maxChunksInFlight] chunks of about [chunkSize] characters are read ahead, so memory use is bounded
+ * by roughly `maxChunksInFlight * chunkSize` characters plus their decoded elements, regardless of the input size.
+ */
+data class ParallelDecoding(
+    val pool: ForkJoinPool = ForkJoinPool.commonPool(),
+    /** Approximate number of characters per chunk. A single element larger than this is a chunk of its own. */
+    val chunkSize: Int = 256 * 1024,
+    val maxChunksInFlight: Int = pool.parallelism * 2,
+) {
+    init {
+        require(chunkSize > 0) { "chunkSize must be positive" }
+        require(maxChunksInFlight > 0) { "maxChunksInFlight must be positive" }
+    }
+}
+
+/**
+ * Decode the elements of a top-level JSON array from [reader], in parallel.
+ *
+ * The text is split into chunks of whole elements on the calling thread, which only tracks nesting and strings.
+ * The chunks are then decoded with [deserializer] on [ParallelDecoding.pool].
+ *
+ * @return The elements in their original order. Can only be iterated once. Reading happens while iterating,
+ * so [reader] must be closed by the caller afterwards. Decoding errors are thrown by the iterator.
+ */
+fun <T> Json.decodeArrayParallel(
+    deserializer: KSerializer<T>,
+    reader: Reader,
+    config: ParallelDecoding = ParallelDecoding(),
+): Sequence<T> =
+    ChunkedDecodingIterator(config, ArraySplitter(reader, config.chunkSize)) { chunk ->
+        decodeFromString(ListSerializer(deserializer), chunk)
+    }.asSequence().constrainOnce()
+
+/**
+ * Decode the lines of a newline-delimited JSON stream (NDJSON) from [reader], in parallel, skipping blank lines.
+ * See [decodeArrayParallel].
+ */
+fun <T> Json.decodeLinesParallel(
+    deserializer: KSerializer<T>,
+    reader: Reader,
+    config: ParallelDecoding = ParallelDecoding(),
+): Sequence<T> =
+    ChunkedDecodingIterator(config, LineSplitter(reader, config.chunkSize)) { chunk ->
+        chunk.lineSequence()
+            .filter { it.isNotBlank() }
+            .map { decodeFromString(deserializer, it) }
+            .toList()
+    }.asSequence().constrainOnce()
+
+/**
+ * [decodeArrayParallel] as a [Flow], which reads on [Dispatchers.IO],
+ * and cancels any pending decoding when collection stops early.
+ */
+fun <T> Json.decodeArrayParallelFlow(
+    deserializer: KSerializer<T>,
+    reader: Reader,
+    config: ParallelDecoding = ParallelDecoding(),
+): Flow<T> =
+    chunkedDecodingFlow {
+        ChunkedDecodingIterator(config, ArraySplitter(reader, config.chunkSize)) { chunk ->
+            decodeFromString(ListSerializer(deserializer), chunk)
+        }
+    }
+
+/**
+ * [decodeLinesParallel] as a [Flow], see [decodeArrayParallelFlow].
+ */
+fun <T> Json.decodeLinesParallelFlow(
+    deserializer: KSerializer<T>,
+    reader: Reader,
+    config: ParallelDecoding = ParallelDecoding(),
+): Flow<T> =
+    chunkedDecodingFlow {
+        ChunkedDecodingIterator(config, LineSplitter(reader, config.chunkSize)) { chunk ->
+            chunk.lineSequence()
+                .filter { it.isNotBlank() }
+                .map { decodeFromString(deserializer, it) }
+                .toList()
+        }
+    }
+
+private fun <T> chunkedDecodingFlow(createIterator: () -> ChunkedDecodingIterator<T>): Flow<T> =
+    flow {
+        val it = createIterator()
+        try {
+            while (it.hasNext()) {
+                emit(it.next())
+            }
+        } finally {
+            it.cancel()
+        }
+    }.flowOn(Dispatchers.IO)
+
+
+// ====== internals ====== //
+
+/**
+ * Splits a text into chunks that can each be decoded independently.
+ */
+internal interface ChunkSplitter {
+    /** @return The next chunk, or null at the end. */
+    fun nextChunk(): String?
+}
+
+/**
+ * Keeps up to [ParallelDecoding.maxChunksInFlight] chunks being decoded, and returns their elements in order.
+ */
+private class ChunkedDecodingIterator<T>(
+    private val config: ParallelDecoding,
+    private val splitter: ChunkSplitter,
+    private val decodeChunk: (String) -> List<T>,
+) : Iterator<T> {
+
+    private val inFlight = ArrayDeque<ForkJoinTask<List<T>>>()
+    private var current: Iterator<T> = emptyList<T>().iterator()
+    private var inputDone = false
+
+    private fun fill() {
+        while (!inputDone && inFlight.size < config.maxChunksInFlight) {
+            val chunk = splitter.nextChunk()
+            if (chunk == null) {
+                inputDone = true
+            } else {
+                inFlight.addLast(config.pool.submit<List<T>> { decodeChunk(chunk) })
+            }
+        }
+    }
+
+    override fun hasNext(): Boolean {
+        while (!current.hasNext()) {
+            fill()
+            val task = inFlight.removeFirstOrNull() ?: return false
+            // refill before waiting, so the pool stays busy
+            fill()
+            current = try {
+                task.join().iterator()
+            } catch (e: Throwable) {
+                cancel()
+                throw e
+            }
+        }
+        return true
+    }
+
+    override fun next(): T {
+        if (!hasNext()) throw NoSuchElementException()
+        return current.next()
+    }
+
+    fun cancel() {
+        inputDone = true
+        inFlight.forEach { it.cancel(false) }
+        inFlight.clear()
+    }
+
+}
+
+private const val READ_BUFFER_SIZE = 8192
+
+/**
+ * Splits a JSON array into chunks of whole elements, each of which is again a JSON array.
+ */
+internal class ArraySplitter(
+    private val reader: Reader,
+    private val chunkSize: Int,
+) : ChunkSplitter {
+
+    private val buf = CharArray(READ_BUFFER_SIZE)
+    private var pos = 0
+    private var len = 0
+
+    private var started = false
+    private var done = false
+    private var depth = 0
+    private var inString = false
+    private var escaped = false
+
+    private fun read(): Int {
+        if (pos == len) {
+            len = reader.read(buf)
+            pos = 0
+            if (len <= 0) {
+                len = 0
+                return -1
+            }
+        }
+        return buf[pos++].code
+    }
+
+    private fun readNonWhitespace(): Int {
+        while (true) {
+            val c = read()
+            if (c == -1 || !c.toChar().isWhitespace()) return c
+        }
+    }
+
+    override fun nextChunk(): String? {
+        if (done) return null
+        if (!started) {
+            val c = readNonWhitespace()
+            require(c == '['.code) { "Expected a JSON array" }
+            started = true
+            depth = 1
+        }
+
+        val chunk = StringBuilder(chunkSize + 1024)
+        chunk.append('[')
+        while (true) {
+            val i = read()
+            require(i != -1) { "Unexpected end of JSON array" }
+            val c = i.toChar()
+            if (inString) {
+                when {
+                    escaped -> escaped = false
+                    c == '\\' -> escaped = true
+                    c == '"' -> inString = false
+                }
+            } else {
+                when (c) {
+                    '"' -> inString = true
+                    '[', '{' -> depth++
+                    ']', '}' -> {
+                        depth--
+                        if (depth == 0) {
+                            done = true
+                            require(readNonWhitespace() == -1) { "Unexpected content after JSON array" }
+                            return if (chunk.length > 1) chunk.append(']').toString() else null
+                        }
+                    }
+                    ',' -> if (depth == 1 && chunk.length >= chunkSize) {
+                        return chunk.append(']').toString()
+                    }
+                }
+            }
+            chunk.append(c)
+        }
+    }
+
+}
+
+/**
+ * Splits text into chunks of whole lines.
+ */
+internal class LineSplitter(
+    reader: Reader,
+    private val chunkSize: Int,
+) : ChunkSplitter {
+
+    private val reader = reader.buffered(READ_BUFFER_SIZE)
+
+    override fun nextChunk(): String? {
+        val chunk = StringBuilder()
+        while (chunk.length < chunkSize) {
+            val line = reader.readLine() ?: break
+            chunk.append(line).append('\n')
+        }
+        return chunk.takeIf { it.isNotEmpty() }?.toString()
+    }
+
+}
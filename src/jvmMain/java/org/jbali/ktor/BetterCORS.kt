@@ -6,6 +6,8 @@ package org.jbali.ktor
 *     Copyright 2014-2021 JetBrains s.r.o and contributors. Use of this source code is governed by the Apache 2.0 license.
 */
 
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import io.ktor.application.*
 import io.ktor.features.*
 import io.ktor.http.*
@@ -21,7 +23,6 @@ import io.ktor.util.pipeline.*
  * - anyHost() and allowCredentials may be used together. If so, the interceptor will allow the origin of the specific request instead of always responding with "*".
  */
 class BetterCORS(configuration: Configuration) {
-    private val numberRegex = "[0-9]+".toRegex()
     
     /**
      * Allow requests from the same origin
@@ -67,6 +68,8 @@ class BetterCORS(configuration: Configuration) {
         configuration.headers.filterNot { it in Configuration.CorsSimpleRequestHeaders }
             .let { if (allowNonSimpleContentTypes) it + HttpHeaders.ContentType else it }
     
+    private val methodValues: Set<String> = methods.mapTo(HashSet()) { it.value }
+    
     private val methodsListHeaderValue =
         methods.filterNot { it in Configuration.CorsDefaultMethods }
             .map { it.value }
@@ -98,6 +101,87 @@ class BetterCORS(configuration: Configuration) {
         )
     
     private val detailedErrors: Boolean = configuration.detailedErrors
+    
+    private val headersListHeaderValue = headersList.sorted().joinToString(", ")
+    
+    private val decisionCacheSize = configuration.decisionCacheSize
+    private val originDecisions = decisionCache<OriginDecision>()
+    private val preflightDecisions = decisionCache<PreflightHeaders>()
+    private val contentTypeDecisions = decisionCache<Boolean>()
+    private val noPreflightHeaders = evaluatePreflightHeaders(null)
+    
+    /**
+     * Outcome of the checks that only depend on the `Origin` header.
+     * @param normalized The origin with explicit port, if [valid].
+     */
+    internal class OriginDecision(
+        val valid: Boolean,
+        val normalized: String,
+        val allowed: Boolean,
+    )
+    
+    /**
+     * Outcome of checking the `Access-Control-Request-Headers` of a preflight request.
+     * @param allowHeadersValue The value for `Access-Control-Allow-Headers` if there are no [invalid] headers.
+     */
+    internal class PreflightHeaders(
+        val invalid: List<String>,
+        val allowHeadersValue: String,
+    )
+    
+    /**
+     * The keys are chosen by clients, so the least recently used are evicted beyond [decisionCacheSize].
+     */
+    private fun <V : Any> decisionCache(): Cache<String, V> =
+        CacheBuilder.newBuilder()
+            .maximumSize(decisionCacheSize.toLong())
+            .build()
+    
+    /**
+     * Get the value for [key] from [this] cache, or [compute] and store it.
+     * Unlike [Cache.get], concurrent computations of the same key don't wait for each other.
+     */
+    private inline fun <V : Any> Cache<String, V>.getOrCompute(key: String, compute: (String) -> V): V =
+        getIfPresent(key) ?: compute(key).also {
+            put(key, it)
+        }
+    
+    internal fun originDecision(origin: String): OriginDecision =
+        originDecisions.getOrCompute(origin, ::evaluateOrigin)
+    
+    internal fun evaluateOrigin(origin: String): OriginDecision {
+        val valid = isValidOrigin(origin)
+        val normalized = if (valid) normalizeOrigin(origin) else origin
+        return OriginDecision(
+            valid = valid,
+            normalized = normalized,
+            allowed = valid && corsCheckOrigins(normalized),
+        )
+    }
+    
+    /**
+     * @param requestHeaders The values of the `Access-Control-Request-Headers` headers, joined with commas.
+     */
+    internal fun preflightHeaders(requestHeaders: String?): PreflightHeaders =
+        if (requestHeaders == null) noPreflightHeaders
+        else preflightDecisions.getOrCompute(requestHeaders, ::evaluatePreflightHeaders)
+    
+    internal fun evaluatePreflightHeaders(requestHeaders: String?): PreflightHeaders {
+        val headers = requestHeaders?.split(",")?.map { it.trim().lowercase() } ?: emptyList()
+        val invalid = headers.filterNot { header -> header in allHeadersSet || headerMatchesAPredicate(header) }
+        val matchingPrefix = headers.filter { header -> headerMatchesAPredicate(header) }
+        return PreflightHeaders(
+            invalid = invalid,
+            allowHeadersValue =
+                if (matchingPrefix.isEmpty()) headersListHeaderValue
+                else (headersList + matchingPrefix).sorted().joinToString(", "),
+        )
+    }
+    
+    private fun isSimpleContentType(contentType: String): Boolean =
+        contentTypeDecisions.getOrCompute(contentType) {
+            ContentType.parse(it).withoutParameters() in Configuration.CorsSimpleContentTypes
+        }
 
     /**
      * Feature's call interceptor that does all the job. Usually there is no need to install it as it is done during
@@ -123,13 +207,10 @@ class BetterCORS(configuration: Configuration) {
         }
         
         if (!allowNonSimpleContentTypes) {
-            val contentType = call.request.header(HttpHeaders.ContentType)?.let { ContentType.parse(it) }
-            if (contentType != null) {
-                val contentTypeWithoutParams = contentType.withoutParameters()
-                if (contentTypeWithoutParams !in Configuration.CorsSimpleContentTypes) {
-                    context.respondCorsFailed("Content-Type '$contentTypeWithoutParams' not allowed")
-                    return
-                }
+            val contentType = call.request.header(HttpHeaders.ContentType)
+            if (contentType != null && !isSimpleContentType(contentType)) {
+                context.respondCorsFailed("Content-Type '${ContentType.parse(contentType).withoutParameters()}' not allowed")
+                return
             }
         }
         
@@ -154,18 +235,20 @@ class BetterCORS(configuration: Configuration) {
         }
     }
     
-    fun checkOrigin(origin: String, point: RequestConnectionPoint): OriginCheckResult = when {
-        !isValidOrigin(origin) -> OriginCheckResult.SkipCORS
-        allowSameOrigin && isSameOrigin(origin, point) -> OriginCheckResult.SkipCORS
-        !corsCheckOrigins(origin) -> OriginCheckResult.Failed
-        else -> OriginCheckResult.OK
+    fun checkOrigin(origin: String, point: RequestConnectionPoint): OriginCheckResult {
+        val decision = originDecision(origin)
+        return when {
+            !decision.valid -> OriginCheckResult.SkipCORS
+            allowSameOrigin && isSameOrigin(decision.normalized, point) -> OriginCheckResult.SkipCORS
+            !decision.allowed -> OriginCheckResult.Failed
+            else -> OriginCheckResult.OK
+        }
     }
     
     private suspend fun ApplicationCall.respondPreflight(origin: String) {
-        val requestHeaders =
-            request.headers.getAll(HttpHeaders.AccessControlRequestHeaders)?.flatMap { it.split(",") }?.map {
-                it.trim().lowercase()
-            } ?: emptyList()
+        val requestHeaders = preflightHeaders(
+            request.headers.getAll(HttpHeaders.AccessControlRequestHeaders)?.joinToString(",")
+        )
         
         val requestMethod = request.header(HttpHeaders.AccessControlRequestMethod)
         if (!corsCheckRequestMethod()) {
@@ -177,9 +260,8 @@ class BetterCORS(configuration: Configuration) {
             return
         }
         
-        val invalidHeaders = requestHeaders.filterNot { header -> header in allHeadersSet || headerMatchesAPredicate(header) }
-        if (invalidHeaders.isNotEmpty()) {
-            respond(HttpStatusCode.Forbidden, if (detailedErrors) "Request denied by CORS: Headers not allowed: '${invalidHeaders.joinToString()}'" else "")
+        if (requestHeaders.invalid.isNotEmpty()) {
+            respond(HttpStatusCode.Forbidden, if (detailedErrors) "Request denied by CORS: Headers not allowed: '${requestHeaders.invalid.joinToString()}'" else "")
             return
         }
         
@@ -189,11 +271,7 @@ class BetterCORS(configuration: Configuration) {
             response.header(HttpHeaders.AccessControlAllowMethods, methodsListHeaderValue)
         }
         
-        val requestHeadersMatchingPrefix = requestHeaders.filter { header -> headerMatchesAPredicate(header) }
-        
-        val headersListHeaderValue = (headersList + requestHeadersMatchingPrefix).sorted().joinToString(", ")
-        
-        response.header(HttpHeaders.AccessControlAllowHeaders, headersListHeaderValue)
+        response.header(HttpHeaders.AccessControlAllowHeaders, requestHeaders.allowHeadersValue)
         accessControlMaxAge()
         
         respond(HttpStatusCode.OK)
@@ -228,13 +306,12 @@ class BetterCORS(configuration: Configuration) {
         }
     }
     
-    private fun isSameOrigin(origin: String, point: RequestConnectionPoint): Boolean {
+    private fun isSameOrigin(normalizedOrigin: String, point: RequestConnectionPoint): Boolean {
         val requestOrigin = "${point.scheme}://${point.host}:${point.port}"
-        return normalizeOrigin(requestOrigin) == normalizeOrigin(origin)
+        return normalizeOrigin(requestOrigin) == normalizedOrigin
     }
     
-    private fun corsCheckOrigins(origin: String): Boolean {
-        val normalizedOrigin = normalizeOrigin(origin)
+    private fun corsCheckOrigins(normalizedOrigin: String): Boolean {
         return allowsAnyHost || normalizedOrigin in hostsNormalized || hostsWithWildcard.any { (prefix, suffix) ->
             normalizedOrigin.startsWith(prefix) && normalizedOrigin.endsWith(suffix)
         }
@@ -255,8 +332,8 @@ class BetterCORS(configuration: Configuration) {
     }
     
     private fun ApplicationCall.corsCheckRequestMethod(): Boolean {
-        val requestMethod = request.header(HttpHeaders.AccessControlRequestMethod)?.let { HttpMethod(it) }
-        return requestMethod != null && requestMethod in methods
+        val requestMethod = request.header(HttpHeaders.AccessControlRequestMethod)
+        return requestMethod != null && requestMethod in methodValues
     }
     
     private suspend fun PipelineContext<Unit, ApplicationCall>.respondCorsFailed(reason: String = "") {
@@ -315,7 +392,8 @@ class BetterCORS(configuration: Configuration) {
         if (origin == "null" || origin == "*") origin else StringBuilder(origin.length).apply {
             append(origin)
             
-            if (!origin.substringAfterLast(":", "").matches(numberRegex)) {
+            val explicitPort = origin.substringAfterLast(":", "")
+            if (explicitPort.isEmpty() || !explicitPort.all { it in '0'..'9' }) {
                 val port = when (origin.substringBefore(':')) {
                     "http" -> "80"
                     "https" -> "443"
@@ -457,6 +535,13 @@ class BetterCORS(configuration: Configuration) {
          * If true, respond with detailed error messages when CORS checks fail
          */
         var detailedErrors: Boolean = false
+        
+        /**
+         * Maximum number of distinct `Origin`, `Access-Control-Request-Headers` and `Content-Type` values
+         * whose decisions are cached. Since these are chosen by clients, the least recently used
+         * are evicted once full. `0` disables caching.
+         */
+        var decisionCacheSize: Int = 1024
 
         /**
          * Allow requests from any host
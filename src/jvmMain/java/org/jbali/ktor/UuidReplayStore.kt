@@ -0,0 +1,202 @@
+package org.jbali.ktor
+
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import java.time.Duration
+import java.util.*
+
+/**
+ * Remembers recently seen [UUID]s to detect their reuse, for at least [retention].
+ *
+ * UUIDs are stored as pairs of primitive longs in open-addressing hash sets, so an entry takes 16 bytes
+ * (plus the free slots of the table), instead of a [String] and a cache entry.
+ *
+ * Time is divided into generations of `retention / (generations - 1)`. Each generation has its own sets,
+ * and when a new generation starts, the sets of the oldest are cleared and reused. An entry is therefore
+ * remembered for between [retention] and `retention * generations / (generations - 1)`.
+ *
+ * The UUIDs are spread over [stripes] independently locked stripes, which each rotate their generations
+ * on first access after a generation ends, so there is no global lock or background thread.
+ *
+ * Unlike a Bloom or cuckoo filter this never reports a false positive, which would reject a legitimate request.
+ */
+class UuidReplayStore(
+    val retention: Duration,
+    private val generations: Int = 4,
+    stripes: Int = 16,
+    private val nanoClock: () -> Long = System::nanoTime,
+) {
+
+    init {
+        require(!retention.isNegative && !retention.isZero) { "retention must be positive" }
+        require(generations >= 2) { "generations must be at least 2" }
+        require(stripes > 0 && stripes and (stripes - 1) == 0) { "stripes must be a power of 2" }
+    }
+
+    private val generationNanos = (retention.toNanos() / (generations - 1)).coerceAtLeast(1)
+    private val startNanos = nanoClock()
+
+    private val stripes = Array(stripes) { Stripe() }
+    // the stripe is chosen by the high bits of the hash, the slot in a stripe's sets by the low bits
+    private val stripeShift = 32 - Integer.numberOfTrailingZeros(stripes)
+
+    private fun stripeOf(msb: Long, lsb: Long) =
+        stripes[(uuidHash(msb, lsb) ushr stripeShift) and (stripes.size - 1)]
+
+    private fun currentGeneration() = (nanoClock() - startNanos) / generationNanos
+
+    /**
+     * Add [uuid], unless it was already seen.
+     * @return whether [uuid] was added, i.e. not seen before.
+     */
+    fun add(uuid: UUID): Boolean =
+        add(uuid.mostSignificantBits, uuid.leastSignificantBits)
+
+    fun add(msb: Long, lsb: Long): Boolean {
+        val stripe = stripeOf(msb, lsb)
+        synchronized(stripe) {
+            stripe.rotate(currentGeneration())
+            if (stripe.sets.any { it.contains(msb, lsb) }) {
+                return false
+            }
+            stripe.sets[stripe.current].add(msb, lsb)
+            return true
+        }
+    }
+
+    operator fun contains(uuid: UUID): Boolean {
+        val msb = uuid.mostSignificantBits
+        val lsb = uuid.leastSignificantBits
+        val stripe = stripeOf(msb, lsb)
+        synchronized(stripe) {
+            stripe.rotate(currentGeneration())
+            return stripe.sets.any { it.contains(msb, lsb) }
+        }
+    }
+
+    /** Number of UUIDs currently remembered. Not synchronized, so approximate while being modified. */
+    val size: Int get() = stripes.sumOf { s -> s.sets.sumOf { it.size } }
+
+    /** Approximate heap size of the hash tables, in bytes. */
+    val memoryBytes: Long get() = stripes.sumOf { s -> s.sets.sumOf { it.capacity.toLong() * 16 } }
+
+    /**
+     * Register gauges for [size] and [memoryBytes], named `"$name.entries"` and `"$name.bytes"`.
+     */
+    fun bindTo(registry: MeterRegistry, name: String) {
+        Gauge.builder("$name.entries", this) { it.size.toDouble() }
+            .description("Number of UUIDs remembered to detect reuse")
+            .register(registry)
+        Gauge.builder("$name.bytes", this) { it.memoryBytes.toDouble() }
+            .description("Approximate memory used to remember UUIDs")
+            .baseUnit("bytes")
+            .register(registry)
+    }
+
+    private inner class Stripe {
+        val sets = Array(generations) { LongPairSet() }
+        /** Index in [sets] of the current generation */
+        var current = 0
+        var generation = 0L
+
+        fun rotate(now: Long) {
+            val steps = now - generation
+            if (steps <= 0) return
+            repeat(minOf(steps, generations.toLong()).toInt()) {
+                current = (current + 1) % generations
+                sets[current].clear()
+            }
+            generation = now
+        }
+    }
+}
+
+private fun uuidHash(msb: Long, lsb: Long): Int {
+    val h = (msb * -0x61c8864680b583ebL) xor lsb
+    return (h xor (h ushr 32)).toInt() * -0x61c88647
+}
+
+/**
+ * Open-addressing hash set of pairs of longs, with linear probing.
+ * The pair (0, 0) is stored in a separate flag, since it marks free slots.
+ */
+private class LongPairSet {
+
+    private var hi = LongArray(INITIAL_CAPACITY)
+    private var lo = LongArray(INITIAL_CAPACITY)
+    private var containsZero = false
+
+    var size = 0
+        private set
+
+    val capacity get() = hi.size
+
+    fun contains(msb: Long, lsb: Long): Boolean {
+        if (msb == 0L && lsb == 0L) return containsZero
+        val mask = hi.size - 1
+        var i = uuidHash(msb, lsb) and mask
+        while (true) {
+            val h = hi[i]
+            val l = lo[i]
+            if (h == msb && l == lsb) return true
+            if (h == 0L && l == 0L) return false
+            i = (i + 1) and mask
+        }
+    }
+
+    /** Add, assuming not already contained. */
+    fun add(msb: Long, lsb: Long) {
+        if (msb == 0L && lsb == 0L) {
+            if (!containsZero) size++
+            containsZero = true
+            return
+        }
+        if ((size + 1) * 4 > hi.size * 3) {
+            grow()
+        }
+        insert(hi, lo, msb, lsb)
+        size++
+    }
+
+    private fun insert(hi: LongArray, lo: LongArray, msb: Long, lsb: Long) {
+        val mask = hi.size - 1
+        var i = uuidHash(msb, lsb) and mask
+        while (hi[i] != 0L || lo[i] != 0L) {
+            i = (i + 1) and mask
+        }
+        hi[i] = msb
+        lo[i] = lsb
+    }
+
+    private fun grow() {
+        val oldHi = hi
+        val oldLo = lo
+        val newHi = LongArray(oldHi.size * 2)
+        val newLo = LongArray(oldHi.size * 2)
+        for (i in oldHi.indices) {
+            if (oldHi[i] != 0L || oldLo[i] != 0L) {
+                insert(newHi, newLo, oldHi[i], oldLo[i])
+            }
+        }
+        hi = newHi
+        lo = newLo
+    }
+
+    fun clear() {
+        // shrink if mostly unused, so memory follows the traffic
+        if (hi.size > INITIAL_CAPACITY && size * 8 < hi.size) {
+            hi = LongArray(maxOf(INITIAL_CAPACITY, Integer.highestOneBit(size * 2) * 2))
+            lo = LongArray(hi.size)
+        } else {
+            Arrays.fill(hi, 0L)
+            Arrays.fill(lo, 0L)
+        }
+        containsZero = false
+        size = 0
+    }
+
+    companion object {
+        const val INITIAL_CAPACITY = 64
+    }
+
+}
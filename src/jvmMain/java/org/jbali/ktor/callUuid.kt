@@ -8,7 +8,6 @@ import io.micrometer.core.instrument.Metrics
 import org.jbali.enums.EnumCompanion
 import org.slf4j.LoggerFactory
 import java.time.Duration
-import java.time.Instant
 import java.util.*
 import java.util.concurrent.TimeUnit
 
@@ -17,8 +16,8 @@ import java.util.concurrent.TimeUnit
  * Install [CallId] in such a way that it tries to retrieve from the `X-Request-ID` header,
  * replies with the same header, and only accepts / generates [UUID]'s.
  *
- * Maintains a cache of recently _accepted_ UUID's to prevent reuse. Requests that attempt to reuse are always rejected.
- * [seenRetention] controls how long a UUID is kept in the cache.
+ * Maintains a [UuidReplayStore] of recently _accepted_ UUID's to prevent reuse. Requests that attempt to reuse are always rejected.
+ * [seenRetention] controls how long a UUID is at least remembered.
  *
  * Malformed IDs in requests are ignored unless [rejectMalformed] is true, in which case they are rejected.
  * Use the latter in development to catch bugs early.
@@ -38,27 +37,17 @@ fun ApplicationCallPipeline.installCallUuid(
         counters.getValue(resolution).increment()
     }
     
-    val seenUuids = CacheBuilder.newBuilder()
-        .expireAfterWrite(seenRetention.toMillis(), TimeUnit.MILLISECONDS)
-        .build<String, Instant>()
+    val seenUuids = UuidReplayStore(seenRetention)
+    seenUuids.bindTo(Metrics.globalRegistry, "jbali.ktor.callid.seen")
     
     val justGeneratedUuids = CacheBuilder.newBuilder()
         .expireAfterWrite(10, TimeUnit.SECONDS)
         .build<String, Unit>()
     
-    fun checkUnique(cid: String) {
-        synchronized(seenUuids) {
-//            if (seenUuids.getIfPresent(cid) != null) {
-//                countResolution(cid, CallIdResolution.ReuseRejected)
-//                throw RejectedCallIdException("Request ID $cid already used
-//            }
-            when (val used = seenUuids.getIfPresent(cid)) {
-                null -> seenUuids.put(cid, Instant.now())
-                else -> {
-                    countResolution(cid, CallIdResolution.ReuseRejected)
-                    throw RejectedCallIdException("Request ID $cid already used at $used")
-                }
-            }
+    fun checkUnique(cid: String, uuid: UUID) {
+        if (!seenUuids.add(uuid)) {
+            countResolution(cid, CallIdResolution.ReuseRejected)
+            throw RejectedCallIdException("Request ID $cid already used in the last $seenRetention")
         }
     }
     
@@ -72,7 +61,7 @@ fun ApplicationCallPipeline.installCallUuid(
                 .also { justGeneratedUuids.put(it, Unit) }
         }
         verify { cid ->
-            when (uuidFromStringOrNull(cid)) {
+            when (val uuid = uuidFromStringOrNull(cid)) {
                 // malformed
                 null -> when {
                     rejectMalformed -> {
@@ -86,7 +75,7 @@ fun ApplicationCallPipeline.installCallUuid(
                 }
                 // good
                 else -> {
-                    checkUnique(cid)
+                    checkUnique(cid, uuid)
                     countResolution(cid, when (justGeneratedUuids.getIfPresent(cid)) {
                         null -> CallIdResolution.Accepted
                         else -> CallIdResolution.Missing
@@ -0,0 +1,281 @@
+package org.jbali.net
+
+import java.net.Inet4Address
+import java.net.InetAddress
+
+
+/**
+ * The most specific block of a [CIDRSet] that contains an address, and its value.
+ */
+data class CIDRMatch<out V>(
+    val block: CIDRBlock<InetAddress>,
+    val value: V,
+)
+
+/**
+ * Immutable set of [CIDRBlock]s, each with a value, for matching addresses against large lists of blocks,
+ * such as IP allow/deny lists.
+ *
+ * The blocks are stored in a path-compressed binary trie per address family, keyed on the address bits
+ * as a pair of longs (IPv4 addresses in the high 32 bits). [contains] and [longestMatch] follow a single path
+ * down the trie, so take O(prefix length) regardless of the number of blocks, without allocating.
+ *
+ * Use [Builder], [of] or [parse] to create one.
+ */
+class CIDRSet<out V> private constructor(
+    private val root4: Node?,
+    private val root6: Node?,
+    val size: Int,
+) {
+
+    private class Node(
+        val hi: Long,
+        val lo: Long,
+        val prefixLength: Int,
+    ) {
+        val maskHi = maskHi(prefixLength)
+        val maskLo = maskLo(prefixLength)
+
+        /** The block ending at this node, or `null` if it only splits the trie. */
+        var block: CIDRBlock<InetAddress>? = null
+        var value: Any? = null
+        var child0: Node? = null
+        var child1: Node? = null
+
+        fun matches(hi: Long, lo: Long) =
+            (hi xor this.hi) and maskHi == 0L && (lo xor this.lo) and maskLo == 0L
+
+        fun child(bit: Int) = if (bit == 0) child0 else child1
+
+        fun setChild(bit: Int, node: Node) {
+            if (bit == 0) child0 = node else child1 = node
+        }
+    }
+
+    class Builder<V> {
+
+        private var root4: Node? = null
+        private var root6: Node? = null
+        private var size = 0
+        private var built = false
+
+        /**
+         * Add [block] with [value], replacing the value if the block was added before.
+         * Host bits of the block address are ignored.
+         */
+        fun add(block: CIDRBlock<InetAddress>, value: V): Builder<V> {
+            check(!built) { "Already built" }
+            val hi = keyHi(block.address)
+            val lo = keyLo(block.address)
+            val prefixLength = block.prefixLength
+            val leaf = Node(hi and maskHi(prefixLength), lo and maskLo(prefixLength), prefixLength)
+            leaf.block = block
+            leaf.value = value
+            if (block.address is Inet4Address) {
+                root4 = insert(root4, leaf)
+            } else {
+                root6 = insert(root6, leaf)
+            }
+            return this
+        }
+
+        fun build(): CIDRSet<V> {
+            check(!built) { "Already built" }
+            built = true
+            return CIDRSet(root4, root6, size)
+        }
+
+        private fun insert(node: Node?, leaf: Node): Node {
+            if (node == null) {
+                size++
+                return leaf
+            }
+            val common = minOf(commonPrefixLength(node.hi, node.lo, leaf.hi, leaf.lo), node.prefixLength, leaf.prefixLength)
+            return when {
+                // leaf is below node
+                common == node.prefixLength && leaf.prefixLength > node.prefixLength -> {
+                    val b = bit(leaf.hi, leaf.lo, node.prefixLength)
+                    node.setChild(b, insert(node.child(b), leaf))
+                    node
+                }
+                // same block
+                common == node.prefixLength -> {
+                    if (node.block == null) size++
+                    node.block = leaf.block
+                    node.value = leaf.value
+                    node
+                }
+                // node is below leaf
+                common == leaf.prefixLength -> {
+                    size++
+                    leaf.setChild(bit(node.hi, node.lo, common), node)
+                    leaf
+                }
+                // they diverge, add a node that splits at the first differing bit
+                else -> {
+                    size++
+                    Node(node.hi and maskHi(common), node.lo and maskLo(common), common).also {
+                        it.setChild(bit(node.hi, node.lo, common), node)
+                        it.setChild(bit(leaf.hi, leaf.lo, common), leaf)
+                    }
+                }
+            }
+        }
+    }
+
+    operator fun contains(ip: InetAddress): Boolean =
+        findNode(ip) != null
+
+    /**
+     * The most specific block that contains [ip], or `null` if none does.
+     */
+    fun longestMatch(ip: InetAddress): CIDRMatch<V>? =
+        findNode(ip)?.let {
+            @Suppress("UNCHECKED_CAST")
+            CIDRMatch(it.block!!, it.value as V)
+        }
+
+    /**
+     * Whether any IPv4 block contains [ip], given as its 32 bits.
+     */
+    fun containsIPv4(ip: Int): Boolean =
+        findNode(root4, (ip.toLong() and 0xFFFF_FFFFL) shl 32, 0L) != null
+
+    /**
+     * Whether any IPv6 block contains the address with high 64 bits [hi] and low 64 bits [lo].
+     */
+    fun containsIPv6(hi: Long, lo: Long): Boolean =
+        findNode(root6, hi, lo) != null
+
+    private fun findNode(ip: InetAddress): Node? =
+        findNode(if (ip is Inet4Address) root4 else root6, keyHi(ip), keyLo(ip))
+
+    private fun findNode(root: Node?, hi: Long, lo: Long): Node? {
+        var best: Node? = null
+        var node = root
+        while (node != null && node.matches(hi, lo)) {
+            if (node.block != null) best = node
+            if (node.prefixLength == 128) break
+            node = node.child(bit(hi, lo, node.prefixLength))
+        }
+        return best
+    }
+
+    /** All blocks with their values, in address order. */
+    fun entries(): List<CIDRMatch<V>> =
+        buildList {
+            fun walk(node: Node?) {
+                if (node == null) return
+                node.block?.let {
+                    @Suppress("UNCHECKED_CAST")
+                    add(CIDRMatch(it, node.value as V))
+                }
+                walk(node.child0)
+                walk(node.child1)
+            }
+            walk(root4)
+            walk(root6)
+        }
+
+    override fun toString(): String = entries().joinToString(", ") { it.block.toString() }
+
+    companion object {
+
+        private val EMPTY = CIDRSet<Nothing>(null, null, 0)
+
+        fun <V> empty(): CIDRSet<V> = EMPTY
+
+        fun of(blocks: Iterable<CIDRBlock<InetAddress>>): CIDRSet<Unit> =
+            Builder<Unit>().apply { blocks.forEach { add(it, Unit) } }.build()
+
+        fun <V> of(blocks: Map<CIDRBlock<InetAddress>, V>): CIDRSet<V> =
+            Builder<V>().apply { blocks.forEach { (b, v) -> add(b, v) } }.build()
+
+        /**
+         * Parse a list of blocks, one per line, as `address[/prefixLength] [value]`,
+         * where the value is the rest of the line, e.g. a label or an action, or empty.
+         * Blank lines and lines starting with `#` are ignored.
+         *
+         * @throws IllegalArgumentException if a line is invalid.
+         */
+        fun parse(text: CharSequence): CIDRSet<String> {
+            val builder = Builder<String>()
+            text.lineSequence().forEachIndexed { i, rawLine ->
+                val line = rawLine.trim()
+                if (line.isEmpty() || line.startsWith('#')) return@forEachIndexed
+                val end = line.indexOfFirst { it.isWhitespace() }.let { if (it < 0) line.length else it }
+                val block = try {
+                    parseBlock(line.substring(0, end))
+                } catch (e: Exception) {
+                    throw IllegalArgumentException("Invalid CIDR block on line ${i + 1}: $line", e)
+                }
+                builder.add(block, line.substring(end).trim())
+            }
+            return builder.build()
+        }
+
+        private fun parseBlock(s: String): CIDRBlock<InetAddress> {
+            // don't resolve host names
+            val address = s.substringBefore('/')
+            require(
+                address.isNotEmpty() &&
+                    if (':' in address) address.all { it == ':' || it == '.' || Character.digit(it, 16) >= 0 }
+                    else address.all { it == '.' || it in '0'..'9' }
+            ) {
+                "Not an IP address: $s"
+            }
+            return if ('/' in s) CIDRBlock.parse(s) else CIDRBlock.ofAddress(InetAddress.getByName(s))
+        }
+
+        private fun keyHi(ip: InetAddress): Long {
+            val b = ip.address
+            return if (b.size == 4) {
+                (readInt(b, 0).toLong() and 0xFFFF_FFFFL) shl 32
+            } else {
+                (readInt(b, 0).toLong() shl 32) or (readInt(b, 4).toLong() and 0xFFFF_FFFFL)
+            }
+        }
+
+        private fun keyLo(ip: InetAddress): Long {
+            val b = ip.address
+            return if (b.size == 4) {
+                0L
+            } else {
+                (readInt(b, 8).toLong() shl 32) or (readInt(b, 12).toLong() and 0xFFFF_FFFFL)
+            }
+        }
+
+        private fun readInt(b: ByteArray, i: Int): Int =
+            (b[i].toInt() shl 24) or
+                ((b[i + 1].toInt() and 0xFF) shl 16) or
+                ((b[i + 2].toInt() and 0xFF) shl 8) or
+                (b[i + 3].toInt() and 0xFF)
+
+        private fun maskHi(prefixLength: Int): Long =
+            when {
+                prefixLength <= 0 -> 0L
+                prefixLength >= 64 -> -1L
+                else -> -1L shl (64 - prefixLength)
+            }
+
+        private fun maskLo(prefixLength: Int): Long =
+            when {
+                prefixLength <= 64 -> 0L
+                prefixLength >= 128 -> -1L
+                else -> -1L shl (128 - prefixLength)
+            }
+
+        /** Bit [i] of the key, counting from the most significant bit of [hi]. */
+        private fun bit(hi: Long, lo: Long, i: Int): Int =
+            if (i < 64) (hi ushr (63 - i)).toInt() and 1
+            else (lo ushr (127 - i)).toInt() and 1
+
+        private fun commonPrefixLength(aHi: Long, aLo: Long, bHi: Long, bLo: Long): Int {
+            val h = aHi xor bHi
+            return if (h != 0L) java.lang.Long.numberOfLeadingZeros(h)
+            else 64 + java.lang.Long.numberOfLeadingZeros(aLo xor bLo)
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+package org.jbali.net
+
+import org.jbali.bytes.BinaryData
+import org.jbali.events.ListenerReference
+import org.jbali.events.MutableObservable
+import org.jbali.events.Observable
+import org.jbali.io.MonitoredFileReader
+import org.jbali.util.logger
+import java.io.File
+import java.net.InetAddress
+import java.time.Duration
+
+/**
+ * A [CIDRSet] loaded from a file in the format of [CIDRSet.parse], which is reloaded when the file changes,
+ * using [MonitoredFileReader].
+ *
+ * If the file doesn't exist, the set is empty. If it can't be parsed, the error is logged
+ * and the previous set is kept.
+ *
+ * @param pollInterval See [MonitoredFileReader].
+ */
+class MonitoredCIDRSet(
+    private val file: File,
+    pollInterval: Duration? = Duration.ofSeconds(10),
+) : AutoCloseable {
+
+    private val log = logger<MonitoredCIDRSet>()
+
+    private val mSet = MutableObservable(CIDRSet.empty<String>(), "MonitoredCIDRSet(${file.path})")
+
+    /** The current set, updated when the file changes. */
+    val set: Observable<CIDRSet<String>> get() = mSet
+
+    private val reader = MonitoredFileReader(file, pollInterval)
+
+    private val listener: ListenerReference = reader.contents.bind { load(it) }
+
+    private fun load(contents: BinaryData?) {
+        try {
+            mSet.value = contents?.let { CIDRSet.parse(it.data.decodeToString()) } ?: CIDRSet.empty()
+            log.info("Loaded ${mSet.value.size} CIDR blocks from ${file.path}")
+        } catch (e: Exception) {
+            log.error("Error loading CIDR blocks from ${file.path}, keeping the previous ${mSet.value.size}", e)
+        }
+    }
+
+    operator fun contains(ip: InetAddress): Boolean =
+        ip in mSet.value
+
+    fun longestMatch(ip: InetAddress): CIDRMatch<String>? =
+        mSet.value.longestMatch(ip)
+
+    override fun close() {
+        listener.detach()
+        reader.close()
+        mSet.destroy()
+    }
+
+}
@@ -19,6 +19,7 @@ import kotlinx.serialization.serializer
 import org.jbali.bytes.Hex
 import org.jbali.bytes.encodedAs
 import org.jbali.crypto.sha256
+import org.jbali.gzipped
 import org.jbali.kotser.jsonString
 import org.jbali.ktor.isCatch
 import org.jbali.ktor.respondNoContent
@@ -128,7 +129,6 @@ abstract class RestRoute : RestRouteContext {
      * - 1 instance of C for each instance of [T] in each [StoredExtensionProperty].
      * - Each C refers to another cache, which associates (WeakReferenced) [KSerializer]s with JSON.
      */
-    // TODO cache TextContent, or at least the bytes.
     // TODO the assumption made the in StoredExtensionProperty implementation, that the delegates themselves are basically
     //      static, is now proven false. theoretically, could leak memory if rest routes are created and removed repeatedly.
     private val Any.jsonCacheUntyped: (KSerializer<Any>) -> String
@@ -224,15 +224,31 @@ abstract class RestRoute : RestRouteContext {
     
     private val serializers: MutableMap<ReifiedType<*>, CachingSerializer<*>> = ConcurrentHashMap()
     
+    /**
+     * A serialized response, with everything that is derived from it computed at most once, and only when needed,
+     * so that responding with a cached instance requires no serialization, encoding or hashing.
+     */
+    private class EncodedResponse(json: String) {
+        val bytes: ByteArray = json.toByteArray(Charsets.UTF_8)
+        /** Only used for `GET` and `HEAD`, see [jsonResponseVariant]. */
+        val etag: String by lazy {
+            bytes.sha256.encodedAs(Hex.Lower).string
+        }
+        /** The gzip compressed [bytes], see [jsonResponseVariant]. */
+        val gzipped: ByteArray by lazy {
+            bytes.gzipped().data
+        }
+    }
+    
     private interface ResponseSerializer<T> {
-        fun serialize(obj: T): String
+        fun serialize(obj: T): EncodedResponse
     }
     // TODO not inner
     private inner class CachingSerializer<T>(
         private val type: ReifiedType<T>,
         private val ser: KSerializer<T>,
     ) : ResponseSerializer<T> {
-        private val serializedResponses: Cache<Any, String> = CacheBuilder.newBuilder()
+        private val serializedResponses: Cache<Any, EncodedResponse> = CacheBuilder.newBuilder()
             .expireAfterAccess(10, TimeUnit.MINUTES)
             .maximumSize(65536)
             .recordStats()
@@ -245,20 +261,20 @@ abstract class RestRoute : RestRouteContext {
             ))
         }
         
-        override fun serialize(obj: T): String =
+        override fun serialize(obj: T): EncodedResponse =
             obj?.let {
                 serializedResponses.get(it) {
                     serializeNoCache(it)
                 }
             } ?: serializeNoCache(obj)
             
-        fun serializeNoCache(obj: T): String =
+        fun serializeNoCache(obj: T): EncodedResponse =
             Metrics.timer("jbali_rest_response_serialization", listOf(
                 Tag.of("route", route.toString()),
                 Tag.of("type", type.toString()),
             )).record(Supplier {
                 // TODO millis or nanos
-                jsonFormat.encodeToString(ser, obj)
+                EncodedResponse(jsonFormat.encodeToString(ser, obj))
             })!!
             
     }
@@ -266,8 +282,8 @@ abstract class RestRoute : RestRouteContext {
         type: ReifiedType<T>,
         val ser: KSerializer<T>,
     ) : ResponseSerializer<T> {
-        override fun serialize(obj: T): String =
-            jsonFormat.encodeToString(ser, obj)
+        override fun serialize(obj: T): EncodedResponse =
+            EncodedResponse(jsonFormat.encodeToString(ser, obj))
     }
 
     override suspend fun <T> ApplicationCall.respondObject(
@@ -281,7 +297,7 @@ abstract class RestRoute : RestRouteContext {
             respondWithETag(returnVal as ByteArrayContent)
         } else {
             
-            val returnJson: String = try {
+            val returnJson: EncodedResponse = try {
                 
                 // get serializer
                 @Suppress("UNCHECKED_CAST")
@@ -310,7 +326,7 @@ abstract class RestRoute : RestRouteContext {
                 }
             } catch (e: Exception) {
                 log.warn("Error in cached serialization of returnVal: $e")
-                jsonFormat.encodeToString(jsonFormat.serializersModule.serializer(returnType.type), returnVal)
+                EncodedResponse(jsonFormat.encodeToString(jsonFormat.serializersModule.serializer(returnType.type), returnVal))
             }
             
             // TODO this always throws an exception, fix or remove
@@ -334,19 +350,47 @@ abstract class RestRoute : RestRouteContext {
     }
 
     private suspend fun ApplicationCall.respondJson(
-            json: String,
+            json: EncodedResponse,
             status: HttpStatusCode = HttpStatusCode.OK,
-//            contentType: ContentType = ContentType.Application.Json
     ) {
 
-        // disabled because that's the caller's own responsibility
-//        contentType.requireJson()
+        val variant = jsonResponseVariant(
+            method = request.httpMethod,
+            status = status,
+            etag = { json.etag },
+            size = json.bytes.size,
+            ifNoneMatch = request.header(HttpHeaders.IfNoneMatch),
+            acceptEncoding = request.header(HttpHeaders.AcceptEncoding),
+        )
+
+        if (variant.varyAcceptEncoding) {
+            response.headers.append(HttpHeaders.Vary, HttpHeaders.AcceptEncoding)
+        }
+        // TODO quote (or use conditionalheaders feature correctly)
+        variant.etag?.let { response.etag(it) }
 
-        respondWithETag(TextContent(
+        if (variant.notModified) {
+            respond(HttpStatusCode.NotModified)
+        } else {
+            respond(EncodedJsonContent(
+                bytes = if (variant.gzip) json.gzipped else json.bytes,
                 status = status,
-                text = json,
-                contentType = ContentType.Application.Json
-        ))
+                gzipped = variant.gzip,
+            ))
+        }
+    }
+
+    private class EncodedJsonContent(
+        private val bytes: ByteArray,
+        override val status: HttpStatusCode,
+        gzipped: Boolean,
+    ) : ByteArrayContent() {
+        override val contentType get() = ContentType.Application.Json
+        override val contentLength get() = bytes.size.toLong()
+        override val headers: Headers =
+            if (gzipped) headersOf(HttpHeaders.ContentEncoding, "gzip")
+            else Headers.Empty
+        override fun bytes() = bytes
     }
 
     // TODO can this be done as an intercept?
@@ -438,6 +482,76 @@ inline operator fun <L, R> L.div(block: (L) -> R): R {
     return block(this)
 }
 
+private val precompressEnabled = System.getProperty("org.jbali.rest.RestRoute.precompress")?.toBoolean() ?: false
+private val precompressThreshold = System.getProperty("org.jbali.rest.RestRoute.precompressMinSize")?.toInt() ?: 1024
+
+/**
+ * How [RestRoute.respondObject] responds with an encoded JSON body.
+ *
+ * @param gzip Whether to send the precompressed body, with `Content-Encoding: gzip`.
+ * @param etag The ETag of the chosen representation, if any. The gzip one differs from the identity one.
+ * @param varyAcceptEncoding Whether the representation depends on `Accept-Encoding`,
+ *                           so it must be sent with `Vary: Accept-Encoding`, also when not compressed.
+ * @param notModified Whether to respond with `304 Not Modified` instead of the body.
+ */
+internal data class JsonResponseVariant(
+    val gzip: Boolean,
+    val etag: String?,
+    val varyAcceptEncoding: Boolean,
+    val notModified: Boolean,
+)
+
+/**
+ * Choose the [JsonResponseVariant] for a JSON body of [size] bytes with [etag], which is only called if needed,
+ * given the `If-None-Match` and `Accept-Encoding` request headers.
+ * Precompression is opt-in, with the system property `org.jbali.rest.RestRoute.precompress=true`,
+ * and applies from `org.jbali.rest.RestRoute.precompressMinSize` bytes.
+ */
+internal fun jsonResponseVariant(
+    method: HttpMethod,
+    status: HttpStatusCode,
+    etag: () -> String,
+    size: Int,
+    ifNoneMatch: String?,
+    acceptEncoding: String?,
+    precompress: Boolean = precompressEnabled,
+    precompressMinSize: Int = precompressThreshold,
+): JsonResponseVariant {
+    val varyAcceptEncoding = precompress && size >= precompressMinSize
+    val gzip = varyAcceptEncoding && acceptsGzip(acceptEncoding)
+    val variantETag = when (method) {
+        HttpMethod.Get, HttpMethod.Head -> etag().let { if (gzip) "$it-gzip" else it }
+        else -> null
+    }
+    return JsonResponseVariant(
+        gzip = gzip,
+        etag = variantETag,
+        varyAcceptEncoding = varyAcceptEncoding,
+        notModified = variantETag != null && status == HttpStatusCode.OK &&
+            ifNoneMatch?.let { etagMatches(it, variantETag) } == true,
+    )
+}
+
+/**
+ * Whether the (unquoted) [etag] matches the value of an `If-None-Match` header,
+ * which may be a list of quoted and/or weak tags, or `*`.
+ */
+internal fun etagMatches(ifNoneMatch: String, etag: String): Boolean =
+    ifNoneMatch.split(',').any {
+        val t = it.trim().removePrefix("W/").removeSurrounding("\"")
+        t == etag || t == "*"
+    }
+
+/**
+ * Whether an `Accept-Encoding` header value accepts gzip, i.e. lists it without `q=0`.
+ */
+internal fun acceptsGzip(acceptEncoding: String?): Boolean =
+    acceptEncoding?.split(',')?.any {
+        val parts = it.split(';').map(String::trim)
+        val q = parts.firstOrNull { p -> p.startsWith("q=") }?.removePrefix("q=")?.toDoubleOrNull()
+        parts[0].equals("gzip", ignoreCase = true) && (q == null || q > 0.0)
+    } ?: false
+
 private val ByteArrayContent.etag: String
     by StoredExtensionProperty {
         this()
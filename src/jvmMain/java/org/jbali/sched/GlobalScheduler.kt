@@ -1,11 +1,14 @@
 package org.jbali.sched
 
+import org.jbali.threads.ExecutorConfig
 import org.jbali.threads.ThreadPool
 import org.jbali.threads.runWithThreadName
 import org.slf4j.LoggerFactory
 import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.ExecutorService
 import java.util.concurrent.Future
+import java.util.concurrent.FutureTask
 import java.util.concurrent.ScheduledThreadPoolExecutor
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.locks.ReentrantLock
@@ -31,6 +34,26 @@ object GlobalScheduler : Scheduler() {
 
     val inited get() = exLock.withLock { ex != null }
 
+    /**
+     * Runs the task bodies. This is the global [ThreadPool], unless a dedicated executor is configured with the
+     * system properties `org.jbali.sched.GlobalScheduler.tasks.mode` etc., see [ExecutorConfig].
+     *
+     * [ExecutorConfig.Mode.BOUNDED] is not allowed, because when full it runs tasks in the submitting thread,
+     * which here is a firing thread, so a task would delay other tasks.
+     */
+    private val taskExecutor: ExecutorService by lazy {
+        val prefix = "${GlobalScheduler::class.java.name}.tasks"
+        if (System.getProperty("$prefix.mode") == null) {
+            ThreadPool.executor
+        } else {
+            val config = ExecutorConfig.fromSystemProperties(prefix)
+            require(config.mode != ExecutorConfig.Mode.BOUNDED) {
+                "$prefix.mode=${config.mode} is not supported, since it would run tasks in the scheduler's threads"
+            }
+            config.create(prefix)
+        }
+    }
+
     override val currentTime: Instant get() = Instant.now()
 
     private fun getOrStartExecutor(): ScheduledThreadPoolExecutor =
@@ -115,15 +138,19 @@ object GlobalScheduler : Scheduler() {
 
                 private fun runNowInOtherThread() {
                     runWithThreadName("GS.fire[$name]") {
-                        lock.withLock {
+                        val task = lock.withLock {
                             // TODO allow specifying an external lock that should be synced too
                             if (state != ScheduledTask.State.SCHEDULED) {
                                 assert(state == ScheduledTask.State.CANCELLED)
+                                null
                             } else {
                                 assert(runningTask == null)
-                                runningTask = ThreadPool.submit(::runInCurrentThread)
+                                FutureTask(::runInCurrentThread, Unit).also { runningTask = it }
                             }
                         }
+                        // submit outside the lock, because a bounded executor may run the task in this thread,
+                        // and assigned runningTask before, so cancel can interrupt it anyway
+                        task?.let(taskExecutor::execute)
                     }
                 }
 
@@ -167,7 +194,11 @@ object GlobalScheduler : Scheduler() {
                     lock.withLock {
                         val cancelled = when (state) {
                             ScheduledTask.State.SCHEDULED,
-                            ScheduledTask.State.RUNNING -> firer.cancel(false) || (runningTask?.cancel(interrupt) ?: false)
+                            ScheduledTask.State.RUNNING -> {
+                                // both, because the firer is still running if the executor ran the task in its thread
+                                val firerCancelled = firer.cancel(false)
+                                (runningTask?.cancel(interrupt) ?: false) || firerCancelled
+                            }
 
                             ScheduledTask.State.COMPLETED,
                             ScheduledTask.State.ERRORED,
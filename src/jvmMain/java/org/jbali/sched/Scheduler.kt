@@ -3,6 +3,7 @@ package org.jbali.sched
 import java.time.Duration
 import java.time.Instant
 import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.max
 
 interface ScheduledTask {
     val state: State
@@ -31,12 +32,19 @@ abstract class Scheduler {
 
     private val tasks: MutableSet<ScheduledTask> = ConcurrentHashMap.newKeySet()
 
+    /**
+     * Size [tasks] must reach before [schedule] performs maintenance again.
+     * Doubles along with the number of live tasks, so the cost of maintenance is amortized O(1) per schedule.
+     */
+    @Volatile private var maintenanceThreshold = MIN_MAINTENANCE_THRESHOLD
+
     protected abstract fun scheduleReal(t: TaskToSchedule): ScheduledTask
 
     abstract val currentTime: Instant
 
     private fun taskMaintenance() {
         tasks.removeIf { t -> t.state.willNotRun }
+        maintenanceThreshold = max(MIN_MAINTENANCE_THRESHOLD, tasks.size * 2)
     }
 
     private fun tasksWith(f: (ScheduledTask) -> Boolean): Set<ScheduledTask> {
@@ -47,7 +55,9 @@ abstract class Scheduler {
     fun schedule(t: TaskToSchedule) =
             scheduleReal(t).also {
                 tasks.add(it)
-                taskMaintenance()
+                if (tasks.size >= maintenanceThreshold) {
+                    taskMaintenance()
+                }
             }
 
     val knownTasks get() = tasksWith { true }
@@ -114,4 +124,6 @@ abstract class Scheduler {
 
 }
 
+private const val MIN_MAINTENANCE_THRESHOLD = 64
+
 operator fun Duration.times(m: Double) = Duration.ofMillis((toMillis() * m).toLong())
@@ -0,0 +1,294 @@
+package org.jbali.sched
+
+import org.jbali.threads.ThreadFactoryFactory
+import org.jbali.threads.ThreadPool
+import org.jbali.threads.runWithThreadName
+import org.jbali.util.logger
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicReference
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+import kotlin.math.max
+
+/**
+ * A scheduler backed by a hashed timing wheel, for when very many (short) tasks are scheduled,
+ * e.g. timeouts that are almost always cancelled before they fire.
+ *
+ * Scheduling and cancelling are O(1): both only enqueue the task in a lock-free queue,
+ * which the wheel drains on its next tick. Tasks fire with a granularity of [tickDuration],
+ * never earlier than requested but up to one tick late.
+ *
+ * Task bodies are run by [executor], which by default is the global [ThreadPool].
+ *
+ * If [autoTick] is true (the default), a daemon thread is started on the first schedule, which advances
+ * the wheel in real time according to [clock]. Otherwise, the wheel only advances when [advance] is called,
+ * which combined with a controllable [clock] and a direct executor allows deterministic testing.
+ *
+ * @param wheelSize the number of buckets in the wheel. Will be rounded up to a power of 2.
+ */
+class TimingWheelScheduler(
+    val name: String,
+    val tickDuration: Duration = Duration.ofMillis(10),
+    wheelSize: Int = 512,
+    private val executor: Executor = ThreadPool.executor,
+    private val clock: Clock = Clock.systemUTC(),
+    private val autoTick: Boolean = true,
+) : Scheduler() {
+
+    private val log = logger<TimingWheelScheduler>()
+
+    private val tickMs = tickDuration.toMillis()
+    init {
+        require(tickMs > 0) { "tickDuration must be at least 1 ms" }
+        require(wheelSize in 1..(1 shl 30)) { "wheelSize $wheelSize out of range" }
+    }
+
+    private val wheel = Array(Integer.highestOneBit((wheelSize - 1) shl 1).coerceAtLeast(1)) { Bucket() }
+    private val mask = wheel.size - 1
+
+    /** The wall time of tick 0 */
+    private val startMs = clock.millis()
+
+    /** Guards all mutation of [wheel] and [tick] */
+    private val wheelLock = ReentrantLock()
+    /** The number of ticks that have been processed */
+    private var tick = 0L
+
+    private val pending = ConcurrentLinkedQueue<WheelTask>()
+    private val cancelled = ConcurrentLinkedQueue<WheelTask>()
+
+    private val tickerLock = ReentrantLock()
+    @Volatile private var ticker: Thread? = null
+    @Volatile private var shutDown = false
+
+    override val currentTime: Instant get() = clock.instant()
+
+    /** The number of tasks that were scheduled but have not yet been placed in or removed from the wheel. */
+    val pendingCount get() = pending.size
+
+    override fun scheduleReal(t: TaskToSchedule): ScheduledTask {
+        check(!shutDown) { "$this was shut down" }
+
+        var deadline = clock.millis() + t.delay.toMillis()
+        if (t.roundToSecond) deadline = ceilDiv(deadline, 1000L) * 1000
+
+        return WheelTask(t, deadline).also {
+            pending.add(it)
+            if (autoTick) ensureTicker()
+        }
+    }
+
+    /**
+     * Process all ticks that have elapsed up to the given time, firing the tasks that are due.
+     * Only needs to be called manually if [autoTick] is false.
+     */
+    fun advance(to: Instant = clock.instant()) {
+        val targetTick = Math.floorDiv(to.toEpochMilli() - startMs, tickMs)
+        val due = ArrayList<WheelTask>()
+        wheelLock.withLock {
+            transferPending()
+            removeCancelled()
+            while (tick < targetTick) {
+                tick++
+                wheel[(tick and mask.toLong()).toInt()].expire(tick, due)
+            }
+        }
+        // hand off outside the lock, so a direct executor can schedule and cancel without contention
+        for (task in due) {
+            executor.execute(task)
+        }
+    }
+
+    private fun transferPending() {
+        while (true) {
+            val task = pending.poll() ?: break
+            if (task.state != ScheduledTask.State.SCHEDULED) continue
+            // anything already overdue goes in the next bucket
+            task.deadlineTick = max(tick + 1, ceilDiv(task.deadline - startMs, tickMs))
+            wheel[(task.deadlineTick and mask.toLong()).toInt()].add(task)
+        }
+    }
+
+    private fun removeCancelled() {
+        while (true) {
+            val task = cancelled.poll() ?: break
+            task.bucket?.remove(task)
+        }
+    }
+
+    private fun ensureTicker() {
+        if (ticker != null) return
+        tickerLock.withLock {
+            if (ticker == null && !shutDown) {
+                ticker = ThreadFactoryFactory.once(name = "TimingWheelScheduler[$name]", daemon = true)
+                    .newThread(::tickLoop)
+                    .also { it.start() }
+            }
+        }
+    }
+
+    private fun tickLoop() {
+        try {
+            while (!shutDown) {
+                val nextTickMs = startMs + (wheelLock.withLock { tick } + 1) * tickMs
+                val sleep = nextTickMs - clock.millis()
+                if (sleep > 0) Thread.sleep(sleep)
+                try {
+                    advance()
+                } catch (e: Throwable) {
+                    log.error("Error advancing $this", e)
+                }
+            }
+        } catch (e: InterruptedException) {
+            if (!shutDown) log.warn("$this ticker was interrupted", e)
+        }
+    }
+
+    /**
+     * Stop the ticker thread, and cancel all tasks that are still scheduled.
+     * @return the number of tasks that were cancelled.
+     */
+    fun shutdown(): Int {
+        shutDown = true
+        tickerLock.withLock {
+            ticker?.interrupt()
+            ticker = null
+        }
+        return wheelLock.withLock {
+            transferPending()
+            removeCancelled()
+            wheel.sumOf { it.clear() }
+        }
+    }
+
+    override fun toString() = "TimingWheelScheduler[$name]"
+
+    /**
+     * Doubly linked list of the tasks in one slot of the wheel, so that removal is O(1).
+     * Only accessed while holding [wheelLock].
+     */
+    private class Bucket {
+        private var head: WheelTask? = null
+        private var tail: WheelTask? = null
+
+        fun add(task: WheelTask) {
+            task.bucket = this
+            task.prev = tail
+            task.next = null
+            if (tail == null) head = task else tail!!.next = task
+            tail = task
+        }
+
+        fun remove(task: WheelTask) {
+            val p = task.prev
+            val n = task.next
+            if (p == null) head = n else p.next = n
+            if (n == null) tail = p else n.prev = p
+            task.bucket = null
+            task.prev = null
+            task.next = null
+        }
+
+        /** Remove all tasks that are due at or before [tick] and add them to [due]. */
+        fun expire(tick: Long, due: MutableList<WheelTask>) {
+            var task = head
+            while (task != null) {
+                val next = task.next
+                if (task.deadlineTick <= tick) {
+                    remove(task)
+                    if (task.state == ScheduledTask.State.SCHEDULED) {
+                        due.add(task)
+                    }
+                }
+                task = next
+            }
+        }
+
+        /** Cancel and remove all tasks, returning the number of tasks that were actually cancelled. */
+        fun clear(): Int {
+            var count = 0
+            while (true) {
+                val task = head ?: break
+                remove(task)
+                if (task.cancel()) count++
+            }
+            return count
+        }
+    }
+
+    private inner class WheelTask(
+        t: TaskToSchedule,
+        /** Absolute time in epoch ms at which to run */
+        val deadline: Long,
+    ) : AtomicReference<ScheduledTask.State>(ScheduledTask.State.SCHEDULED), ScheduledTask, Runnable {
+
+        // please ensure t is not captured by not referring to it in any code that does not run at init time
+
+        private val name = t.name
+        @Volatile private var body: TaskBody? = t.body
+        @Volatile private var runner: Thread? = null
+
+        // position in the wheel, guarded by wheelLock
+        var deadlineTick = 0L
+        var bucket: Bucket? = null
+        var prev: WheelTask? = null
+        var next: WheelTask? = null
+
+        override val state: ScheduledTask.State get() = get()
+
+        override val currentDelay: Duration?
+            get() = when (state) {
+                ScheduledTask.State.SCHEDULED -> Duration.ofMillis(max(0, deadline - clock.millis()))
+                ScheduledTask.State.RUNNING,
+                ScheduledTask.State.COMPLETED,
+                ScheduledTask.State.ERRORED -> Duration.ZERO
+                ScheduledTask.State.CANCELLED -> null
+            }
+
+        override fun run() {
+            if (!compareAndSet(ScheduledTask.State.SCHEDULED, ScheduledTask.State.RUNNING)) {
+                assert(state == ScheduledTask.State.CANCELLED)
+                return
+            }
+            runWithThreadName("TWS.runr[$name]") {
+                runner = Thread.currentThread()
+                val ns = try {
+                    body!!()
+                    ScheduledTask.State.COMPLETED
+                } catch (e: Throwable) {
+                    log.error("Uncaught error in scheduled task $name", e)
+                    ScheduledTask.State.ERRORED
+                } finally {
+                    runner = null
+                    // release memory for body that is never run again
+                    body = null
+                }
+                set(ns)
+            }
+        }
+
+        override fun cancel(interrupt: Boolean, allowWhileRunning: Boolean): Boolean =
+            if (compareAndSet(ScheduledTask.State.SCHEDULED, ScheduledTask.State.CANCELLED)) {
+                // release memory for body that won't ever run
+                body = null
+                // let the wheel unlink it, if it's in there
+                cancelled.add(this)
+                true
+            } else when (state) {
+                ScheduledTask.State.RUNNING -> {
+                    if (interrupt) runner?.interrupt()
+                    true
+                }
+                else -> false
+            }
+
+        override fun toString() = "$name @ ${Instant.ofEpochMilli(deadline)} ($state)"
+    }
+
+}
+
+private fun ceilDiv(x: Long, y: Long) = -Math.floorDiv(-x, y)
@@ -10,10 +10,13 @@ class HMAC(
 
     private val k = SecretKeySpec(key, algorithm)
 
+    // Mac is not thread-safe, and getInstance and init are relatively expensive
+    private val mac = ThreadLocal.withInitial {
+        Mac.getInstance(algorithm).apply { init(k) }
+    }
+
     fun sign(msg: ByteArray): ByteArray =
-            Mac.getInstance(algorithm).run {
-                init(k)
-                doFinal(msg)
-            }
+            // doFinal resets the Mac for the next message
+            mac.get().doFinal(msg)
 
 }
\ No newline at end of file
@@ -1,10 +1,16 @@
 package org.jbali.security
 
+import com.google.common.base.Ticker
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import kotlinx.serialization.Contextual
 import kotlinx.serialization.KSerializer
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.builtins.serializer
 import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.doubleOrNull
 import kotlinx.serialization.serializer
 import org.jbali.bytes.*
 import org.jbali.json2.JSONString
@@ -12,9 +18,12 @@ import org.jbali.kotser.*
 import java.math.BigInteger
 import java.security.KeyFactory
 import java.security.KeyPair
+import java.security.MessageDigest
 import java.security.Signature
 import java.security.spec.RSAPublicKeySpec
+import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.TimeUnit
 
 
 @Serializable
@@ -44,18 +53,30 @@ data class JWT(
     override fun toString() = "$header.$payload.$signature"
     val concat get() = toString()
 
+    /** [header], decoded on first use. */
+    val decodedHeader: JWTHeader by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        header.unbase64().decode()
+    }
+
+    /** [payload] as JSON, decoded on first use. */
+    val payloadJson: JSONString by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        payload.unbase64()
+    }
+
     companion object {
         @JvmStatic
         fun fromString(s: String): JWT {
-            val split = s.split('.')
-            require(split.size == 3) {
+            val dot1 = s.indexOf('.')
+            val dot2 = if (dot1 < 0) -1 else s.indexOf('.', dot1 + 1)
+            require(dot2 >= 0 && s.indexOf('.', dot2 + 1) < 0) {
                 "JWT string invalid: $s"
             }
+            // header and payload are only decoded when used, see decodedHeader and payloadJson
             return JWT(
                 // TODO check here if input is valid base64
-                Base64JSON(Base64String(split[0])),
-                Base64JSON(Base64String(split[1])),
-                JWTSignature(Base64String(split[2]))
+                Base64JSON(Base64String(s.substring(0, dot1))),
+                Base64JSON(Base64String(s.substring(dot1 + 1, dot2))),
+                JWTSignature(Base64String(s.substring(dot2 + 1)))
             )
         }
     }
@@ -67,6 +88,18 @@ data class JWT(
 
 }
 
+/**
+ * @throws IllegalArgumentException if the signature is not the encoding of its bytes, with or without padding,
+ * e.g. if the unused bits of the last character are set, so that each signature has only one accepted form.
+ */
+private fun JWTSignature.bytes(): ByteArray =
+    Base64Encoding.Url.decodeString(encoded).also {
+        val canonical = Base64Encoding.Url.encodeToString(it).string
+        require(encoded.string == canonical || encoded.string == canonical.trimEnd('=')) {
+            "JWT signature not canonically encoded"
+        }
+    }
+
 // TODO move
 fun Base64JSON.unbase64(): JSONString =
         decode(encoding = Base64Encoding.Url, wrapper = { JSONString(this) })
@@ -88,15 +121,15 @@ abstract class JWTSigner(
     
     open fun verify(token: JWT) {
         
-        val h = token.header.unbase64().decode<JWTHeader>()
+        val h = token.decodedHeader
         
         require(h.alg == alg) {
             "JWT header alg invalid: $h"
         }
     
-        // check signature
-        val goodSig = sign(token.header, token.payload)
-        require(goodSig == token.signature) {
+        // check signature, in constant time
+        val goodSig = signData(signatureInput(token.header, token.payload))
+        require(MessageDigest.isEqual(goodSig, token.signature.bytes())) {
             // TODO log the required signature? (but don't send to client!)
             "JWT signature different"
         }
@@ -131,6 +164,11 @@ abstract class JWTSigner(
                 "KeyPair must contain at least a public or private key"
             }
         }
+        
+        // Signature is not thread-safe, and getInstance is relatively expensive
+        private val verifier = ThreadLocal.withInitial {
+            Signature.getInstance("SHA${bits}withRSA")
+        }
     
         override fun signData(d: ByteArray) =
             TODO("Not yet implemented")
@@ -138,17 +176,18 @@ abstract class JWTSigner(
         override fun verify(token: JWT) {
             check(keys.public != null)
     
-            val h = token.header.unbase64().decode<JWTHeader>()
+            val h = token.decodedHeader
     
             require(h.alg == alg) {
                 "JWT header alg invalid: $h"
             }
             
-            require(Signature.getInstance("SHA256withRSA")
+            require(verifier.get()
                 .apply {
+                    // also resets it, in case a previous use failed halfway
                     initVerify(keys.public)
                     update(signatureInput(token.header, token.payload))
-                }.verify(token.signature.encoded.decode())) {
+                }.verify(token.signature.bytes())) {
                 "JWT signature invalid"
             }
             
@@ -167,7 +206,7 @@ abstract class JWTSigner(
             error("JWTSigner.KeySet can't sign, only verify")
     
         override fun verify(token: JWT) {
-            val h = token.header.unbase64().decode<JWTHeader>()
+            val h = token.decodedHeader
             val kid = h.kid ?: throw IllegalArgumentException("kid missing from JWT header")
             val signer = signers[kid] ?: throw IllegalArgumentException("Key with kid $kid is unknown to us")
             signer.verify(token)
@@ -208,14 +247,48 @@ object JWTNumericDateSerializer : TransformingSerializer<Instant, Double>(Instan
 inline fun <reified P : Any> JWTManager(
     json: Json = DefaultJson.plain,
     signer: JWTSigner,
-) = JWTManager<P>(serializer(), json, signer)
+    verifiedCacheSize: Int = 10_000,
+    verifiedCacheMaxAge: Duration = Duration.ofMinutes(5),
+) = JWTManager<P>(serializer(), json, signer, verifiedCacheSize, verifiedCacheMaxAge)
 
+/**
+ * Issues and verifies [JWT]s with payload [P].
+ *
+ * Verified tokens are cached by their signature, so that a token that is presented repeatedly,
+ * e.g. with every request of a session, is only verified and parsed once.
+ * A cached token is used only if its header and payload are identical to the verified one,
+ * and only until its `exp` claim, if any, or for at most [verifiedCacheMaxAge].
+ * At most [verifiedCacheSize] tokens are cached, evicting the least recently used, `0` disables the cache.
+ */
 class JWTManager<P : Any>(
         val payloadSerializer: KSerializer<P>,
         val json: Json = DefaultJson.plain,
-        val signer: JWTSigner
+        val signer: JWTSigner,
+        val verifiedCacheSize: Int = 10_000,
+        val verifiedCacheMaxAge: Duration = Duration.ofMinutes(5),
+        private val clock: () -> Instant = { Instant.now() },
 ) {
 
+    /**
+     * @param expiresAt The `exp` claim, if any.
+     */
+    private class Verified<P : Any>(
+        val header: Base64JSON,
+        val payload: Base64JSON,
+        val expiresAt: Instant?,
+        @Volatile var parsed: P? = null,
+    )
+
+    /** By the encoded signature, without padding */
+    private val verified: Cache<String, Verified<P>> = CacheBuilder.newBuilder()
+        .maximumSize(maxOf(verifiedCacheSize, 0).toLong())
+        .expireAfterWrite(verifiedCacheMaxAge)
+        .ticker(object : Ticker() {
+            override fun read(): Long =
+                clock().let { TimeUnit.SECONDS.toNanos(it.epochSecond) + it.nano }
+        })
+        .build()
+
     fun issue(payload: P): JWT {
         val h = JWTHeader(
             typ = "JWT",
@@ -234,21 +307,52 @@ class JWTManager<P : Any>(
      * @throws IllegalArgumentException if the token is not a valid JWT, uses a different signing algorithm or is not signed correctly.
      */
     fun verify(token: JWT) {
+        verifyCached(token)
+    }
+
+    fun verifyAndParse(token: JWT): P {
+        val v = verifyCached(token)
+        return v?.parsed
+            ?: token.payloadJson.parse(json, payloadSerializer)
+                .also { v?.parsed = it }
+    }
+
+    /**
+     * Verify [token], unless it is in the cache.
+     * @return The cache entry of the token, if it is cached.
+     */
+    private fun verifyCached(token: JWT): Verified<P>? {
+        val key = token.signature.encoded.string.trimEnd('=')
+        val now = clock()
+
+        verified.getIfPresent(key)?.let { v ->
+            if (v.header == token.header && v.payload == token.payload && (v.expiresAt == null || now < v.expiresAt)) {
+                return v
+            }
+        }
 
         // read and check header
-        val h = token.header.unbase64().decode<JWTHeader>()
+        val h = token.decodedHeader
         require((h.typ ?: "JWT") == "JWT") {
             "JWT header typ invalid: $h"
         }
-    
+
         signer.verify(token)
 
+        if (verifiedCacheSize <= 0) return null
+        val expiresAt = expirationOf(token)
+        if (expiresAt != null && now >= expiresAt) return null
+        return Verified<P>(token.header, token.payload, expiresAt)
+            .also { verified.put(key, it) }
     }
 
-    fun verifyAndParse(token: JWT): P {
-        verify(token)
-        return token.payload.unbase64().parse(json, payloadSerializer)
-    }
+    /** The `exp` claim of the payload of [token], if present. */
+    private fun expirationOf(token: JWT): Instant? =
+        (json.parseToJsonElement(token.payloadJson.string) as? JsonObject)
+            ?.get("exp")
+            ?.let { it as? JsonPrimitive }
+            ?.doubleOrNull
+            ?.let { Instant.ofEpochSecond(it.toLong()) }
 
 }
 
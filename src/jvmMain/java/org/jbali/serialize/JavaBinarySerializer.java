@@ -0,0 +1,261 @@
+package org.jbali.serialize;
+
+import kotlin.Unit;
+import kotlinx.serialization.json.JsonElement;
+import org.jbali.kotser.BasicJson;
+import org.jbali.serialize.JavaJsonSerializer.ValType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>Binary counterpart of {@link JavaJsonSerializer}, for the same values, which round-trip with the same types.</p>
+ *
+ * <p>Each value is a tag byte followed by its payload. The tags are the {@link ValType} letters, plus
+ * <code>N</code> (null), <code>T</code>/<code>F</code> (Boolean), <code>D</code> (Double) and <code>S</code> (String),
+ * for the values that {@link JavaJsonSerializer} keeps as plain JSON. Payloads are:</p>
+ * <ul>
+ * <li>fixed size big-endian for Byte, Char, Short, Float and Double</li>
+ * <li>a zigzag varint for Int and Long</li>
+ * <li>a varint length followed by the bytes for String and JsonElement (both UTF-8), byte[] and Java serialized objects</li>
+ * </ul>
+ * <p>Compared to {@link JavaJsonSerializer}, nothing is Base64 encoded and no numbers are converted to and from text.</p>
+ */
+public class JavaBinarySerializer {
+
+	static final byte NULL = 'N';
+	static final byte TRUE = 'T';
+	static final byte FALSE = 'F';
+	static final byte DOUBLE = 'D';
+	static final byte STRING = 'S';
+
+	public static byte[] serialize(Object val) {
+		final ByteArrayOutputStream b = new ByteArrayOutputStream();
+		try {
+			new Writer(b).write(val);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return b.toByteArray();
+	}
+
+	/**
+	 * @throws IllegalArgumentException If <code>bytes</code> does not contain exactly one value.
+	 */
+	public static Object unserialize(byte[] bytes) {
+		final Reader r = new Reader(new ByteArrayInputStream(bytes));
+		try {
+			final Object val = r.read();
+			if (r.hasNext()) {
+				throw new IllegalArgumentException("Trailing bytes after value");
+			}
+			return val;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Cannot unserialize: " + e, e);
+		}
+	}
+
+	/**
+	 * Writes values to a stream. Does not buffer, so for many small values the stream should be buffered.
+	 */
+	public static class Writer implements Flushable {
+
+		private final OutputStream out;
+		private final byte[] buf = new byte[10];
+
+		public Writer(OutputStream out) {
+			this.out = out;
+		}
+
+		public void write(Object val) throws IOException {
+			if (val == null || val instanceof Unit) {
+				out.write(NULL);
+			} else if (val instanceof Boolean) {
+				out.write((Boolean) val ? TRUE : FALSE);
+			} else if (val instanceof String) {
+				writeBytes(STRING, ((String) val).getBytes(StandardCharsets.UTF_8));
+			} else if (val instanceof Double) {
+				writeFixed(DOUBLE, Double.doubleToRawLongBits((Double) val), 8);
+			} else if (val instanceof JsonElement) {
+				writeBytes(letter(ValType.JSON_ELEMENT),
+						BasicJson.INSTANCE.stringify((JsonElement) val, false).getBytes(StandardCharsets.UTF_8));
+			} else if (val instanceof byte[]) {
+				writeBytes(letter(ValType.BYTE_ARRAY), (byte[]) val);
+			} else if (val instanceof Character) {
+				writeFixed(letter(ValType.CHAR), (Character) val, 2);
+			} else if (val instanceof Byte) {
+				writeFixed(letter(ValType.BYTE), (Byte) val, 1);
+			} else if (val instanceof Short) {
+				writeFixed(letter(ValType.SHORT), (Short) val, 2);
+			} else if (val instanceof Float) {
+				writeFixed(letter(ValType.FLOAT), Float.floatToRawIntBits((Float) val), 4);
+			} else if (val instanceof Integer) {
+				writeZigZag(letter(ValType.INT), (Integer) val);
+			} else if (val instanceof Long) {
+				writeZigZag(letter(ValType.LONG), (Long) val);
+			} else if (val instanceof Serializable) {
+				writeBytes(letter(ValType.JAVA_OBJECT), JavaSerializer.write((Serializable) val));
+			} else {
+				throw new IllegalArgumentException("Cannot serialize value " + val + " of type " + val.getClass());
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		private void writeFixed(byte tag, long v, int size) throws IOException {
+			buf[0] = tag;
+			for (int i = 0; i < size; i++) {
+				buf[size - i] = (byte) (v >>> (i * 8));
+			}
+			out.write(buf, 0, size + 1);
+		}
+
+		private void writeZigZag(byte tag, long v) throws IOException {
+			out.write(tag);
+			writeVarint((v << 1) ^ (v >> 63));
+		}
+
+		private void writeBytes(byte tag, byte[] bytes) throws IOException {
+			out.write(tag);
+			writeVarint(bytes.length);
+			out.write(bytes);
+		}
+
+		private void writeVarint(long v) throws IOException {
+			int n = 0;
+			while ((v & ~0x7FL) != 0) {
+				buf[n++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[n++] = (byte) v;
+			out.write(buf, 0, n);
+		}
+
+	}
+
+	/**
+	 * Reads values from a stream, that were written by {@link Writer}.
+	 * Reads no further than the last byte of each value.
+	 */
+	public static class Reader {
+
+		private final InputStream in;
+		/** A byte read by {@link #hasNext()}, or -1 */
+		private int peeked = -1;
+
+		public Reader(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return Whether there are more values, i.e. the stream has not ended.
+		 */
+		public boolean hasNext() throws IOException {
+			if (peeked == -1) {
+				peeked = in.read();
+			}
+			return peeked != -1;
+		}
+
+		/**
+		 * @throws EOFException If the stream ends before or within a value.
+		 */
+		public Object read() throws IOException {
+			final int tag;
+			if (peeked != -1) {
+				tag = peeked;
+				peeked = -1;
+			} else {
+				tag = readByte();
+			}
+
+			switch (tag) {
+				case NULL: return null;
+				case TRUE: return Boolean.TRUE;
+				case FALSE: return Boolean.FALSE;
+				case DOUBLE: return Double.longBitsToDouble(readFixed(8));
+				case STRING: return new String(readBytes(), StandardCharsets.UTF_8);
+			}
+
+			final ValType vt = ValType.getByLetter((char) tag);
+			if (vt == null) {
+				throw new IOException("Unknown tag " + tag);
+			}
+			switch (vt) {
+				case JSON_ELEMENT: return BasicJson.INSTANCE.parse(new String(readBytes(), StandardCharsets.UTF_8));
+				case JAVA_OBJECT: return JavaSerializer.read(readBytes());
+				case BYTE_ARRAY: return readBytes();
+				case BYTE: return (byte) readFixed(1);
+				case CHAR: return (char) readFixed(2);
+				case SHORT: return (short) readFixed(2);
+				case FLOAT: return Float.intBitsToFloat((int) readFixed(4));
+				case INT: return (int) readZigZag();
+				case LONG: return readZigZag();
+			}
+			throw new IOException("Tag " + vt + " not supported");
+		}
+
+		private int readByte() throws IOException {
+			final int b = in.read();
+			if (b == -1) {
+				throw new EOFException();
+			}
+			return b;
+		}
+
+		private long readFixed(int size) throws IOException {
+			long v = 0;
+			for (int i = 0; i < size; i++) {
+				v = (v << 8) | readByte();
+			}
+			return v;
+		}
+
+		private long readZigZag() throws IOException {
+			final long v = readVarint();
+			return (v >>> 1) ^ -(v & 1);
+		}
+
+		private long readVarint() throws IOException {
+			long v = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				final int b = readByte();
+				v |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return v;
+				}
+			}
+			throw new IOException("Malformed varint");
+		}
+
+		private byte[] readBytes() throws IOException {
+			final long len = readVarint();
+			if (len < 0 || len > Integer.MAX_VALUE - 8) {
+				throw new IOException("Invalid length " + len);
+			}
+			// reads in chunks, so a corrupt length can't cause a huge allocation up front
+			final byte[] bytes = in.readNBytes((int) len);
+			if (bytes.length != len) {
+				throw new EOFException();
+			}
+			return bytes;
+		}
+
+	}
+
+	private static byte letter(ValType vt) {
+		return (byte) vt.letter;
+	}
+
+}
@@ -39,6 +39,9 @@ public class JavaJsonSerializer {
 		FLOAT('f'),
 
 		BYTE_ARRAY('B'),
+
+		/** Any value, encoded with {@link JavaBinarySerializer} */
+		BINARY('b'),
 		
 		
 		// TODO these:
@@ -67,6 +70,19 @@ public class JavaJsonSerializer {
 		return JSONArray.create(""+vt.letter, inner);
 	}
 
+	/**
+	 * @param binary Whether to encode values that are not plain JSON or {@link JsonElement} as {@link ValType#BINARY}.
+	 *               Can only be used if the receiver supports that type.
+	 * @return One of: <code>null</code>, Boolean, Double, String, JSONArray.
+	 */
+	public static Object serialize(Object val, boolean binary) {
+		if (binary && !(val == null || val instanceof Boolean || val instanceof String || val instanceof Double ||
+				val instanceof Unit || val instanceof JsonElement)) {
+			return complex(ValType.BINARY, Base64.encodeBase64String(JavaBinarySerializer.serialize(val)));
+		}
+		return serialize(val);
+	}
+
 	/**
 	 * @return One of: <code>null</code>, Boolean, Double, String, JSONArray.
 	 */
@@ -104,6 +120,7 @@ public class JavaJsonSerializer {
 				case JSON_ELEMENT: return JsonConvertKt.jsonElementFromLegacy(ja.get(1));
 				case JAVA_OBJECT: return JavaSerializer.read(Base64.decodeBase64(ja.getString(1)));				
 				case BYTE_ARRAY: return Base64.decodeBase64(ja.getString(1));
+				case BINARY: return JavaBinarySerializer.unserialize(Base64.decodeBase64(ja.getString(1)));
 				case BYTE: return ((Number)ja.get(1)).byteValue();
 				case CHAR: return ja.getString(1).charAt(0);
 				case FLOAT: return ((Number)ja.get(1)).floatValue();
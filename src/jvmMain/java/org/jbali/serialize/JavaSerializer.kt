@@ -5,17 +5,110 @@ import org.jbali.reflect.Proxies
 import java.io.*
 import java.lang.reflect.InaccessibleObjectException
 import java.lang.reflect.Method
+import java.math.BigDecimal
+import java.math.BigInteger
+import java.time.*
+import java.util.UUID
 
 object JavaSerializer {
 
+    private const val INITIAL_BUFFER_SIZE = 1024
+    /** Buffers that have grown beyond this are not kept for reuse */
+    private const val MAX_RETAINED_BUFFER_SIZE = 1024 * 1024
+
+    /**
+     * Per-thread reusable state for writing. Keeps a single [ObjectOutputStream] open over a reusable buffer,
+     * and makes each message a complete stream by writing the stream header itself,
+     * followed by a `TC_RESET` so that no object handles are shared between messages.
+     */
+    private class Engine {
+        val buffer = Buffer()
+        val out = ObjectOutputStream(buffer).apply { flush() }
+        val header: ByteArray = buffer.toByteArray()
+        var inUse = false
+
+        /** Serialize into [buffer], whose contents are valid until the next call. */
+        fun serialize(obj: Serializable) {
+            buffer.reset()
+            buffer.write(header)
+            out.reset()
+            out.writeObject(obj)
+            out.flush()
+        }
+    }
+
+    private class Buffer : ByteArrayOutputStream(INITIAL_BUFFER_SIZE) {
+        val capacity get() = buf.size
+        fun inputStream() = ByteArrayInputStream(buf, 0, count)
+    }
+
+    private val engines = ThreadLocal.withInitial(::Engine)
+
+    private inline fun <R> withEngine(body: (Engine) -> R): R {
+        val e = engines.get()
+        if (e.inUse) {
+            // reentrant use, e.g. from a custom writeObject
+            return body(Engine())
+        }
+        e.inUse = true
+        var ok = false
+        try {
+            return body(e).also { ok = true }
+        } finally {
+            e.inUse = false
+            // after an exception the stream may be in an inconsistent state
+            if (!ok || e.buffer.capacity > MAX_RETAINED_BUFFER_SIZE) {
+                engines.remove()
+            }
+        }
+    }
+
+    /**
+     * Exact classes that are immutable and serialize to an equal value, so don't need to be copied.
+     * Exact, because some of these are not final.
+     */
+    private val immutableClasses: Set<Class<*>> = setOf(
+        String::class.java,
+        Boolean::class.javaObjectType,
+        Char::class.javaObjectType,
+        Byte::class.javaObjectType,
+        Short::class.javaObjectType,
+        Int::class.javaObjectType,
+        Long::class.javaObjectType,
+        Float::class.javaObjectType,
+        Double::class.javaObjectType,
+        BigInteger::class.java,
+        BigDecimal::class.java,
+        UUID::class.java,
+        Instant::class.java,
+        Duration::class.java,
+        Period::class.java,
+        LocalDate::class.java,
+        LocalTime::class.java,
+        LocalDateTime::class.java,
+        OffsetDateTime::class.java,
+        ZonedDateTime::class.java,
+        ZoneOffset::class.java,
+        Year::class.java,
+        YearMonth::class.java,
+        MonthDay::class.java,
+    )
+
+    /**
+     * Whether [obj] is of a type that is known to be immutable, and for which Java serialization
+     * produces an equal value. Enum constants are included, since serialization produces the same instance.
+     */
+    @JvmStatic
+    fun isKnownImmutable(obj: Any): Boolean =
+        obj.javaClass in immutableClasses || obj is Enum<*>
+
     @JvmStatic
     fun write(message: Serializable): ByteArray {
         try {
-            val b = ByteArrayOutputStream()
-            val out = ObjectOutputStream(b)
-            out.writeObject(message)
-            out.flush()
-            return b.toByteArray()
+            return withEngine {
+                it.serialize(message)
+                it.buffer.toByteArray()
+            }
         } catch (e: IOException) {
             throw RuntimeException(e)
         }
@@ -105,10 +198,20 @@ object JavaSerializer {
     @Suppress("UNCHECKED_CAST")
     @JvmStatic
     /**
-     * @return A copy of the given object created using Java serialization
+     * @return A copy of the given object created using Java serialization,
+     * or the object itself if [isKnownImmutable].
      */
     fun <T : Serializable> copy(obj: T): T {
-        return read(write(obj)) as T
+        if (isKnownImmutable(obj)) return obj
+        try {
+            // read directly from the buffer, without copying it to a byte array
+            return withEngine {
+                it.serialize(obj)
+                ObjectInputStream(it.buffer.inputStream()).readObject()
+            } as T
+        } catch (e: Exception) {
+            throw RuntimeException(e)
+        }
     }
 
 }
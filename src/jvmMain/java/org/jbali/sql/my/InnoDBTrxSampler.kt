@@ -0,0 +1,229 @@
+package org.jbali.sql.my
+
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Metrics
+import io.micrometer.core.instrument.Timer
+import io.opentelemetry.api.trace.Span
+import org.jbali.math.toULongBits
+import org.jbali.threads.ThreadFactoryFactory
+import org.slf4j.LoggerFactory
+import org.slf4j.MDC
+import java.sql.Connection
+import java.time.Duration
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * The in-process owner of a MySQL connection, i.e. what is running a transaction on it.
+ * See [InnoDBTrxSampler.track].
+ */
+data class InnoDBTrxOwner(
+    val threadName: String,
+    val callId: String?,
+    val traceId: String?,
+    val spanId: String?,
+) {
+    companion object {
+
+        /**
+         * The owner that is currently running, i.e. the current thread and OpenTelemetry span,
+         * and the call ID found in the [MDC] under [callIdMdcKey].
+         */
+        fun current(callIdMdcKey: String = "call-id"): InnoDBTrxOwner {
+            val span = Span.current().spanContext.takeIf { it.isValid }
+            return InnoDBTrxOwner(
+                threadName = Thread.currentThread().name,
+                callId = MDC.get(callIdMdcKey),
+                traceId = span?.traceId,
+                spanId = span?.spanId,
+            )
+        }
+    }
+}
+
+/**
+ * A transaction in `information_schema.innodb_trx` at the time of an [InnoDBTrxSampler.sample].
+ *
+ * @param lockWait How long the transaction has been waiting for a lock, if it is.
+ * @param blockingTrxId The transaction holding the lock that this one is waiting for, if known.
+ * @param owner The in-process owner of the connection, if it was registered with [InnoDBTrxSampler.track].
+ */
+data class InnoDBTrxSample(
+    val trxId: ULong,
+    val trxState: InnoDBTrxState,
+    val mysqlThreadId: ULong,
+    val age: Duration,
+    val lockWait: Duration?,
+    val blockingTrxId: ULong?,
+    val rowsLocked: Long,
+    val query: String?,
+    val owner: InnoDBTrxOwner?,
+)
+
+/**
+ * Periodically reads all InnoDB transactions with their lock waits, and exports their age and lock wait time
+ * as Micrometer histograms:
+ *
+ * - `jbali_innodb_trx_age`, tagged with `owned` = whether the transaction is run by this process.
+ * - `jbali_innodb_lock_wait`, tagged the same.
+ *
+ * Since these are sampled every [interval], a transaction is recorded once per sample it appears in,
+ * so the histograms are weighted by duration.
+ * Also exports the number of transactions, of those waiting for a lock, and the age of the oldest, as gauges.
+ *
+ * Transactions are correlated with the in-process code running them by the MySQL thread ID of their connection,
+ * see [track].
+ *
+ * Lock waits are read from `performance_schema.data_lock_waits`, which requires MySQL 8.
+ *
+ * @param connectionProvider Provides a connection for each sample, which is closed afterwards,
+ *                           e.g. [javax.sql.DataSource.getConnection]. Must be allowed to read `innodb_trx`
+ *                           (requires the `PROCESS` privilege) and `data_lock_waits`.
+ */
+class InnoDBTrxSampler(
+    private val connectionProvider: () -> Connection,
+    val interval: Duration = Duration.ofSeconds(10),
+    registry: MeterRegistry = Metrics.globalRegistry,
+) : AutoCloseable {
+
+    private val log = LoggerFactory.getLogger(InnoDBTrxSampler::class.java)
+
+    /** By MySQL thread ID */
+    private val owners = ConcurrentHashMap<Long, InnoDBTrxOwner>()
+
+    /** MySQL thread ID of connections, cached because pooled connections are reused */
+    private val connectionIds: MutableMap<Connection, Long> = Collections.synchronizedMap(WeakHashMap())
+
+    @Volatile
+    var lastSample: List<InnoDBTrxSample> = emptyList()
+        private set
+
+    private val ageTimers = listOf(false, true).associateWith { owned ->
+        Timer.builder("jbali_innodb_trx_age")
+            .description("Age of InnoDB transactions, sampled")
+            .tag("owned", owned.toString())
+            .publishPercentileHistogram()
+            .register(registry)
+    }
+
+    private val lockWaitTimers = listOf(false, true).associateWith { owned ->
+        Timer.builder("jbali_innodb_lock_wait")
+            .description("Time InnoDB transactions have been waiting for a lock, sampled")
+            .tag("owned", owned.toString())
+            .publishPercentileHistogram()
+            .register(registry)
+    }
+
+    init {
+        Gauge.builder("jbali_innodb_trx_active", this) { it.lastSample.size.toDouble() }
+            .description("Number of InnoDB transactions in the last sample")
+            .register(registry)
+        Gauge.builder("jbali_innodb_trx_lock_waiting", this) { s -> s.lastSample.count { it.lockWait != null }.toDouble() }
+            .description("Number of InnoDB transactions waiting for a lock in the last sample")
+            .register(registry)
+        Gauge.builder("jbali_innodb_trx_oldest", this) { s -> s.lastSample.maxOfOrNull { it.age.toMillis() / 1000.0 } ?: 0.0 }
+            .description("Age of the oldest InnoDB transaction in the last sample")
+            .baseUnit("seconds")
+            .register(registry)
+    }
+
+    private var executor: ScheduledExecutorService? = null
+
+    /**
+     * Register [owner] as running the transactions on [connection] until the returned handle is closed.
+     */
+    fun track(connection: Connection, owner: InnoDBTrxOwner = InnoDBTrxOwner.current()): AutoCloseable {
+        val threadId = connectionIds.getOrPut(connection) {
+            connection.createStatement().use { st ->
+                st.executeQuery("SELECT CONNECTION_ID()").use { rs ->
+                    rs.next()
+                    rs.getLong(1)
+                }
+            }
+        }
+        owners[threadId] = owner
+        return AutoCloseable { owners.remove(threadId, owner) }
+    }
+
+    /**
+     * Read all current transactions and record them in the meters.
+     */
+    fun sample(): List<InnoDBTrxSample> {
+        val samples = connectionProvider().use { con ->
+            con.prepareStatement(SAMPLE_SQL).use { ps ->
+                ps.executeQuery().use { rs ->
+                    buildList {
+                        while (rs.next()) {
+                            val threadId = rs.getLong("trx_mysql_thread_id")
+                            add(InnoDBTrxSample(
+                                trxId = rs.getLong("trx_id").toULongBits(),
+                                trxState = rs.getString("trx_state")
+                                    .let { v -> InnoDBTrxState.entries.single { it.dbName == v } },
+                                mysqlThreadId = threadId.toULongBits(),
+                                age = Duration.ofNanos(rs.getLong("age_us") * 1000),
+                                lockWait = rs.getLong("wait_us").takeUnless { rs.wasNull() }
+                                    ?.let { Duration.ofNanos(it * 1000) },
+                                blockingTrxId = rs.getLong("blocking_trx_id").takeUnless { rs.wasNull() }
+                                    ?.toULongBits(),
+                                rowsLocked = rs.getLong("trx_rows_locked"),
+                                query = rs.getString("trx_query"),
+                                owner = owners[threadId],
+                            ))
+                        }
+                    }
+                }
+            }
+        }
+
+        samples.forEach { s ->
+            val owned = s.owner != null
+            ageTimers.getValue(owned).record(s.age)
+            s.lockWait?.let { lockWaitTimers.getValue(owned).record(it) }
+        }
+        lastSample = samples
+        return samples
+    }
+
+    /**
+     * Start sampling every [interval] in a background thread.
+     */
+    @Synchronized
+    fun start() {
+        check(executor == null) { "Already started" }
+        executor = Executors.newSingleThreadScheduledExecutor(
+            ThreadFactoryFactory.once(name = "InnoDBTrxSampler", daemon = true)
+        ).also {
+            it.scheduleWithFixedDelay({
+                try {
+                    sample()
+                } catch (e: Exception) {
+                    log.warn("Sampling InnoDB transactions failed: $e")
+                }
+            }, 0, interval.toMillis(), TimeUnit.MILLISECONDS)
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        executor?.shutdownNow()
+        executor = null
+    }
+
+    companion object {
+        internal val SAMPLE_SQL = """
+            SELECT t.trx_id, t.trx_state, t.trx_mysql_thread_id, t.trx_rows_locked, t.trx_query,
+                TIMESTAMPDIFF(MICROSECOND, CONVERT_TZ(t.trx_started, @@GLOBAL.time_zone, @@SESSION.time_zone), NOW(6)) AS age_us,
+                TIMESTAMPDIFF(MICROSECOND, CONVERT_TZ(t.trx_wait_started, @@GLOBAL.time_zone, @@SESSION.time_zone), NOW(6)) AS wait_us,
+                (SELECT w.BLOCKING_ENGINE_TRANSACTION_ID
+                    FROM performance_schema.data_lock_waits w
+                    WHERE w.REQUESTING_ENGINE_TRANSACTION_ID = t.trx_id
+                    LIMIT 1) AS blocking_trx_id
+            FROM information_schema.innodb_trx t
+        """.trimIndent()
+    }
+
+}
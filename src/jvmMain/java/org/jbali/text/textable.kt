@@ -1,10 +1,9 @@
 package org.jbali.text
 
+import org.jbali.util.ClassAccessors
+import org.jbali.util.PropertyAccessor
 import kotlin.reflect.KClass
 import kotlin.reflect.KProperty1
-import kotlin.reflect.KVisibility
-import kotlin.reflect.full.declaredMemberProperties
-import kotlin.reflect.full.primaryConstructor
 
 inline fun <reified T : Any> textable(data: Iterable<T>): Sequence<String> =
     textable(T::class, data)
@@ -15,44 +14,22 @@ inline fun <reified T : Any> textable(data: Sequence<T>): Sequence<String> =
 fun <T : Any> textable(clazz: KClass<T>, data: Iterable<T>): Sequence<String> =
     textable(clazz, data.asSequence())
 
-fun <T : Any> textable(clazz: KClass<T>, data: Sequence<T>): Sequence<String> {
-    
-    // TODO dedup with ObjMap (and cache)
-    val props: List<KProperty1<T, *>> =
-        when {
-            clazz.isData -> {
-                clazz.primaryConstructor!!.parameters.map { par ->
-                    clazz.declaredMemberProperties.first { it.name == par.name }
-                }
-            }
-            else -> {
-                clazz.declaredMemberProperties
-                    .filter { it.visibility == KVisibility.PUBLIC }
-            }
-        }
-    
-    return textableWithProps(props, data)
-    
-}
+fun <T : Any> textable(clazz: KClass<T>, data: Sequence<T>): Sequence<String> =
+    textableWithAccessors(ClassAccessors.of(clazz).columns, data)
 
 fun <T : Any> textableWithProps(props: List<KProperty1<T, *>>, data: Iterable<T>): Sequence<String> =
     textableWithProps(props, data.asSequence())
 
-fun <T : Any> textableWithProps(props: List<KProperty1<T, *>>, data: Sequence<T>): Sequence<String> {
-    
-    // TODO make Column class which encapsulates header name and value getter
-    
-    val numCols = props.size
-    
-    val cols = 0 until numCols
-    val colHeaders = cols.map { c -> props[c].name }
-    val rows = data.map { r ->
-        cols.map { c -> props[c].get(r)?.toString() ?: "" }
-    }
-    
-    return textableWithHeaders(colHeaders, rows)
-    
-}
+fun <T : Any> textableWithProps(props: List<KProperty1<T, *>>, data: Sequence<T>): Sequence<String> =
+    textableWithAccessors(props.map { PropertyAccessor(it) }, data)
+
+fun <T : Any> textableWithAccessors(cols: List<PropertyAccessor<T>>, data: Sequence<T>): Sequence<String> =
+    textableWithHeaders(
+        colHeaders = cols.map { it.name },
+        rows = data.map { r ->
+            cols.map { c -> c.get(r)?.toString() ?: "" }
+        },
+    )
 
 @Deprecated(message = "use unambiguous textableWithCols", replaceWith = ReplaceWith("textableWithCols(cols, rows)"))
 fun <R> textable(
@@ -86,48 +63,93 @@ fun textableWithHeaders(
 ): Sequence<String> =
     textableWithHeaders(colHeaders, rows.asSequence())
 
+/**
+ * Lays out [rows] as a table. [rows] is only iterated once, when the result is,
+ * since all rows are needed to know the column widths.
+ */
 fun textableWithHeaders(
     colHeaders: List<String>,
     rows: Sequence<List<String>>,
-): Sequence<String> {
-    
-    val numCols = colHeaders.size
-    val cols = 0 until numCols
-    
-    // TODO allow value to be a smart formatter which can use column width as parameter
-    
-    val colSizes = cols.map { c ->
-        maxOf(
-            rows.maxOfOrNull { it[c].length } ?: 0,
-            colHeaders[c].length,
-        )
+): Sequence<String> =
+    sequence {
+        yieldAll(TextTable(colHeaders, rows).lines())
     }
-    
-    return sequence {
-        
-        // header
-        yield(cols.joinToString(" | ") { c ->
-            colHeaders[c].padEnd(colSizes[c])
-        })
-        yield("-".repeat(colSizes.sum() + (numCols - 1) * 3))
-        
-        // data
-        for (r in rows) {
-            yield(cols.joinToString(" | ") { c ->
-                r[c].padEnd(colSizes[c])
-            })
+
+/**
+ * Lays out the public properties of [data] as a table, with a newline after each line.
+ */
+fun <T : Any> tableString(clazz: KClass<T>, data: Sequence<T>): String {
+    val cols = ClassAccessors.of(clazz).columns
+    val table = TextTable(
+        colHeaders = cols.map { it.name },
+        rows = data.map { r ->
+            cols.map { c -> c.get(r)?.toString() ?: "" }
+        },
+    )
+    return StringBuilder(table.length).also(table::appendTo).toString()
+}
+
+/**
+ * Rows of a table with their column widths, computed in a single pass over the rows.
+ */
+private class TextTable(
+    private val colHeaders: List<String>,
+    rows: Sequence<List<String>>,
+) {
+
+    private val cols = colHeaders.indices
+    private val colSizes = IntArray(colHeaders.size) { colHeaders[it].length }
+    private val rows: List<List<String>> = rows.onEach { r ->
+        // TODO allow value to be a smart formatter which can use column width as parameter
+        for (c in cols) {
+            colSizes[c] = maxOf(colSizes[c], r[c].length)
+        }
+    }.toList()
+
+    private val lineLength = colSizes.sum() + (colHeaders.size - 1) * 3
+
+    /** Of the result of [appendTo] */
+    val length get() = (rows.size + 2) * (lineLength + 1)
+
+    private fun line(r: List<String>) =
+        cols.joinToString(" | ") { c ->
+            r[c].padEnd(colSizes[c])
         }
-        
+
+    fun lines(): Sequence<String> =
+        sequence {
+            // header
+            yield(line(colHeaders))
+            yield("-".repeat(lineLength))
+
+            // data
+            for (r in rows) {
+                yield(line(r))
+            }
+        }
+
+    fun appendTo(sb: StringBuilder) {
+        fun appendLine(r: List<String>) {
+            for (c in cols) {
+                if (c > 0) sb.append(" | ")
+                sb.append(r[c])
+                repeat(colSizes[c] - r[c].length) { sb.append(' ') }
+            }
+            sb.append('\n')
+        }
+        appendLine(colHeaders)
+        repeat(lineLength) { sb.append('-') }
+        sb.append('\n')
+        rows.forEach(::appendLine)
     }
+
 }
 
 inline fun <reified T : Any> Iterable<T>.toTableString() =
-    // TODO optimized builder with fixed length
-    textable(this).joinToString("\n") + "\n"
+    tableString(T::class, asSequence())
 
 inline fun <reified T : Any> Sequence<T>.toTableString() =
-    // TODO optimized builder with fixed length
-    textable(this).joinToString("\n") + "\n"
+    tableString(T::class, this)
 
 fun String.layout(
     maxWidth: Int = 100,
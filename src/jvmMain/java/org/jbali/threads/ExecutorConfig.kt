@@ -0,0 +1,178 @@
+package org.jbali.threads
+
+import io.micrometer.core.instrument.FunctionCounter
+import io.micrometer.core.instrument.Gauge
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Metrics
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Describes how to create an [ExecutorService], so that the kind of executor can be chosen by configuration,
+ * e.g. [fromSystemProperties], instead of by replacing static fields.
+ */
+data class ExecutorConfig(
+    val mode: Mode = Mode.CACHED,
+    /** Maximum number of threads in [Mode.BOUNDED]. */
+    val maxThreads: Int = Runtime.getRuntime().availableProcessors() * 4,
+    /**
+     * Number of tasks that can wait for a thread in [Mode.BOUNDED].
+     * When full, tasks are run in the submitting thread, which thus slows down.
+     */
+    val queueCapacity: Int = 1024,
+) {
+
+    init {
+        require(maxThreads > 0) { "maxThreads must be positive" }
+        require(queueCapacity > 0) { "queueCapacity must be positive" }
+    }
+
+    enum class Mode {
+        /** Unbounded pool of platform threads that are reused when idle. Each task starts immediately. */
+        CACHED,
+        /** At most [maxThreads] platform threads with a queue of [queueCapacity]. Provides back-pressure when full. */
+        BOUNDED,
+        /** A new virtual thread per task. Requires Java 21 or newer. */
+        VIRTUAL,
+    }
+
+    /**
+     * Create a new executor according to this config.
+     * The number of active and queued tasks are exported to [registry] as gauges, and the number of completed tasks
+     * as a counter, tagged with `executor=`[name].
+     */
+    @JvmOverloads
+    fun create(name: String, registry: MeterRegistry? = Metrics.globalRegistry): ExecutorService {
+        val ex = when (mode) {
+            Mode.CACHED -> ThreadPoolExecutor(
+                Runtime.getRuntime().availableProcessors(), Int.MAX_VALUE,
+                10L, TimeUnit.SECONDS,
+                SynchronousQueue(),
+                platformThreadFactory(name),
+            )
+            Mode.BOUNDED -> ThreadPoolExecutor(
+                maxThreads, maxThreads,
+                10L, TimeUnit.SECONDS,
+                ArrayBlockingQueue(queueCapacity),
+                platformThreadFactory(name),
+                ThreadPoolExecutor.CallerRunsPolicy(),
+            ).also {
+                it.allowCoreThreadTimeOut(true)
+            }
+            Mode.VIRTUAL -> CountingExecutorService(newVirtualThreadPerTaskExecutor())
+        }
+        if (registry != null) {
+            bindMeters(ex, name, registry)
+        }
+        return ex
+    }
+
+    companion object {
+
+        /**
+         * Read the config from the system properties `$prefix.mode`, `$prefix.maxThreads` and `$prefix.queueCapacity`,
+         * using the values of [default] for those that are not set.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun fromSystemProperties(prefix: String, default: ExecutorConfig = ExecutorConfig()) =
+            ExecutorConfig(
+                mode = System.getProperty("$prefix.mode")?.let { Mode.valueOf(it.uppercase()) } ?: default.mode,
+                maxThreads = System.getProperty("$prefix.maxThreads")?.toInt() ?: default.maxThreads,
+                queueCapacity = System.getProperty("$prefix.queueCapacity")?.toInt() ?: default.queueCapacity,
+            )
+
+        /** Whether [Mode.VIRTUAL] is supported by the running JVM. */
+        @JvmStatic
+        val virtualThreadsSupported get() = newVirtualThreadPerTaskExecutorHandle != null
+
+        // resolved reflectively, because this library is compiled for Java 17
+        private val newVirtualThreadPerTaskExecutorHandle: MethodHandle? =
+            try {
+                MethodHandles.publicLookup().findStatic(
+                    Executors::class.java, "newVirtualThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService::class.java),
+                )
+            } catch (e: NoSuchMethodException) {
+                null
+            }
+
+        private fun newVirtualThreadPerTaskExecutor(): ExecutorService =
+            (newVirtualThreadPerTaskExecutorHandle
+                ?: throw UnsupportedOperationException("Virtual threads require Java 21, running ${Runtime.version()}")
+            ).invoke() as ExecutorService
+
+        private fun platformThreadFactory(name: String): ThreadFactory =
+            ThreadFactoryFactory.multi(name = name, daemon = false, priority = Thread.NORM_PRIORITY)
+
+        private fun bindMeters(ex: ExecutorService, name: String, registry: MeterRegistry) {
+            val (active, queued, completed) = when (ex) {
+                is ThreadPoolExecutor -> Triple(
+                    { ex.activeCount.toDouble() },
+                    { ex.queue.size.toDouble() },
+                    { ex.completedTaskCount.toDouble() },
+                )
+                is CountingExecutorService -> Triple(
+                    { ex.activeCount.toDouble() },
+                    { 0.0 },
+                    { ex.completedTaskCount.toDouble() },
+                )
+                else -> throw IllegalArgumentException("Unsupported executor $ex")
+            }
+            Gauge.builder("jbali_executor_active") { active() }
+                .description("Number of tasks being executed")
+                .tag("executor", name)
+                .register(registry)
+            Gauge.builder("jbali_executor_queued") { queued() }
+                .description("Number of tasks waiting for a thread")
+                .tag("executor", name)
+                .register(registry)
+            FunctionCounter.builder("jbali_executor_completed", ex) { completed() }
+                .description("Number of tasks that have completed execution")
+                .tag("executor", name)
+                .register(registry)
+        }
+
+    }
+
+}
+
+/**
+ * Wraps an executor that does not track its own statistics, such as a thread-per-task executor,
+ * and counts the number of active and completed tasks.
+ */
+internal class CountingExecutorService(
+    private val delegate: ExecutorService,
+) : AbstractExecutorService() {
+
+    private val active = AtomicInteger()
+    private val completed = AtomicLong()
+
+    val activeCount get() = active.get()
+    val completedTaskCount get() = completed.get()
+
+    override fun execute(command: Runnable) {
+        delegate.execute {
+            active.incrementAndGet()
+            try {
+                command.run()
+            } finally {
+                active.decrementAndGet()
+                completed.incrementAndGet()
+            }
+        }
+    }
+
+    override fun shutdown() = delegate.shutdown()
+    override fun shutdownNow(): List<Runnable> = delegate.shutdownNow()
+    override fun isShutdown() = delegate.isShutdown
+    override fun isTerminated() = delegate.isTerminated
+    override fun awaitTermination(timeout: Long, unit: TimeUnit) = delegate.awaitTermination(timeout, unit)
+
+    override fun toString() = "CountingExecutorService($delegate)"
+
+}
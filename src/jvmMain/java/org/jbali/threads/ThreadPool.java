@@ -1,12 +1,9 @@
 package org.jbali.threads;
 
-import org.jetbrains.annotations.NotNull;
-
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Static container for a single <code>Executors.newCachedThreadPool()</code>
+ * Static container for a single (by default cached) thread pool
  * which can be used everywhere, to minimize the number of independent executors
  * and thus threads.
  * Also offers shorthands for the most often used methods of the executor.
@@ -17,24 +14,15 @@ public final class ThreadPool {
 
 	// TODO require explicit init.
 	// TODO delegate executor.
-	public static ExecutorService executor = new ThreadPoolExecutor(
-			Runtime.getRuntime().availableProcessors(), 2147483647, 10L, TimeUnit.SECONDS,
-			new SynchronousQueue<>(),
-			new ThreadFactory() {
-				private final AtomicInteger threadNumber = new AtomicInteger(1);
-				@Override
-				public Thread newThread(@NotNull Runnable runnable) {
-					Thread t = new Thread(runnable, ThreadPool.class.getName() + "-" + this.threadNumber.getAndIncrement());
-					if (t.isDaemon()) {
-						t.setDaemon(false);
-					}
-					if (t.getPriority() != 5) {
-						t.setPriority(5);
-					}
-					return t;
-				}
-			}
-	);
+	/**
+	 * The global executor. Its kind is configured with the system properties
+	 * <code>org.jbali.threads.ThreadPool.mode</code> (<code>cached</code>, <code>bounded</code> or <code>virtual</code>),
+	 * <code>.maxThreads</code> and <code>.queueCapacity</code>, see {@link ExecutorConfig}.
+	 * The default is an unbounded cached pool of platform threads.
+	 */
+	public static ExecutorService executor =
+			ExecutorConfig.fromSystemProperties(ThreadPool.class.getName())
+					.create(ThreadPool.class.getName());
 
 	/**
 	 * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
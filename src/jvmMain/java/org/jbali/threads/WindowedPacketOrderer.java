@@ -0,0 +1,282 @@
+package org.jbali.threads;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Variant of {@link PacketOrderer} for high-rate streams.
+ * <ul>
+ *     <li>Waiting packets are kept in a ring buffer indexed by sequence number, so no sequence numbers are boxed.</li>
+ *     <li>Only packets up to <code>maxWindow</code> ahead of the last consumed one are accepted, others are dropped.</li>
+ *     <li>If a gap in the sequence is not filled within <code>gapTimeout</code>, it is skipped.</li>
+ *     <li>The consumer is called outside the lock, so that receiving threads don't wait for it.
+ *         It is still called for one packet at a time, in order.</li>
+ * </ul>
+ */
+public class WindowedPacketOrderer<P> {
+
+	private static final Logger log = LoggerFactory.getLogger(WindowedPacketOrderer.class);
+
+	private final Object lock = new Object();
+
+	// config
+	private final int mask;
+	private final long gapTimeoutNanos;
+	private final LongSupplier nanoTime;
+
+	// state, guarded by lock
+	/** The last sequence number that was handed to the delivering thread */
+	private long lastSeq;
+	private final Object[] ring;
+	private int waitingCount;
+	private Instant waitingSince;
+	private long waitingSinceNanos;
+	/** Whether some thread is currently calling the consumer */
+	private boolean delivering;
+	private long droppedCount;
+	private long skippedCount;
+
+	/** Only used by the delivering thread */
+	private final Object[] batch;
+
+	// callbacks
+	private final ToLongFunction<P> seqGetter;
+	private final Consumer<P> orderedConsumer;
+
+	/**
+	 * @param maxWindow The maximum distance between the last consumed and an incoming sequence number. Is rounded up to a power of 2.
+	 * @param gapTimeout How long to wait for a missing packet before skipping it, or null to wait forever.
+	 */
+	public WindowedPacketOrderer(
+			ToLongFunction<P> seqGetter, Consumer<P> orderedConsumer,
+			int maxWindow, @Nullable Duration gapTimeout
+	) {
+		this(seqGetter, orderedConsumer, maxWindow, gapTimeout, null, System::nanoTime);
+	}
+
+	public WindowedPacketOrderer(
+			ToLongFunction<P> seqGetter, Consumer<P> orderedConsumer,
+			int maxWindow, @Nullable Duration gapTimeout,
+			@Nullable PacketOrdererState<P> state,
+			LongSupplier nanoTime
+	) {
+		Preconditions.checkArgument(maxWindow > 0 && maxWindow <= 1 << 30, "maxWindow %s out of range", maxWindow);
+
+		this.seqGetter = seqGetter;
+		this.orderedConsumer = orderedConsumer;
+		this.nanoTime = nanoTime;
+
+		final int size = maxWindow == 1 ? 1 : Integer.highestOneBit(maxWindow - 1) << 1;
+		mask = size - 1;
+		ring = new Object[size];
+		batch = new Object[size];
+		gapTimeoutNanos = gapTimeout == null ? Long.MAX_VALUE : gapTimeout.toNanos();
+
+		if (state == null) {
+			lastSeq = 0;
+		} else {
+			lastSeq = state.getLastSeq();
+			for (P p : state.getWaiting()) {
+				final long seq = seqGetter.applyAsLong(p);
+				if (seq > lastSeq && seq - lastSeq <= ring.length) {
+					store(seq, p);
+				} else {
+					log.warn("Restored packet #{} is outside the window of {} after #{}, dropping", seq, ring.length, lastSeq);
+				}
+			}
+			if (waitingCount > 0) {
+				waitingSince = state.getWaitingSince();
+				waitingSinceNanos = nanoTime.getAsLong();
+			}
+		}
+	}
+
+	public PacketOrderer.Status getStatus() {
+		synchronized (lock) {
+			return new PacketOrderer.Status(waitingCount, waitingSince, lastSeq);
+		}
+	}
+
+	/** The number of packets that were dropped because they were outside the window. */
+	public long getDroppedCount() {
+		synchronized (lock) {
+			return droppedCount;
+		}
+	}
+
+	/** The number of sequence numbers that were skipped because of the gap timeout. */
+	public long getSkippedCount() {
+		synchronized (lock) {
+			return skippedCount;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	public PacketOrdererState<P> saveState() {
+		synchronized (lock) {
+			final List<P> waiting = new ArrayList<>(waitingCount);
+			for (long s = lastSeq + 1; waiting.size() < waitingCount; s++) {
+				final Object p = ring[(int) (s & mask)];
+				if (p != null) waiting.add((P) p);
+			}
+			return new PacketOrdererState<>(lastSeq, waiting, waitingSince);
+		}
+	}
+
+	public void setLastSeq(long ls) {
+		synchronized (lock) {
+			Preconditions.checkState(lastSeq == 0, "lastSeq should only be set once, before receiving the first packet");
+			lastSeq = ls;
+		}
+	}
+
+	/**
+	 * Takes an incoming packet.
+	 * @return false if the packet was dropped, because it was already handled or is too far ahead.
+	 */
+	public boolean inPacket(P packet) {
+		final long inSeq = seqGetter.applyAsLong(packet);
+		final boolean accepted;
+		synchronized (lock) {
+			if (inSeq <= lastSeq) {
+				log.info("inPacket #{} already handled in the past: {}", inSeq, packet);
+				accepted = false;
+			} else if (inSeq - lastSeq > ring.length) {
+				log.warn("inPacket #{} is outside the window of {} after #{}, dropping", inSeq, ring.length, lastSeq);
+				droppedCount++;
+				accepted = false;
+			} else {
+				store(inSeq, packet);
+				accepted = true;
+			}
+			if (!claimDelivery()) return accepted;
+		}
+		deliver();
+		return accepted;
+	}
+
+	/**
+	 * Takes a batch of incoming packets. Is functionally equivalent to calling {@link #inPacket(Object)} for each packet.
+	 */
+	public void latePackets(List<P> batch) {
+		batch.forEach(this::inPacket);
+	}
+
+	/**
+	 * Skip any gap that has exceeded the gap timeout. This is also done on every incoming packet,
+	 * so only needs to be called if packets may stop coming in.
+	 */
+	public void checkGapTimeout() {
+		synchronized (lock) {
+			if (!claimDelivery()) return;
+		}
+		deliver();
+	}
+
+	// ------------------------------ internals -------------------------------- //
+
+	/** Must hold lock. The sequence number must be within the window. */
+	private void store(long seq, P packet) {
+		final int i = (int) (seq & mask);
+		if (ring[i] == null) {
+			if (waitingCount == 0) {
+				waitingSince = Instant.now();
+				waitingSinceNanos = nanoTime.getAsLong();
+			}
+			waitingCount++;
+		}
+		ring[i] = packet;
+	}
+
+	/**
+	 * Must hold lock.
+	 * @return whether the current thread should call {@link #deliver()},
+	 * i.e. there is something to deliver and no other thread is doing so.
+	 */
+	private boolean claimDelivery() {
+		if (delivering || waitingCount == 0) return false;
+		if (ring[(int) ((lastSeq + 1) & mask)] == null && !skipTimedOutGap()) return false;
+		delivering = true;
+		return true;
+	}
+
+	/**
+	 * Must hold lock, and there must be at least one packet waiting.
+	 * @return whether the gap was skipped.
+	 */
+	private boolean skipTimedOutGap() {
+		if (nanoTime.getAsLong() - waitingSinceNanos < gapTimeoutNanos) return false;
+		long next = lastSeq + 1;
+		while (ring[(int) (next & mask)] == null) next++;
+		log.warn("Gap of #{} to #{} was not filled within timeout, skipping", lastSeq + 1, next - 1);
+		skippedCount += next - 1 - lastSeq;
+		lastSeq = next - 1;
+		return true;
+	}
+
+	/**
+	 * Take the consecutive packets from the ring, under the lock.
+	 * Must hold lock.
+	 * @return the number of packets put in {@link #batch}.
+	 */
+	private int takeBatch() {
+		int n = 0;
+		while (true) {
+			final int i = (int) ((lastSeq + 1) & mask);
+			final Object p = ring[i];
+			if (p == null) break;
+			ring[i] = null;
+			batch[n++] = p;
+			lastSeq++;
+		}
+		waitingCount -= n;
+		if (waitingCount == 0) {
+			waitingSince = null;
+		} else if (n > 0) {
+			// a new gap starts now
+			waitingSince = Instant.now();
+			waitingSinceNanos = nanoTime.getAsLong();
+		}
+		return n;
+	}
+
+	/**
+	 * Deliver packets outside the lock, until there are no more consecutive packets.
+	 * Must only be called by the thread that claimed delivery.
+	 */
+	@SuppressWarnings("unchecked")
+	private void deliver() {
+		while (true) {
+			final long firstSeq;
+			final int n;
+			synchronized (lock) {
+				firstSeq = lastSeq + 1;
+				n = takeBatch();
+				if (n == 0 && !(waitingCount > 0 && skipTimedOutGap())) {
+					delivering = false;
+					return;
+				}
+			}
+			for (int i = 0; i < n; i++) {
+				final P p = (P) batch[i];
+				batch[i] = null;
+				try {
+					orderedConsumer.accept(p);
+				} catch (Throwable e) {
+					log.warn("Error consuming packet #" + (firstSeq + i), e);
+				}
+			}
+		}
+	}
+
+}
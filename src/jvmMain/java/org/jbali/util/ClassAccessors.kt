@@ -0,0 +1,106 @@
+package org.jbali.util
+
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import kotlin.reflect.KClass
+import kotlin.reflect.KProperty1
+import kotlin.reflect.KType
+import kotlin.reflect.KVisibility
+import kotlin.reflect.full.declaredMemberProperties
+import kotlin.reflect.full.instanceParameter
+import kotlin.reflect.full.memberProperties
+import kotlin.reflect.full.primaryConstructor
+import kotlin.reflect.jvm.javaField
+import kotlin.reflect.jvm.javaGetter
+
+/**
+ * Reads a property through a [MethodHandle] to its JVM getter or field,
+ * which is much faster than [KProperty1.get]. Falls back to the latter if there's no accessible getter or field,
+ * and for properties of or in value classes, whose JVM getters take or return the unboxed value.
+ */
+class PropertyAccessor<T : Any>(
+    val property: KProperty1<T, *>,
+) {
+
+    val name: String get() = property.name
+
+    private val handle: MethodHandle? =
+        if (property.returnType.isValueClass() || property.instanceParameter?.type.isValueClass()) null
+        else try {
+            val lookup = MethodHandles.lookup()
+            val h = property.javaGetter?.let { m ->
+                m.trySetAccessible()
+                lookup.unreflect(m)
+            } ?: property.javaField?.let { f ->
+                f.trySetAccessible()
+                lookup.unreflectGetter(f)
+            }
+            h?.asType(MethodType.methodType(Any::class.java, Any::class.java))
+        } catch (e: ReflectiveOperationException) {
+            null
+        } catch (e: RuntimeException) {
+            null
+        }
+
+    fun get(obj: T): Any? =
+        if (handle != null) {
+            handle.invokeExact(obj as Any) as Any?
+        } else {
+            property.get(obj)
+        }
+
+    override fun toString() = "PropertyAccessor($property)"
+
+}
+
+private fun KType?.isValueClass() =
+    (this?.classifier as? KClass<*>)?.isValue == true
+
+/**
+ * Cached per-class table of [PropertyAccessor]s, used by [ObjMap] and `textable`.
+ */
+class ClassAccessors<T : Any> private constructor(clazz: KClass<T>) {
+
+    /** The public member properties, including inherited ones, by name. */
+    val byName: Map<String, PropertyAccessor<T>> =
+        clazz.memberProperties
+            .filter { it.visibility == KVisibility.PUBLIC }
+            .associateBy({ it.name }, { PropertyAccessor(it) })
+
+    /** [byName] in iteration order. */
+    val all: List<PropertyAccessor<T>> = byName.values.toList()
+
+    /**
+     * The properties to present as columns of a table:
+     * for data classes those of the primary constructor, in order,
+     * and else the public declared member properties.
+     */
+    val columns: List<PropertyAccessor<T>> =
+        when {
+            clazz.isData -> {
+                val declared = clazz.declaredMemberProperties
+                clazz.primaryConstructor!!.parameters.map { par ->
+                    byName[par.name] ?: PropertyAccessor(declared.first { it.name == par.name })
+                }
+            }
+            else -> {
+                clazz.declaredMemberProperties
+                    .filter { it.visibility == KVisibility.PUBLIC }
+                    .map { byName[it.name] ?: PropertyAccessor(it) }
+            }
+        }
+
+    companion object {
+
+        private val cache = object : ClassValue<ClassAccessors<*>>() {
+            override fun computeValue(type: Class<*>) = ClassAccessors(type.kotlin)
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        fun <T : Any> of(clazz: KClass<T>): ClassAccessors<T> =
+            cache.get(clazz.java) as ClassAccessors<T>
+
+    }
+
+}
@@ -1,9 +1,6 @@
 package org.jbali.util
 
 import kotlin.reflect.KClass
-import kotlin.reflect.KProperty1
-import kotlin.reflect.KVisibility
-import kotlin.reflect.full.memberProperties
 
 /**
  * Present the public member properties of any object as a Map.
@@ -21,48 +18,58 @@ class ObjMap<T : Any> private constructor(
     )
 
     override val keys get() = clazz.keys
-    override val size get() = clazz.keys.size
-
-    // TODO only on get, return implementation that already has templates in ClassMapInfo
-    override val entries: Set<Map.Entry<String, Any?>> get() =
-        clazz.props.map {
-            object : Map.Entry<String, Any?> {
-                override val key get() = it.key
-                override val value get() = it.value.get(obj)
-
-                // TODO the following is the same for all implementations of Map.Entry, should be centralized somewhere (probably already in a lib)
-
-                override fun equals(other: Any?) =
-                    other is Map.Entry<*, *> &&
-                        key == other.key &&
-                        value == other.value
-
-                override fun hashCode(): Int =
-                    try {
-                        key.hashCode() xor value.hashCode()
-                    } catch (so: StackOverflowError) {
-                        throw IllegalStateException("Stack overflow in ObjMap.hashCode(). This may be due to the mapped object having a getter that returns ObjMap(this). Make that a function instead.")
-                    }
-
-                override fun toString(): String =
-                    try {
-                        "$key=$value"
-                    } catch (so: StackOverflowError) {
-                        throw IllegalStateException("Stack overflow in ObjMap.toString(). This may be due to the mapped object having a getter that returns ObjMap(this). Make that a function instead.")
-                    }
-                    
+    override val size get() = clazz.props.size
+
+    // a view, whose entries get their value on access
+    override val entries: Set<Map.Entry<String, Any?>> get() = EntrySet()
+
+    private inner class EntrySet : AbstractSet<Map.Entry<String, Any?>>() {
+        override val size get() = clazz.all.size
+        override fun iterator(): Iterator<Map.Entry<String, Any?>> =
+            clazz.all.iterator().let { props ->
+                object : Iterator<Map.Entry<String, Any?>> {
+                    override fun hasNext() = props.hasNext()
+                    override fun next() = Entry(props.next())
+                }
+            }
+    }
+
+    private inner class Entry(private val prop: PropertyAccessor<T>) : Map.Entry<String, Any?> {
+        override val key get() = prop.name
+        override val value get() = prop.get(obj)
+
+        // TODO the following is the same for all implementations of Map.Entry, should be centralized somewhere (probably already in a lib)
+
+        override fun equals(other: Any?) =
+            other is Map.Entry<*, *> &&
+                key == other.key &&
+                value == other.value
+
+        override fun hashCode(): Int =
+            try {
+                key.hashCode() xor value.hashCode()
+            } catch (so: StackOverflowError) {
+                throw IllegalStateException("Stack overflow in ObjMap.hashCode(). This may be due to the mapped object having a getter that returns ObjMap(this). Make that a function instead.")
             }
-        }.toSet()
+
+        override fun toString(): String =
+            try {
+                "$key=$value"
+            } catch (so: StackOverflowError) {
+                throw IllegalStateException("Stack overflow in ObjMap.toString(). This may be due to the mapped object having a getter that returns ObjMap(this). Make that a function instead.")
+            }
+
+    }
 
     override val values get() =
-        clazz.props.map {
-            it.value.get(obj)
+        clazz.all.map {
+            it.get(obj)
         }
 
     override fun containsKey(key: String) = clazz.props.containsKey(key)
 
     override fun containsValue(value: Any?) =
-        clazz.props.values.any {
+        clazz.all.any {
             it.get(obj) == value
         }
 
@@ -73,15 +80,15 @@ class ObjMap<T : Any> private constructor(
         StringBuilder(size * 128).apply {
             append('{')
             var first = true
-            entries.forEach { e ->
+            clazz.all.forEach { p ->
                 if (first) {
                     first = false
                 } else {
                     append(", ")
                 }
-                append(e.key)
+                append(p.name)
                 append('=')
-                append(e.value)
+                append(p.get(obj))
             }
             append('}')
         }.toString()
@@ -108,12 +115,10 @@ val <T : Any> T.asMap: Map<String, Any?> get() = ObjMap(this)
 /**
  * Caches the per-class information used by [ObjMap].
  */
-private class ClassMapInfo<T : Any>(clazz: KClass<T>) {
+private class ClassMapInfo<T : Any>(accessors: ClassAccessors<T>) {
 
-    val props: Map<String, KProperty1<T, *>> =
-            clazz.memberProperties
-                .filter { it.visibility == KVisibility.PUBLIC }
-                .associateBy { it.name }
+    val props: Map<String, PropertyAccessor<T>> = accessors.byName
+    val all: List<PropertyAccessor<T>> = accessors.all
 
     // implements MutableSet so ObjMap can implement MutableMap,
     // but is of course not actually mutable.
@@ -158,10 +163,9 @@ private class ClassMapInfo<T : Any>(clazz: KClass<T>) {
 
 }
 
-private val KClass<Any>.classMapInfoUntyped: ClassMapInfo<Any>
-    by StoredExtensionProperty {
-        ClassMapInfo(this())
-    }
+private val classMapInfos = object : ClassValue<ClassMapInfo<*>>() {
+    override fun computeValue(type: Class<*>) = ClassMapInfo(ClassAccessors.of(type.kotlin))
+}
 @Suppress("UNCHECKED_CAST")
 private val <T : Any> KClass<T>.classMapInfo: ClassMapInfo<T> get() =
-    (this as KClass<Any>).classMapInfoUntyped as ClassMapInfo<T>
+    classMapInfos.get(java) as ClassMapInfo<T>
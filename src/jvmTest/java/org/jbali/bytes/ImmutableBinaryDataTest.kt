@@ -0,0 +1,88 @@
+package org.jbali.bytes
+
+import kotlinx.serialization.builtins.serializer
+import kotlinx.serialization.json.Json
+import org.jbali.util.toHexString
+import java.io.ByteArrayOutputStream
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotEquals
+import kotlin.test.assertSame
+
+class ImmutableBinaryDataTest {
+
+    private val bytes = Random(1).nextBytes(100)
+    private val data = ImmutableBinaryData.copyOf(bytes)
+
+    @Test fun testValueSemantics() {
+        assertEquals(bytes.contentHashCode(), data.hashCode())
+        assertEquals(data, ImmutableBinaryData.copyOf(bytes))
+        assertEquals(data.toList(), bytes.toList())
+        assertEquals(bytes.toList(), data)
+        assertEquals(bytes.toList().hashCode(), data.hashCode())
+
+        // copied, so not affected by changes to the source
+        bytes[0]++
+        assertNotEquals(data, ImmutableBinaryData.copyOf(bytes))
+    }
+
+    @Test fun testSlice() {
+        val s = data.slice(10, 20)
+        assertEquals(10, s.size)
+        assertEquals(data[10], s[0])
+        assertEquals(ImmutableBinaryData.copyOf(bytes, 10, 20), s)
+        assertEquals(bytes.copyOfRange(10, 20).contentHashCode(), s.hashCode())
+        assertEquals(data.slice(12, 15), s.slice(2, 5))
+        assertEquals(s, data.subList(10, 20))
+        assertSame(data, data.slice(0))
+        assertSame(ImmutableBinaryData.EMPTY, data.slice(5, 5))
+        assertFailsWith<IndexOutOfBoundsException> { s[10] }
+        assertFailsWith<IndexOutOfBoundsException> { s.slice(5, 11) }
+    }
+
+    @Test fun testViews() {
+        val s = data.slice(30, 40)
+
+        val buf = s.asByteBuffer()
+        assertEquals(0, buf.position())
+        assertEquals(10, buf.remaining())
+        assertEquals(data[30], buf.get(0))
+        assertEquals(true, buf.isReadOnly)
+
+        assertEquals(s.toList(), s.inputStream().readAllBytes().toList())
+        assertEquals(s, ImmutableBinaryData.readFrom(s.inputStream()))
+
+        assertEquals("héllo", "héllo".toByteArray().toImmutableData().decodeToString())
+        assertEquals(ImmutableBinaryData.copyOf(bytes, 30, 40).toHexString(), bytes.copyOfRange(30, 40).toHexString())
+    }
+
+    @Test fun testBase64() {
+        for (len in 0..7) {
+            val s = data.slice(50, 50 + len)
+            val expected = Base64Encoding.Basic.encodeToString(s.toByteArray()).string
+            assertEquals(expected, s.toBase64())
+
+            val out = ByteArrayOutputStream()
+            s.writeBase64To(out)
+            assertEquals(expected, out.toString(Charsets.ISO_8859_1))
+
+            assertEquals(s, ImmutableBinaryData.fromBase64(expected))
+            assertEquals(s, ImmutableBinaryData.decodeBase64(expected.byteInputStream()))
+        }
+
+        val mime = data.toBase64(Base64Encoding.Mime)
+        assertEquals(data, ImmutableBinaryData.fromBase64(mime))
+        assertEquals(data, ImmutableBinaryData.decodeBase64(mime.byteInputStream()))
+        assertEquals(data, ImmutableBinaryData.fromBase64(data.toBase64(Base64Encoding.Url), Base64Encoding.Url))
+    }
+
+    @Test fun testSerialization() {
+        val s = data.slice(3, 9)
+        val json = Json.encodeToString(ImmutableBinaryData.serializer(), s)
+        assertEquals(Json.encodeToString(String.serializer(), s.toBase64()), json)
+        assertEquals(s, Json.decodeFromString(ImmutableBinaryData.serializer(), json))
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.jbali.exposed
+
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.builtins.serializer
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonElement
+import org.jbali.test.fakeResultSet
+import org.jetbrains.exposed.sql.Table
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+
+class JsonPathTest {
+
+    @Serializable
+    data class Owner(val name: String, val tags: List<String>, val attrs: Map<String, Int>)
+
+    @JvmInline
+    @Serializable
+    value class Wrapped(val owner: Owner)
+
+    @Serializable
+    data class Doc(val id: Int, val owner: Owner, val wrapped: Wrapped, val extra: JsonElement? = null)
+
+    object Docs : Table("docs") {
+        val data = myObjectAsJson<Doc>("data")
+        val name = varchar("name", 10)
+    }
+
+    @Test fun testJsonPathOf() {
+        assertEquals("$", jsonPathOf(emptyArray()))
+        assertEquals("$.\"owner\".\"tags\"[0]", jsonPathOf(arrayOf("owner", "tags", "0")))
+        // names are quoted, so they may contain anything
+        assertEquals("$.\"a.b\".\"q\\\"uote\".\"back\\\\slash\"", jsonPathOf(arrayOf("a.b", "q\"uote", "back\\slash")))
+        // negative numbers are not indices
+        assertEquals("$.\"-1\"", jsonPathOf(arrayOf("-1")))
+    }
+
+    private fun descend(vararg path: String) = Doc.serializer().descriptor.descend(path)
+
+    @Test fun testDescend() {
+        assertEquals(Doc.serializer().descriptor, descend())
+        assertEquals(Int.serializer().descriptor, descend("id"))
+        assertEquals(String.serializer().descriptor, descend("owner", "name"))
+        assertEquals(String.serializer().descriptor, descend("owner", "tags", "3"))
+        assertEquals(Int.serializer().descriptor, descend("owner", "attrs", "color"))
+        // through a value class
+        assertEquals(String.serializer().descriptor, descend("wrapped", "name"))
+        // anything goes within a JsonElement
+        assertEquals(descend("extra"), descend("extra", "x", "0"))
+
+        assertFailsWith<IllegalArgumentException> { descend("nope") }
+        assertFailsWith<IllegalArgumentException> { descend("owner", "tags", "x") }
+        assertFailsWith<IllegalArgumentException> { descend("owner", "tags", "-1") }
+        // would be taken as an index by MySQL
+        assertFailsWith<IllegalArgumentException> { descend("owner", "attrs", "1") }
+        assertFailsWith<IllegalArgumentException> { descend("id", "x") }
+    }
+
+    @Test fun testJsonExtract() {
+        Docs.data.jsonExtract<String>("owner", "name")
+        Docs.data.jsonExtract<List<String>>("owner", "tags")
+        Docs.data.jsonExtractText("owner", "attrs", "color")
+
+        assertFailsWith<IllegalArgumentException> { Docs.data.jsonExtract<Int>("owner", "name") }
+        assertFailsWith<IllegalArgumentException> { Docs.data.jsonExtract<String>("owner", "nope") }
+        assertFailsWith<IllegalArgumentException> { Docs.name.jsonExtractText("x") }
+    }
+
+    @Test fun testJsonNullIsNull() {
+        val type = JsonValueColumnType(Int.serializer(), Json)
+        val rs = fakeResultSet(listOf(listOf("null"), listOf("42")))
+        rs.next()
+        assertNull(type.readObject(rs, 1))
+        rs.next()
+        assertEquals(42, type.valueFromDB(type.readObject(rs, 1)!!))
+    }
+
+}
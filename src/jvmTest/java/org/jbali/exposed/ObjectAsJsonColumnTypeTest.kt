@@ -0,0 +1,37 @@
+package org.jbali.exposed
+
+import kotlinx.serialization.Serializable
+import org.jbali.test.fakeResultSet
+import org.jetbrains.exposed.sql.ResultRow
+import org.jetbrains.exposed.sql.Table
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class ObjectAsJsonColumnTypeTest {
+
+    @Serializable
+    data class Doc(val id: Int, val tags: List<String>)
+
+    object Docs : Table("docs") {
+        val streamed = myObjectAsJson<Doc>("streamed", streamFromDB = true)
+        val plain = myObjectAsJson<Doc>("plain")
+        val maybe = myObjectAsJson<Doc>("maybe", streamFromDB = true).nullable()
+    }
+
+    @Test fun testReadTwice() {
+        noConnectionDatabase
+        val json = """{"id":1,"tags":["a","b"]}"""
+        val rs = fakeResultSet(listOf(listOf(json, json, null)))
+        rs.next()
+        val row = ResultRow.create(rs, listOf(Docs.streamed, Docs.plain, Docs.maybe).withIndex().associate { (i, c) -> c to i })
+
+        val doc = Doc(1, listOf("a", "b"))
+        repeat(2) {
+            assertEquals(doc, row[Docs.streamed])
+            assertEquals(doc, row[Docs.plain])
+            assertNull(row[Docs.maybe])
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.jbali.exposed
+
+import org.jetbrains.exposed.dao.id.LongIdTable
+import org.jetbrains.exposed.sql.transactions.transaction
+import java.sql.SQLException
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class PluckTest {
+
+    object Things : LongIdTable("things") {
+        val name = varchar("name", 10)
+    }
+
+    private val names = listOf(listOf("a"), listOf("b"), listOf("c"))
+
+    @Test fun testIterate() {
+        val fake = FakeConnection { names }
+        transaction(fake.database) {
+            assertEquals(listOf("a", "b", "c"), Things.pluck { it.name }.selectAll().toList())
+            assertTrue(fake.openStatements.isEmpty())
+            assertEquals(0, fake.prepared.single().openResultSets)
+        }
+    }
+
+    @Test fun testIterateWhileExecuting() {
+        val fake = FakeConnection { names }
+        transaction(fake.database) {
+            val updated = mutableListOf<String>()
+            for (name in Things.pluck { it.name }.selectAll()) {
+                execUpdate("UPDATE things SET x = 1")
+                updated += name
+            }
+            assertEquals(listOf("a", "b", "c"), updated)
+
+            // streaming loses the result set
+            assertFailsWith<SQLException> {
+                for (name in Things.pluck { it.name }.selectAll().streaming()) {
+                    execUpdate("UPDATE things SET x = 1")
+                }
+            }
+        }
+    }
+
+    @Test fun testCloseIterator() {
+        val fake = FakeConnection { names }
+        transaction(fake.database) {
+            val first = Things.pluck { it.name }.selectAll().useIterator { it.next() }
+            assertEquals("a", first)
+            assertTrue(fake.openStatements.isEmpty())
+
+            val single = Things.pluck { it.name }.selectAll().resultIterator()
+            assertEquals("a", single.next())
+            assertEquals(1, fake.openStatements.size)
+            single.close()
+            assertTrue(fake.openStatements.isEmpty())
+            assertEquals(false, single.hasNext())
+
+            // left open, closed at commit
+            Things.pluck { it.name }.selectAll().streaming().iterator().next()
+            assertEquals(1, fake.openStatements.size)
+        }
+        assertTrue(fake.openStatements.isEmpty())
+        assertTrue(fake.prepared.all { it.openResultSets == 0 })
+    }
+
+    @Test fun testGet() {
+        val fake = FakeConnection { sql -> if ("?" in sql) names.take(1) else names }
+        transaction(fake.database) {
+            assertEquals("a", Things.get(1L) { it.name })
+            assertEquals("a", Things.getOrNull(1L) { it.name })
+            assertFailsWith<IllegalArgumentException> {
+                Things.pluck { it.name }.selectAll().single()
+            }
+            assertFailsWith<IllegalArgumentException> {
+                Things.pluck { it.name }.selectAll().singleIfAny()
+            }
+            assertTrue(fake.openStatements.isEmpty())
+        }
+
+        transaction(FakeConnection().database) {
+            assertNull(Things.getOrNull(1L) { it.name })
+        }
+    }
+
+    @Test fun testSelectPages() {
+        val pages = listOf(
+            listOf(listOf(1L, "a"), listOf(2L, "b")),
+            listOf(listOf(3L, "c")),
+        )
+        val fake = FakeConnection { pages[0] }
+        var page = 0
+        val lazyFake = FakeConnection { pages[page++] }
+
+        // nothing is selected yet, and there is no transaction
+        val sequence = Things.pluck { it.name }.selectPages(2)
+
+        transaction(lazyFake.database) {
+            assertEquals(listOf(listOf("a", "b"), listOf("c")), sequence.toList())
+            assertEquals(2, lazyFake.executed.size)
+            assertEquals(2L, lazyFake.prepared[1].parameters.values.first())
+            assertTrue(lazyFake.openStatements.isEmpty())
+        }
+
+        transaction(fake.database) {
+            val first = Things.pluck { it.name }.selectPage(null, 3)
+            assertEquals(listOf("a", "b"), first.values)
+            assertEquals(2L, first.lastId)
+            assertTrue(first.isLast)
+        }
+    }
+
+}
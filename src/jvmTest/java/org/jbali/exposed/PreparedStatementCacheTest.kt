@@ -0,0 +1,103 @@
+package org.jbali.exposed
+
+import org.jetbrains.exposed.sql.LongColumnType
+import org.jetbrains.exposed.sql.transactions.transaction
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class PreparedStatementCacheTest {
+
+    private val oneRow = listOf(listOf<Any?>(1L))
+
+    @Test fun testCached() {
+        val fake = FakeConnection { oneRow }
+        transaction(fake.database) {
+            repeat(3) { i ->
+                execUpdate("UPDATE things SET x = ?", listOf(LongColumnType() to i.toLong()))
+                assertEquals(listOf(1L), execAndMap("SELECT x FROM things") { it.getLong(1) })
+            }
+            assertTrue(fake.prepared.none { it.closed })
+        }
+        assertEquals(listOf("UPDATE things SET x = ?", "SELECT x FROM things"), fake.prepared.map { it.sql })
+        assertEquals(listOf(3, 3), fake.prepared.map { it.executions })
+        assertEquals(listOf<List<Any?>>(listOf(0L), listOf(1L), listOf(2L)), fake.prepared[0].executedParameters)
+        // closed at commit
+        assertTrue(fake.prepared.all { it.closed })
+
+        // and prepared again in the next transaction
+        transaction(fake.database) {
+            execUpdate("UPDATE things SET x = 1")
+        }
+        assertEquals(3, fake.prepared.size)
+        assertTrue(fake.prepared.all { it.closed })
+    }
+
+    @Test fun testRollback() {
+        val fake = FakeConnection { oneRow }
+        assertFailsWith<IllegalStateException> {
+            transaction(fake.database) {
+                execUpdate("UPDATE things SET x = 1")
+                error("rollback")
+            }
+        }
+        assertTrue(fake.prepared.single().closed)
+    }
+
+    @Test fun testInUse() {
+        val fake = FakeConnection { oneRow }
+        transaction(fake.database) {
+            val nested = execAndMap("SELECT x FROM things") {
+                // the cached statement is still in use
+                execAndMap("SELECT x FROM things") { it.getLong(1) }.single() + it.getLong(1)
+            }
+            assertEquals(listOf(2L), nested)
+            assertEquals(2, fake.prepared.size)
+            assertFalse(fake.prepared[0].closed)
+            // the second one isn't cached, so closed
+            assertTrue(fake.prepared[1].closed)
+
+            // the cached one is available again
+            execAndMap("SELECT x FROM things") { it.getLong(1) }
+            assertEquals(2, fake.prepared.size)
+            assertEquals(2, fake.prepared[0].executions)
+
+            // also when nesting in a later execution, after which Exposed "closes" the previous execution
+            val again = execAndMap("SELECT x FROM things") {
+                execAndMap("SELECT x FROM things") { it.getLong(1) }.single() + it.getLong(1)
+            }
+            assertEquals(listOf(2L), again)
+            assertEquals(3, fake.prepared.size)
+            assertEquals(3, fake.prepared[0].executions)
+            assertEquals(1, fake.prepared[2].executions)
+            assertTrue(fake.prepared[2].closed)
+        }
+    }
+
+    @Test fun testEvict() {
+        val fake = FakeConnection { oneRow }
+        val maxSize = PreparedStatementCache.maxSize
+        transaction(fake.database) {
+            (0..maxSize).forEach { i ->
+                execUpdate("UPDATE things SET x = $i")
+            }
+            assertEquals(listOf(0), fake.prepared.withIndex().filter { it.value.closed }.map { it.index })
+
+            execAndMap("SELECT x FROM things") {
+                // evict it while it's in use
+                (0 until maxSize).forEach { i ->
+                    execUpdate("UPDATE other SET x = $i")
+                }
+                assertFalse(fake.prepared.single { s -> s.sql == "SELECT x FROM things" }.closed)
+            }
+            assertTrue(fake.prepared.single { it.sql == "SELECT x FROM things" }.closed)
+
+            // prepared again
+            execAndMap("SELECT x FROM things") { }
+            assertEquals(2, fake.prepared.count { it.sql == "SELECT x FROM things" })
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.jbali.exposed
+
+import org.jetbrains.exposed.dao.id.LongIdTable
+import java.sql.SQLException
+import java.time.Duration
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class TableScannerTest {
+
+    object Things : LongIdTable("things") {
+        val name = varchar("name", 10)
+    }
+
+    /** Fake of [Things], with ids 1 to 30 except multiples of 7. */
+    private val ids = (1L..30L).filter { it % 7 != 0L }
+
+    private fun fakeThings(fail: (after: Long) -> Boolean = { false }) = FakeConnection { sql ->
+        when {
+            "MIN(" in sql -> listOf(listOf(ids.first(), ids.last()))
+            else -> {
+                // things.id >= ? or > ?, AND things.id <= ?
+                val (after, last) = parameters.values.map { it as Long }
+                if (fail(after)) throw SQLException("Failed reading after $after")
+                val limit = Regex("LIMIT (\\d+)").find(sql)!!.groupValues[1].toInt()
+                ids
+                    .filter { (if (">=" in sql) it >= after else it > after) && it <= last }
+                    .take(limit)
+                    .map { listOf(it, "n$it") }
+            }
+        }
+    }
+
+    private fun scanner(fake: FakeConnection) =
+        TableScanner(Things, ScanIdType.LONG, fake.database, ranges = 3, pageSize = 3, registry = null)
+
+    @Test fun testScan() {
+        val fake = fakeThings()
+        val pages = mutableListOf<List<Long>>()
+        val progress = mutableListOf<TableScanProgress>()
+        val result = scanner(fake).scan(onProgress = { progress += it }) { rows ->
+            pages += rows.map { it[Things.id].value }
+            assertEquals(rows.map { "n${it[Things.id]}" }, rows.map { it[Things.name] })
+        }
+
+        // ranges 1-10, 11-20 and 21-29, of 3 pages each
+        assertEquals(ids, pages.flatten().sorted())
+        assertEquals(9, pages.size)
+        assertTrue(pages.all { it.size in 1..3 })
+        assertEquals(TableScanProgress(ids.size.toLong(), 9, 3, 3, 1.0, result.elapsed), result)
+        assertEquals(result.copy(elapsed = progress.last().elapsed), progress.last())
+        assertTrue(progress.zipWithNext().all { (a, b) -> a.fraction <= b.fraction || a.rangesDone < b.rangesDone })
+        // every range ended with a short or empty page
+        assertEquals(1 + 9 + 2, fake.executed.size)
+        assertTrue(fake.openStatements.isEmpty())
+    }
+
+    @Test fun testScanEmpty() {
+        val fake = FakeConnection { listOf(listOf(null, null)) }
+        val result = scanner(fake).scan { throw AssertionError("no rows") }
+        assertEquals(0, result.ranges)
+        assertEquals(1.0, result.fraction)
+    }
+
+    @Test fun testScanFailure() {
+        // the second page of the second range fails
+        val fake = fakeThings { it == 13L }
+        val consumed = mutableListOf<Long>()
+        assertFailsWith<SQLException> {
+            scanner(fake).scan { rows ->
+                consumed += rows.map { it[Things.id].value }
+            }
+        }
+        assertTrue(14L !in consumed)
+
+        // and a failing consumer
+        val e = assertFailsWith<IllegalStateException> {
+            scanner(fakeThings()).scan { error("consumer") }
+        }
+        assertEquals("consumer", e.message)
+    }
+
+    @Test fun testSplitIdRange() {
+        assertEquals(
+            listOf(IdRange(0, 1, 4), IdRange(1, 5, 8), IdRange(2, 9, 10)),
+            splitIdRange(1, 10, 3),
+        )
+        assertEquals(
+            listOf(IdRange(0, 1, 3), IdRange(1, 4, 6), IdRange(2, 7, 9), IdRange(3, 10, 10)),
+            splitIdRange(1, 10, 4),
+        )
+        // fewer ids than ranges
+        assertEquals(listOf(IdRange(0, 5, 5)), splitIdRange(5, 5, 8))
+        assertEquals(
+            listOf(IdRange(0, -1, -1), IdRange(1, 0, 0), IdRange(2, 1, 1)),
+            splitIdRange(-1, 1, 8),
+        )
+        // the last start would be past the end
+        assertEquals(
+            listOf(IdRange(0, 0, 1), IdRange(1, 2, 3), IdRange(2, 4, 5), IdRange(3, 6, 7), IdRange(4, 8, 8)),
+            splitIdRange(0, 8, 6),
+        )
+        assertEquals(
+            listOf(IdRange(0, Long.MAX_VALUE - 1, Long.MAX_VALUE - 1), IdRange(1, Long.MAX_VALUE, Long.MAX_VALUE)),
+            splitIdRange(Long.MAX_VALUE - 1, Long.MAX_VALUE, 8),
+        )
+        assertFailsWith<ArithmeticException> { splitIdRange(Long.MIN_VALUE, Long.MAX_VALUE, 8) }
+    }
+
+    @Test fun testSplitIdRangeCoversAll() {
+        val random = Random(42)
+        repeat(1000) {
+            val first = random.nextLong(-1000, 1000)
+            val last = first + random.nextLong(0, 100_000)
+            val ranges = random.nextInt(1, 20)
+            val split = splitIdRange(first, last, ranges)
+            val message = "splitIdRange($first, $last, $ranges) = $split"
+
+            assertTrue(split.size in 1..ranges, message)
+            assertEquals(split.indices.toList(), split.map { it.index }, message)
+            assertEquals(first, split.first().first, message)
+            assertEquals(last, split.last().last, message)
+            split.zipWithNext { a, b -> assertEquals(a.last + 1, b.first, message) }
+            // all but the last have the same size, and the last isn't larger
+            val sizes = split.map { it.last - it.first + 1 }
+            assertTrue(sizes.dropLast(1).distinct().size <= 1, message)
+            assertTrue(sizes.last() <= sizes.first(), message)
+        }
+    }
+
+    @Test fun testProgress() {
+        val progress = TableScanProgress(
+            rows = 500,
+            pages = 5,
+            rangesDone = 1,
+            ranges = 4,
+            fraction = 0.25,
+            elapsed = Duration.ofSeconds(10),
+        )
+        assertEquals(50.0, progress.rowsPerSecond)
+        assertEquals(Duration.ofSeconds(30), progress.remaining)
+        assertNull(progress.copy(fraction = 0.0).remaining)
+        assertEquals(0.0, progress.copy(elapsed = Duration.ZERO).rowsPerSecond)
+    }
+
+}
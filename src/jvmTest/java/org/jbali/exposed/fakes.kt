@@ -0,0 +1,120 @@
+package org.jbali.exposed
+
+import org.jbali.test.Default
+import org.jbali.test.fakeResultSet
+import org.jbali.test.lenientProxy
+import org.jetbrains.exposed.sql.Database
+import java.sql.Connection
+import java.sql.DatabaseMetaData
+import java.sql.PreparedStatement
+import java.util.Collections
+
+/**
+ * Registers a [Database] that can't connect, which is enough for e.g. creating a [org.jetbrains.exposed.sql.ResultRow]
+ * outside a transaction. Reference this before using such code.
+ */
+internal val noConnectionDatabase: Database by lazy {
+    Database.connect({ throw UnsupportedOperationException("No database in this test") })
+}
+
+/**
+ * JDBC [connection] to a fake MySQL database, on which every query returns the rows given by [results]
+ * for its SQL and the [FakeStatement.parameters] it's called on, recording the statements.
+ * It may be used by multiple threads, but each statement by one thread.
+ */
+internal class FakeConnection(
+    private val results: FakeStatement.(sql: String) -> List<List<Any?>> = { emptyList() },
+) {
+
+    inner class FakeStatement(val sql: String) {
+        val parameters = sortedMapOf<Int, Any?>()
+        /** The parameters of each execution, or of each statement in a batch. */
+        val executedParameters = mutableListOf<List<Any?>>()
+        private var batchSize = 0
+        var executions = 0
+        var closed = false
+        var openResultSets = 0
+
+        val statement: PreparedStatement by lazy { lenientProxy { name, args ->
+            when (name) {
+                "executeQuery" -> {
+                    check(!closed) { "Statement is closed" }
+                    executions++
+                    executed += sql
+                    executedParameters += parameters.values.toList()
+                    openResultSets++
+                    fakeResultSet(results(sql), statement = statement) { openResultSets-- }
+                }
+                "executeUpdate" -> {
+                    check(!closed) { "Statement is closed" }
+                    executions++
+                    executed += sql
+                    executedParameters += parameters.values.toList()
+                    1
+                }
+                "addBatch" -> {
+                    executedParameters += parameters.values.toList()
+                    batchSize++
+                }
+                "executeBatch" -> {
+                    check(!closed) { "Statement is closed" }
+                    executions++
+                    executed += sql
+                    IntArray(batchSize) { 1 }.also { batchSize = 0 }
+                }
+                "setObject", "setLong", "setInt", "setString" -> parameters[args[0] as Int] = args[1]
+                "setNull" -> parameters[args[0] as Int] = null
+                "clearParameters" -> parameters.clear()
+                "close" -> closed = true
+                "isClosed" -> closed
+                "getConnection" -> connection
+                "hashCode" -> System.identityHashCode(this)
+                "equals" -> args[0] === statement
+                else -> Default
+            }
+        } }
+
+        override fun toString() = sql
+    }
+
+    /** All statements prepared on the connection. */
+    val prepared: MutableList<FakeStatement> = Collections.synchronizedList(mutableListOf())
+
+    /** The SQL of all statements executed on the connection. */
+    val executed: MutableList<String> = Collections.synchronizedList(mutableListOf())
+
+    val openStatements get() = synchronized(prepared) { prepared.filterNot { it.closed } }
+
+    private val metaData: DatabaseMetaData = lenientProxy { name, _ ->
+        when (name) {
+            "getURL" -> "jdbc:mysql://localhost/fake"
+            "getDatabaseProductName" -> "MySQL"
+            "getDriverName" -> "MySQL Connector/J"
+            "getDatabaseProductVersion" -> "8.0.30"
+            "getDatabaseMajorVersion" -> 8
+            "getIdentifierQuoteString" -> "`"
+            "getSQLKeywords", "getExtraNameCharacters" -> ""
+            "getConnection" -> connection
+            "getCatalogs", "getSchemas", "getTables", "getColumns", "getPrimaryKeys", "getImportedKeys", "getIndexInfo", "getTypeInfo" ->
+                fakeResultSet(emptyList())
+            else -> Default
+        }
+    }
+
+    val connection: Connection by lazy { lenientProxy { name, args ->
+        when (name) {
+            "prepareStatement" -> FakeStatement(args[0] as String).also { prepared += it }.statement
+            "getMetaData" -> metaData
+            "getCatalog" -> "fake"
+            "getTransactionIsolation" -> Connection.TRANSACTION_REPEATABLE_READ
+            "hashCode" -> System.identityHashCode(this)
+            "equals" -> args[0] === connection
+            else -> Default
+        }
+    } }
+
+    val database: Database by lazy {
+        Database.connect({ connection })
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.jbali.exposed.mysql
+
+import org.jbali.exposed.ExposedTxScope
+import org.jbali.exposed.FakeConnection
+import org.jbali.exposed.myObjectAsJson
+import org.jetbrains.exposed.sql.Table
+import org.jetbrains.exposed.sql.transactions.transaction
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class MyBatchUpsertTest {
+
+    object Items : Table("items") {
+        val id = long("id")
+        val name = varchar("name", 200)
+        val count = integer("count").default(7)
+        val note = varchar("note", 10).nullable()
+        override val primaryKey = PrimaryKey(id)
+    }
+
+    object Docs : Table("docs") {
+        val id = long("id")
+        val text = myObjectAsJson<String>("text")
+        val tags = myObjectAsJson<List<String>>("tags")
+    }
+
+    private val names = listOf("a", "b", "c")
+
+    private fun <T> withFake(block: context(ExposedTxScope) (FakeConnection) -> T): T {
+        val fake = FakeConnection()
+        return transaction(fake.database) {
+            block(ExposedTxScope.Simple(this), fake)
+        }
+    }
+
+    @Test fun testMultiRow() = withFake { fake ->
+        val affected = Items.myBatchUpsert(names.withIndex()) { row, (i, name) ->
+            row[id] = i.toLong()
+            row[this.name] = name
+        }
+        assertEquals(1, affected)
+        val statement = fake.prepared.single()
+        assertEquals(
+            "INSERT INTO items (id, `name`) VALUES (?, ?), (?, ?), (?, ?) ON DUPLICATE KEY UPDATE `name` = VALUES(`name`)",
+            statement.sql,
+        )
+        assertEquals(listOf(listOf<Any?>(0L, "a", 1L, "b", 2L, "c")), statement.executedParameters)
+    }
+
+    @Test fun testJdbcBatch() = withFake { fake ->
+        val affected = Items.myBatchUpsert(names.withIndex(), mode = MyBatchUpsert.Mode.JDBC_BATCH) { row, (i, name) ->
+            row[id] = i.toLong()
+            row[this.name] = name
+            row[count] = i
+        }
+        assertEquals(3, affected)
+        val statement = fake.prepared.single()
+        assertEquals(
+            "INSERT INTO items (id, `name`, `count`) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE `name` = VALUES(`name`), `count` = VALUES(`count`)",
+            statement.sql,
+        )
+        assertEquals(1, statement.executions)
+        assertEquals(listOf<List<Any?>>(listOf(0L, "a", 0), listOf(1L, "b", 1), listOf(2L, "c", 2)), statement.executedParameters)
+    }
+
+    @Test fun testJson() = withFake { fake ->
+        Docs.myBatchInsert(listOf("a")) { row, name ->
+            row[id] = 1
+            row[text] = name
+            row[tags] = listOf(name)
+        }
+        // encoded once
+        assertEquals(listOf(listOf<Any?>(1L, "\"a\"", "[\"a\"]")), fake.prepared.single().executedParameters)
+    }
+
+    @Test fun testInsert() = withFake { fake ->
+        Items.myBatchInsert(names.withIndex()) { row, (i, name) ->
+            row[id] = i.toLong()
+            row[this.name] = name
+            // later rows get the default or null
+            if (i == 0) {
+                row[count] = 1
+                row[note] = "first"
+            }
+        }
+        val statement = fake.prepared.single()
+        assertEquals("INSERT INTO items (id, `name`, `count`, note) VALUES (?, ?, ?, ?), (?, ?, ?, ?), (?, ?, ?, ?)", statement.sql)
+        assertEquals(
+            listOf(listOf<Any?>(0L, "a", 1, "first", 1L, "b", 7, null, 2L, "c", 7, null)),
+            statement.executedParameters,
+        )
+    }
+
+    @Test fun testUpdateColumnsMustBeSet() = withFake { fake ->
+        val e = assertFailsWith<IllegalArgumentException> {
+            Items.myBatchUpsert(names, updateColumns = listOf(Items.name, Items.count)) { row, name ->
+                row[this.name] = name
+            }
+        }
+        assertEquals("Update columns [count] are not set", e.message)
+        assertFailsWith<IllegalArgumentException> {
+            // no value for a column without a default
+            Items.myBatchInsert(names.withIndex()) { row, (i, name) ->
+                if (i == 0) row[id] = 0
+                row[this.name] = name
+            }
+        }
+        assertEquals(emptyList(), fake.executed)
+    }
+
+    @Test fun testMaxRows() = withFake { fake ->
+        val affected = MyBatchUpsert(Items, maxRows = 2, registry = null).execute((1L..5L).toList()) { row, i ->
+            row[id] = i
+        }
+        assertEquals(3, affected)
+        assertEquals(
+            listOf(
+                "INSERT INTO items (id) VALUES (?), (?)",
+                "INSERT INTO items (id) VALUES (?), (?)",
+                "INSERT INTO items (id) VALUES (?)",
+            ),
+            fake.executed,
+        )
+        assertEquals(listOf<List<Any?>>(listOf(1L, 2L), listOf(3L, 4L), listOf(5L)), fake.prepared.flatMap { it.executedParameters })
+    }
+
+    @Test fun testMaxBytes() = withFake { fake ->
+        // each row is estimated at 16 bytes for the id and 100 for the name
+        val name = "x".repeat(100)
+        MyBatchUpsert(Items, maxBytes = 250, mode = MyBatchUpsert.Mode.JDBC_BATCH, registry = null)
+            .execute((1L..5L).toList()) { row, i ->
+                row[id] = i
+                row[this.name] = name
+            }
+        assertEquals(listOf(2, 2, 1), fake.prepared.map { it.executedParameters.size })
+        assertEquals((1L..5L).toList(), fake.prepared.flatMap { s -> s.executedParameters.map { it[0] } })
+
+        // a row larger than maxBytes is written alone
+        fake.prepared.clear()
+        MyBatchUpsert(Items, maxBytes = 50, registry = null).execute((1L..2L).toList()) { row, i ->
+            row[id] = i
+            row[this.name] = name
+        }
+        assertEquals(listOf(1, 1), fake.prepared.map { it.executedParameters.single().size / 2 })
+    }
+
+}
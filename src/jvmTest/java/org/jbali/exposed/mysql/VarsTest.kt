@@ -0,0 +1,42 @@
+package org.jbali.exposed.mysql
+
+import org.jbali.exposed.ExposedTxScope
+import org.jbali.exposed.FakeConnection
+import org.jetbrains.exposed.sql.transactions.transaction
+import java.time.Duration
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class VarsTest {
+
+    @Test fun testWithSystemVar() {
+        val fake = FakeConnection { sql ->
+            assertEquals("SELECT @@max_execution_time", sql)
+            listOf(listOf(1000L))
+        }
+        transaction(fake.database) {
+            with(ExposedTxScope.Simple(this)) {
+                val result = withMaxExecutionTime(Duration.ofSeconds(5)) {
+                    assertEquals(listOf("SELECT @@max_execution_time", "SET @@max_execution_time = ?"), fake.executed)
+                    "done"
+                }
+                assertEquals("done", result)
+
+                assertFailsWith<IllegalStateException> {
+                    withMaxExecutionTime(Duration.ofSeconds(6)) {
+                        throw IllegalStateException()
+                    }
+                }
+            }
+        }
+
+        // the value is restored, also after an exception, and the statements are prepared once
+        assertEquals(2, fake.prepared.size)
+        val (get, set) = fake.prepared
+        assertEquals(2, get.executions)
+        assertEquals("SET @@max_execution_time = ?", set.sql)
+        assertEquals(listOf<List<Any?>>(listOf(5000L), listOf(1000L), listOf(6000L), listOf(1000L)), set.executedParameters)
+    }
+
+}
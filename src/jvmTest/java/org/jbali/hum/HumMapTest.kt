@@ -3,6 +3,8 @@ package org.jbali.hum
 import org.jbali.util.cast
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
 
 class HumMapTest {
     
@@ -10,6 +12,42 @@ class HumMapTest {
         val regMap = Animalia.cast<Iterable<Animalia>>().associateWith { it.name }
         val humMap = HumMap.associate(Animalia) { it.name }
         assertEquals(regMap, humMap)
+        assertEquals(regMap.entries, humMap.entries)
+        assertEquals(regMap.toString(), humMap.toString())
+        assertTrue(humMap.entries.containsAll(regMap.entries))
     }
-    
-}
\ No newline at end of file
+
+    @Test fun testMutable() {
+        val m = HumMap.associate(Animalia) { 0 }.toMutableHumMap()
+        m[Animalia.Carnivora.Felidae.PLeo] = 2
+        m.update(Animalia.Carnivora.Felidae.PLeo) { it + 1 }
+        m.entries.first().setValue(5)
+        assertEquals(3, m[Animalia.Carnivora.Felidae.PLeo])
+        assertEquals(5, m[Animalia.values.first()])
+        assertEquals(8, m.values.sum())
+        assertEquals(Animalia.cast<Iterable<Animalia>>().associateWith { m[it] }, m.toHumMap())
+        assertFailsWith<UnsupportedOperationException> {
+            m.remove(Animalia.Carnivora.Felidae.PLeo)
+        }
+    }
+
+    @Test fun testPrimitive() {
+        val counts = HumIntMap(Animalia)
+        val weights = HumDoubleMap(Animalia)
+        listOf(Animalia.Carnivora.Felidae.PLeo, Animalia.Carnivora.Felidae.PLeo, Animalia.Carnivora.Felidae.FCatus).forEach {
+            counts.add(it, 1)
+            weights.add(it, 0.5)
+        }
+        assertEquals(2, counts[Animalia.Carnivora.Felidae.PLeo])
+        assertEquals(3, counts.sum())
+        assertEquals(1.5, weights.sum())
+        assertEquals(HumMap.associate(Animalia) { counts[it] }, counts.toHumMap())
+        assertEquals(counts.toHumMap().toString(), counts.toString())
+
+        var n = 0
+        weights.forEach { _, w -> if (w > 0) n++ }
+        assertEquals(2, n)
+        assertEquals(HumIntMap.associate(Animalia) { counts[it] }, counts)
+    }
+
+}
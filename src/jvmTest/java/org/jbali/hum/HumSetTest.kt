@@ -0,0 +1,52 @@
+package org.jbali.hum
+
+import org.jbali.hum.Animalia.Carnivora
+import org.jbali.hum.Animalia.Rodentia
+import org.jbali.kotser.assertSerialization
+import org.jbali.kotser.jsonSerializer
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class HumSetTest {
+
+    @Test fun testNodes() {
+        assertEquals<Set<Animalia>>(Carnivora.values.toSet(), Carnivora.asHumSet)
+        assertEquals(Animalia.values.toSet(), Animalia.asHumSet)
+        assertEquals<Set<Animalia>>(setOf(Carnivora.Felidae.FCatus), Carnivora.Felidae.FCatus.asHumSet)
+
+        val s = Carnivora.Felidae.asHumSet
+        assertTrue(Carnivora.Felidae.PLeo in s)
+        assertFalse(Carnivora.Caniformia.CanisLupus in s)
+        assertTrue(s.contains(Carnivora.Felidae))
+        assertFalse(s.contains(Carnivora))
+        assertTrue(Carnivora.asHumSet.contains(Carnivora.Felidae))
+    }
+
+    @Test fun testOperations() {
+        val c = Carnivora.asHumSet
+        val f = Carnivora.Felidae.asHumSet
+        val r = Rodentia.asHumSet
+
+        assertEquals(Animalia.asHumSet, c union r)
+        assertEquals(f, c intersect f)
+        assertEquals(c.filter { it !is Carnivora.Felidae }.toSet(), c - Carnivora.Felidae)
+        assertEquals(r, c.complement())
+        assertTrue((c intersect r).isEmpty())
+        assertFalse(c.intersects(r))
+        assertTrue(f.isSubsetOf(c))
+        assertEquals(c.size, Carnivora.values.size)
+        assertEquals(Carnivora.values.toList(), c.toList())
+        assertEquals(HumSet.of(Animalia, Rodentia.MusMusculus, Carnivora.Felidae.PLeo), HumSet.empty(Animalia) + Rodentia.MusMusculus + Carnivora.Felidae.PLeo)
+    }
+
+    @Test fun testSerialization() {
+        val ser = jsonSerializer(Animalia.setSerializer)
+        ser.assertSerialization(HumSet.of(Animalia, Carnivora.Felidae.FCatus, Rodentia.MusMusculus), """["Carnivora.Felidae.FCatus","Rodentia.MusMusculus"]""")
+        ser.assertSerialization(HumSet.empty(Animalia), """[]""")
+        // groups are expanded
+        assertEquals(Carnivora.Felidae.asHumSet, ser.parseJsonString("""["Carnivora.Felidae"]"""))
+    }
+
+}
@@ -0,0 +1,112 @@
+package org.jbali.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class FastJSONTokenerTest {
+
+	/** Converts to plain maps and lists, so that values can be compared including their types */
+	static Object plain(Object v) {
+		if (v instanceof JSONObject) {
+			final JSONObject o = (JSONObject) v;
+			final Map<String, Object> m = new TreeMap<>();
+			for (Iterator<String> it = o.keys(); it.hasNext(); ) {
+				final String k = it.next();
+				m.put(k, plain(o.opt(k)));
+			}
+			return m;
+		} else if (v instanceof JSONArray) {
+			final JSONArray a = (JSONArray) v;
+			final List<Object> l = new ArrayList<>();
+			for (int i = 0; i < a.length(); i++) {
+				l.add(plain(a.opt(i)));
+			}
+			return l;
+		} else if (v == null) {
+			return null;
+		} else {
+			// include the type, e.g. 1 and 1L must not be equal
+			return v.getClass().getSimpleName() + ":" + v;
+		}
+	}
+
+	private static void assertSameAsLegacy(String json) {
+		final Object legacy = new JSONTokener(json).nextValue();
+		final Object fast = new FastJSONTokener(json).nextValue();
+		assertEquals(json, plain(legacy), plain(fast));
+	}
+
+	@Test
+	public void testValues() {
+		final String[] inputs = {
+				"{\"a\": 1, \"b\": [true, false, null], \"c\": {\"d\": \"e\"}}",
+				"[0, -0, 1, -1, 2147483647, 2147483648, -2147483648, -2147483649, 9223372036854775807, 99999999999999999999]",
+				"[0.0, -0.0, 1.5, -1.5, 0.1, 1e5, 1E-5, 1.25e+3, 123456789012345, 1234567890123456.5, 1e22, 1e23, 1e400, 4.9e-324]",
+				"[0x1F, +5, .5, 1., 007, 1e, -, NaN, Infinity, TRUE, False, NULL]",
+				"['single', \"esc\\\"aped\\n\\t\\u00e9\\/\", \"\", unquoted text , x y]",
+				"{a: 1; b = 2, c => 3, 4: four, 1.50: x, true: t,}",
+				"[1, , 3, ]",
+				"[]",
+				"{}",
+				"  {\n\t\"nested\": [[[{}]]] }  trailing",
+				"\"\\u0041\\\\\"",
+				"plain",
+		};
+		for (String json : inputs) {
+			assertSameAsLegacy(json);
+		}
+	}
+
+	@Test
+	public void testConstructors() {
+		final String json = "{\"k\": [1, 2.5, \"x\"], \"n\": null}";
+		assertEquals(plain(new JSONObject(new JSONTokener(json))), plain(new JSONObject(json)));
+		assertEquals(plain(new JSONArray(new JSONTokener("[" + json + "]"))), plain(new JSONArray("[" + json + "]")));
+		assertSame(JSONObject.NULL, new JSONObject(json).get("n"));
+	}
+
+	@Test
+	public void testKeyCache() {
+		final JSONArray a = new JSONArray("[{\"key\": 1}, {\"key\": 2}]");
+		final String k1 = a.getJSONObject(0).keys().next();
+		final String k2 = a.getJSONObject(1).keys().next();
+		assertEquals("key", k1);
+		assertSame(k1, k2);
+	}
+
+	@Test
+	public void testErrors() {
+		final String[] inputs = {
+				"{\"a\": 1, \"a\": 2}",
+				"{\"a\" 1}",
+				"{\"a\": 1",
+				"[1, 2",
+				"[1 2,",
+				"(1, 2]",
+				"\"unterminated",
+				"\"new\nline\"",
+				"\"\\x\"",
+				"{\"a\": 1e400}",
+				"",
+				"x",
+		};
+		for (String json : inputs) {
+			try {
+				final Object v = json.startsWith("[") || json.startsWith("(") ? new JSONArray(json) : new JSONObject(json);
+				fail(json + " parsed as " + v);
+			} catch (JSONException e) {
+				// expected
+			}
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.jbali.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class JSONStreamWriterTest {
+
+	private static JSONObject tree() {
+		final StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			big.append("</\"\\\n\u0001\u0085\u2028\u00e9\ud83d\ude00 ");
+		}
+		return new JSONObject()
+				.put("s", "plain")
+				.put("escapes", "</script> \"q\" \\ \b\t\n\f\r \u0000 \u007f \u0080 \u00a0 \u2000 \u2100")
+				.put("big", big.toString())
+				.put("numbers", new JSONArray().put(1).put(-2L).put(1.5).put(100.0).put(1e-7))
+				.put("bool", true)
+				.put("null", JSONObject.NULL)
+				.put("empty", new JSONObject())
+				.put("nested", new JSONArray()
+						.put(new JSONObject().put("k", new JSONArray().put((Object) null).put("")))
+						.put(new JSONArray()))
+				.put("collection", Arrays.asList("a", 2));
+	}
+
+	@Test
+	public void testSameAsToString() {
+		final JSONObject o = tree();
+		final String expected = o.toString();
+
+		assertEquals(expected, JSONStreamWriter.write(o, new StringBuilder()).toString());
+		assertEquals(expected, o.write(new StringWriter()).toString());
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		o.write(bytes);
+		assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), bytes.toByteArray());
+
+		final JSONArray a = new JSONArray().put(o).put("x");
+		assertEquals(a.toString(), a.write(new StringWriter()).toString());
+	}
+
+	@Test
+	public void testJSONWriter() {
+		final JSONObject o = tree();
+		final String s = new JSONStringer().array().value(o).value("x").value(1).endArray().toString();
+		assertEquals("[" + o + ",\"x\",1]", s);
+
+		// the stream writer is reused between values
+		final String keyed = new JSONStringer().object()
+				.key("a").value(o)
+				.key("b").value(new JSONArray().put("y"))
+				.key("c").value("z\n")
+				.endObject().toString();
+		assertEquals("{\"a\":" + o + ",\"b\":[\"y\"],\"c\":\"z\\n\"}", keyed);
+	}
+
+	@Test(expected = JSONException.class)
+	public void testInvalid() {
+		JSONStreamWriter.write(new JSONArray().put((Object) Double.NaN), new StringBuilder());
+	}
+
+}
@@ -0,0 +1,41 @@
+package org.jbali.json;
+
+import static org.jbali.test.Benchmark.nanosPerRun;
+
+import java.util.Random;
+
+/**
+ * Compares the parse speed of {@link JSONTokener} and {@link FastJSONTokener}.
+ */
+public class JSONTokenerBenchmark {
+
+	public static void main(String[] args) {
+		final String json = payload(args.length > 0 ? Integer.parseInt(args[0]) : 10_000);
+		System.out.println("Payload of " + json.length() + " chars");
+
+		for (int round = 0; round < 5; round++) {
+			final double legacy = nanosPerRun(() -> new JSONTokener(json).nextValue());
+			final double fast = nanosPerRun(() -> new FastJSONTokener(json).nextValue());
+			System.out.printf("round %d: legacy %6.2f ms, fast %6.2f ms, %.1fx%n",
+					round, legacy / 1e6, fast / 1e6, legacy / fast);
+		}
+	}
+
+	/** An array of records, typical of the payloads sent through TMS */
+	static String payload(int records) {
+		final Random random = new Random(1);
+		final JSONArray a = new JSONArray();
+		for (int i = 0; i < records; i++) {
+			final JSONObject o = new JSONObject();
+			o.put("id", i);
+			o.put("timestamp", 1_600_000_000_000L + random.nextInt());
+			o.put("name", "record \"" + i + "\"");
+			o.put("price", random.nextInt(100_000) / 100.0);
+			o.put("active", random.nextBoolean());
+			o.put("tags", new JSONArray().put("a").put("b\u00e9"));
+			a.put(o);
+		}
+		return a.toString();
+	}
+
+}
@@ -0,0 +1,70 @@
+package org.jbali.json2
+
+import org.jbali.kotser.BasicJson
+import org.jbali.kotser.unwrap
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertIs
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class LazyJsonTest {
+
+    private val text = """
+        {
+            "type": "order",
+            "id": 12,
+            "price": -1.5e2,
+            "paid": true,
+            "note": null,
+            "esc\"aped": "line\nbreak \u00e9 \/",
+            "lines": [ {"sku": "a", "qty": 1}, {"sku": "b", "qty": 2}, [], {} ],
+            "dup": 1,
+            "dup": 2
+        }
+    """.trimIndent()
+
+    @Test fun testAccess() {
+        val o = assertIs<LazyJsonObject>(JSONString(text).parseLazy())
+
+        assertEquals("order", (o["type"] as LazyJsonPrimitive).content)
+        assertEquals(12.0, o["id"]!!.unwrap())
+        assertEquals(-150.0, o["price"]!!.unwrap())
+        assertEquals(true, o["paid"]!!.unwrap())
+        assertTrue((o["note"] as LazyJsonPrimitive).isNull)
+        assertEquals("line\nbreak \u00e9 /", o["esc\"aped"]!!.unwrap())
+        assertNull(o["missing"])
+        assertEquals(2.0, o["dup"]!!.unwrap())
+
+        val lines = assertIs<LazyJsonArray>(o["lines"])
+        assertEquals(4, lines.size)
+        assertEquals("""{"sku": "b", "qty": 2}""", lines[1].toString())
+        assertEquals("b", (lines[1] as LazyJsonObject)["sku"]!!.unwrap())
+        assertTrue((lines[2] as LazyJsonArray).isEmpty())
+        assertTrue((lines[3] as LazyJsonObject).isEmpty())
+
+        assertEquals(8, o.size)
+        assertEquals(listOf("type", "id", "price", "paid", "note", "esc\"aped", "lines", "dup"), o.keys.toList())
+    }
+
+    @Test fun testUnwrap() {
+        assertEquals(BasicJson.parse(text).unwrap(), LazyJsonElement.parse(text).unwrap())
+        assertEquals("x", LazyJsonElement.parse(" \"x\" ").unwrap())
+    }
+
+    @Test fun testInterop() {
+        val o = LazyJsonElement.parse(text) as LazyJsonObject
+        assertEquals(BasicJson.parse(text), o.json.parse())
+        assertEquals(BasicJson.parse("""[ {"sku": "a", "qty": 1}, {"sku": "b", "qty": 2}, [], {} ]"""), o["lines"]!!.json.parse())
+    }
+
+    @Test fun testInvalid() {
+        listOf("", "{", "[1,]", "{\"a\" 1}", "{a: 1}", "01x", "1.", "\"\\x\"", "tru", "[1] 2", "\"a\nb\"").forEach {
+            assertFailsWith<IllegalArgumentException>(it) {
+                LazyJsonElement.parse(it)
+            }
+        }
+    }
+
+}
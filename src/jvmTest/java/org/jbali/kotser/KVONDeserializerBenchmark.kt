@@ -0,0 +1,31 @@
+package org.jbali.kotser
+
+import org.jbali.json2.KVON
+import org.jbali.test.Benchmark.nanosPerRun
+
+/**
+ * Compares [KVONDeserializer.deserialize] to [KVONDeserializer.deserializeViaJson].
+ */
+object KVONDeserializerBenchmark {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val r = KVONDeserializer(KVONDeserializerTest.Foo.serializer())
+        val entries = listOf(
+                "num" to "12",
+                "str" to "some query string value",
+                "cool" to "true",
+                "obj" to """{"x": 1, "y": 2}""",
+                "list" to """[{"x": 1, "y": 2}, {"x": 3, "y": 4}]""",
+                "optional" to "bye",
+        )
+
+        repeat(5) { round ->
+            // a new KVON for each run, since it caches its JSON
+            val viaJson = nanosPerRun { r.deserializeViaJson(KVON.Pairs(entries)) }
+            val direct = nanosPerRun { r.deserialize(KVON.Pairs(entries)) }
+            println("round $round: via JSON %6.0f ns, direct %6.0f ns, %.1fx".format(viaJson, direct, viaJson / direct))
+        }
+    }
+
+}
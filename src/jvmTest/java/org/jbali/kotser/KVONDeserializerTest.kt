@@ -1,9 +1,19 @@
 package org.jbali.kotser
 
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.builtins.MapSerializer
+import kotlinx.serialization.builtins.serializer
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.JsonTransformingSerializer
+import kotlinx.serialization.json.jsonObject
 import org.jbali.json2.KVON
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
 
 class KVONDeserializerTest {
 
@@ -23,6 +33,22 @@ class KVONDeserializerTest {
             val optional: String = "hello"
     )
 
+    enum class Color { RED, GREEN }
+
+    @JvmInline
+    @Serializable
+    value class Id(val id: Long)
+
+    @Serializable
+    data class Misc(
+            val color: Color,
+            val id: Id,
+            val ratio: Double,
+            val maybe: Int? = null,
+            val flags: Map<String, Boolean> = emptyMap(),
+            val chars: String = "",
+    )
+
     private fun fooReader() =
             KVONDeserializer(
                     deserializer = Foo.serializer()
@@ -56,4 +82,65 @@ class KVONDeserializerTest {
         )
     }
 
-}
\ No newline at end of file
+    @Test
+    fun testSameAsViaJson() {
+        val r = KVONDeserializer(Foo.serializer())
+        assertEquals(r.deserializeViaJson(fooInput), r.deserialize(fooInput))
+
+        val misc = KVON.Pairs(
+                "color" to "GREEN",
+                "id" to "123456789012",
+                "ratio" to "-1.5e3",
+                "maybe" to "7",
+                "flags" to """{"a": true}""",
+                "chars" to "xy",
+                "unknown" to "ignored",
+        )
+        val m = KVONDeserializer(Misc.serializer())
+        assertEquals(Misc(Color.GREEN, Id(123456789012), -1500.0, 7, mapOf("a" to true), "xy"), m.deserialize(misc))
+        assertEquals(m.deserializeViaJson(misc), m.deserialize(misc))
+    }
+
+    @Test
+    fun testMap() {
+        val input = KVON.Map(mapOf("a" to "1", "b[]" to "x", "c" to """{"d": 2}"""))
+        val r = KVONDeserializer(MapSerializer(String.serializer(), String.serializer()))
+        assertEquals(mapOf("a" to "1", "b[]" to "x"), r.deserialize(KVON.Map(input.map - "c")))
+        assertEquals(r.deserializeViaJson(KVON.Map(input.map - "c")), r.deserialize(KVON.Map(input.map - "c")))
+        assertFailsWith<SerializationException> { r.deserialize(input) }
+    }
+
+    /** Accepts `ex` as an alias of `x`, and defaults `y` to `0`. */
+    object LenientObjSerializer : JsonTransformingSerializer<Obj>(Obj.serializer()) {
+        override fun transformDeserialize(element: JsonElement) =
+            JsonObject(element.jsonObject.mapKeys { (k, _) -> if (k == "ex") "x" else k }
+                .let { if ("y" in it) it else it + ("y" to JsonPrimitive(0)) })
+    }
+
+    @Test
+    fun testJsonTransformingSerializer() {
+        val r = KVONDeserializer(LenientObjSerializer)
+        val input = KVON.Pairs("ex" to "5")
+        assertEquals(Obj(5, 0), r.deserialize(input))
+        assertEquals(r.deserializeViaJson(input), r.deserialize(input))
+        assertEquals(Obj(1, 2), r.deserialize(KVON.Pairs("x" to "1", "y" to "2")))
+    }
+
+    @Test
+    fun testErrors() {
+        val m = KVONDeserializer(Misc.serializer())
+        assertFailsWith<SerializationException> {
+            m.deserialize(KVON.Pairs("color" to "BLUE", "id" to "1", "ratio" to "1"))
+        }
+        assertFailsWith<SerializationException> {
+            m.deserialize(KVON.Pairs("color" to "RED", "id" to "x", "ratio" to "1"))
+        }
+        assertFailsWith<SerializationException> {
+            m.deserialize(KVON.Pairs("color" to "RED", "id" to "1"))
+        }
+        assertFailsWith<SerializationException> {
+            KVONDeserializer(Misc.serializer(), Json { }).deserialize(KVON.Pairs("color" to "RED", "id" to "1", "ratio" to "1", "x" to "y"))
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.jbali.kotser
+
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.builtins.ListSerializer
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class ParallelJsonDecodingTest {
+
+    @Serializable
+    data class Rec(
+        val id: Int,
+        val name: String,
+        val tags: List<String> = emptyList(),
+    )
+
+    private val json = DefaultJson.plain
+
+    // tricky strings, to check that the splitter doesn't split inside them
+    private val records = (0 until 1000).map { i ->
+        Rec(i, "rec $i, with [brackets] {braces} \"quotes\" \\", listOf("a,b", "]"))
+    }
+
+    // small chunks to get many of them
+    private val config = ParallelDecoding(chunkSize = 500, maxChunksInFlight = 3)
+
+    @Test fun testArray() {
+        val text = json.encodeToString(ListSerializer(Rec.serializer()), records)
+        assertEquals(records, json.decodeArrayParallel(Rec.serializer(), text.reader(), config).toList())
+        assertEquals(records, json.decodeArrayParallel(Rec.serializer(), " \n$text\n ".reader(), ParallelDecoding(chunkSize = 1)).toList())
+        assertEquals(emptyList<Rec>(), json.decodeArrayParallel(Rec.serializer(), " [ ] ".reader(), config).toList())
+    }
+
+    @Test fun testLines() {
+        val text = records.joinToString("\n", postfix = "\n\n") { json.encodeToString(Rec.serializer(), it) }
+        assertEquals(records, json.decodeLinesParallel(Rec.serializer(), text.reader(), config).toList())
+    }
+
+    @Test fun testFlow() {
+        val text = json.encodeToString(ListSerializer(Rec.serializer()), records)
+        runBlocking {
+            assertEquals(records, json.decodeArrayParallelFlow(Rec.serializer(), text.reader(), config).toList())
+            assertEquals(records.take(10), json.decodeArrayParallelFlow(Rec.serializer(), text.reader(), config).take(10).toList())
+        }
+    }
+
+    @Test fun testErrors() {
+        assertFailsWith<IllegalArgumentException> {
+            json.decodeArrayParallel(Rec.serializer(), "{}".reader(), config).toList()
+        }
+        assertFailsWith<IllegalArgumentException> {
+            json.decodeArrayParallel(Rec.serializer(), "[{\"id\": 1, \"name\": \"x\"}".reader(), config).toList()
+        }
+        assertFailsWith<SerializationException> {
+            json.decodeLinesParallel(Rec.serializer(), "{\"id\": 1, \"name\": \"x\"}\n{\"id\": \"x\"}".reader(), config).toList()
+        }
+    }
+
+}
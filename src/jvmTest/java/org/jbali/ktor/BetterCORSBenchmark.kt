@@ -0,0 +1,41 @@
+package org.jbali.ktor
+
+import io.ktor.http.*
+import org.jbali.test.Benchmark.nanosPerRun
+
+/**
+ * Compares the cached decisions of [BetterCORS] to evaluating them for each request, as the interceptor used to.
+ */
+object BetterCORSBenchmark {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val cors = BetterCORS(BetterCORS.Configuration().apply {
+            host("example.com", schemes = listOf("https"), subDomains = listOf("www", "api"))
+            host("*.example.com", schemes = listOf("https"))
+            host("example.org", schemes = listOf("http", "https"))
+            header(HttpHeaders.Authorization)
+            header("X-Request-ID")
+            allowHeadersPrefixed("x-app-")
+            method(HttpMethod.Put)
+            method(HttpMethod.Delete)
+        })
+        val origins = listOf("https://www.example.com", "https://api.example.com:443", "http://example.org", "https://evil.example.net")
+        val requestHeaders = "authorization, content-type, x-request-id, x-app-version"
+
+        var sink = 0
+        repeat(5) { round ->
+            val evaluated = nanosPerRun {
+                origins.forEach { if (cors.evaluateOrigin(it).allowed) sink++ }
+                sink += cors.evaluatePreflightHeaders(requestHeaders).allowHeadersValue.length
+            }
+            val cached = nanosPerRun {
+                origins.forEach { if (cors.originDecision(it).allowed) sink++ }
+                sink += cors.preflightHeaders(requestHeaders).allowHeadersValue.length
+            }
+            println("round $round: evaluated %6.0f ns, cached %6.0f ns, %.1fx".format(evaluated, cached, evaluated / cached))
+        }
+        println(sink)
+    }
+
+}
@@ -0,0 +1,73 @@
+package org.jbali.ktor
+
+import io.ktor.http.*
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class BetterCORSTest {
+
+    private fun cors(configure: BetterCORS.Configuration.() -> Unit = {}) =
+        BetterCORS(BetterCORS.Configuration().apply {
+            host("example.com", schemes = listOf("https"))
+            host("*.example.com", schemes = listOf("https"))
+            header("X-Custom")
+            allowHeadersPrefixed("x-prefixed-")
+            method(HttpMethod.Put)
+            configure()
+        })
+
+    @Test fun testOrigin() {
+        val cors = cors()
+
+        cors.originDecision("https://example.com").let {
+            assertTrue(it.valid)
+            assertTrue(it.allowed)
+            assertEquals("https://example.com:443", it.normalized)
+        }
+        assertTrue(cors.originDecision("https://a.example.com:443").allowed)
+        assertFalse(cors.originDecision("https://example.org").allowed)
+        assertFalse(cors.originDecision("http://example.com").allowed)
+        assertFalse(cors.originDecision("not an origin").valid)
+
+        // cached
+        assertSame(cors.originDecision("https://example.com"), cors.originDecision("https://example.com"))
+    }
+
+    @Test fun testCacheBounded() {
+        val cors = cors { decisionCacheSize = 2 }
+        val origins = (1..3).map { "https://s$it.example.com" }
+        val decisions = origins.map { cors.originDecision(it) }
+        assertSame(decisions[2], cors.originDecision(origins[2]))
+        // the least recently used was evicted
+        val first = cors.originDecision(origins[0])
+        assertTrue(first !== decisions[0])
+        assertTrue(first.allowed)
+        assertSame(first, cors.originDecision(origins[0]))
+
+        // still caches after many distinct origins
+        (1..10_000).forEach { cors.originDecision("https://r$it.example.org") }
+        val last = cors.originDecision("https://r10000.example.org")
+        assertSame(last, cors.originDecision("https://r10000.example.org"))
+
+        val uncached = cors { decisionCacheSize = 0 }
+        assertTrue(uncached.originDecision(origins[0]) !== uncached.originDecision(origins[0]))
+    }
+
+    @Test fun testPreflightHeaders() {
+        val cors = cors()
+
+        cors.preflightHeaders(null).let {
+            assertEquals(emptyList(), it.invalid)
+            assertEquals("X-Custom", it.allowHeadersValue)
+        }
+        cors.preflightHeaders("x-custom, Accept,X-Prefixed-Foo").let {
+            assertEquals(emptyList(), it.invalid)
+            assertEquals("X-Custom, x-prefixed-foo", it.allowHeadersValue)
+        }
+        assertEquals(listOf("x-other"), cors.preflightHeaders("X-Other,x-custom").invalid)
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.jbali.ktor
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import java.time.Duration
+import java.util.*
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class UuidReplayStoreTest {
+
+    private var now = 0L
+    private val minute = Duration.ofMinutes(1).toNanos()
+
+    private val store = UuidReplayStore(
+        retention = Duration.ofMinutes(15),
+        generations = 4,
+        stripes = 4,
+        nanoClock = { now },
+    )
+
+    @Test fun testReuse() {
+        val uuids = List(10_000) { UUID.randomUUID() }
+        uuids.forEach { assertTrue(store.add(it)) }
+        uuids.forEach { assertFalse(store.add(it)) }
+        assertEquals(uuids.size, store.size)
+        assertTrue(UUID(0, 0) !in store)
+        assertTrue(store.add(UUID(0, 0)))
+        assertFalse(store.add(UUID(0, 0)))
+    }
+
+    @Test fun testRetention() {
+        val u = UUID.randomUUID()
+        assertTrue(store.add(u))
+
+        // remembered for at least the retention
+        now += 15 * minute - 1
+        assertTrue(u in store)
+        assertFalse(store.add(u))
+
+        // and forgotten after at most retention * generations / (generations - 1)
+        now += 6 * minute
+        assertTrue(u !in store)
+        assertTrue(store.add(u))
+
+        // a long pause clears everything
+        now += 100 * minute
+        assertTrue(u !in store)
+        assertEquals(0, store.size)
+    }
+
+    @Test fun testGauges() {
+        val registry = SimpleMeterRegistry()
+        store.bindTo(registry, "test.seen")
+        repeat(100) { store.add(UUID.randomUUID()) }
+        assertEquals(100.0, registry.get("test.seen.entries").gauge().value())
+        assertTrue(registry.get("test.seen.bytes").gauge().value() >= 100 * 16)
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.jbali.net
+
+import org.jbali.io.createFreeTempDir
+import java.math.BigInteger
+import java.net.InetAddress
+import java.time.Duration
+import kotlin.random.Random
+import kotlin.test.*
+
+class CIDRSetTest {
+
+    private fun block(s: String) = CIDRBlock.parse(s)
+    private fun ip(s: String): InetAddress = InetAddress.getByName(s)
+
+    @Test fun testLongestMatch() {
+        val set = CIDRSet.of(mapOf(
+            block("10.0.0.0/8") to "ten",
+            block("10.1.0.0/16") to "ten-one",
+            block("10.1.2.3/32") to "host",
+            block("192.168.1.0/24") to "lan",
+            block("2001:db8::/32") to "doc",
+            block("2001:db8:0:1::/64") to "doc-1",
+            block("::1/128") to "localhost",
+        ))
+        assertEquals(7, set.size)
+
+        assertEquals("ten", set.longestMatch(ip("10.2.3.4"))?.value)
+        assertEquals("ten-one", set.longestMatch(ip("10.1.200.1"))?.value)
+        assertEquals("host", set.longestMatch(ip("10.1.2.3"))?.value)
+        assertEquals(block("10.1.2.3/32"), set.longestMatch(ip("10.1.2.3"))?.block)
+        assertEquals("lan", set.longestMatch(ip("192.168.1.255"))?.value)
+        assertNull(set.longestMatch(ip("192.168.2.1")))
+        assertNull(set.longestMatch(ip("11.0.0.1")))
+
+        assertEquals("doc", set.longestMatch(ip("2001:db8:ffff::1"))?.value)
+        assertEquals("doc-1", set.longestMatch(ip("2001:db8:0:1:ffff::1"))?.value)
+        assertEquals("localhost", set.longestMatch(ip("::1"))?.value)
+        assertNull(set.longestMatch(ip("::2")))
+
+        // families are separate
+        assertFalse(ip("0.0.0.1") in set)
+
+        assertTrue(set.containsIPv4(0x0A010203))
+        assertFalse(set.containsIPv4(0x0B000001))
+        assertTrue(set.containsIPv6(0x20010db8_00000001L, 42))
+        assertFalse(set.containsIPv6(0x20010db9_00000000L, 0))
+    }
+
+    @Test fun testBuilder() {
+        val all = CIDRSet.of(listOf(block("0.0.0.0/0"), block("::/0")))
+        assertTrue(ip("1.2.3.4") in all)
+        assertTrue(ip("ffff::1") in all)
+
+        val builder = CIDRSet.Builder<Int>()
+            .add(block("10.0.0.0/8"), 1)
+            // host bits are ignored, and the value is replaced
+            .add(block("10.1.2.3/8"), 2)
+        val set = builder.build()
+        assertEquals(1, set.size)
+        assertEquals(2, set.longestMatch(ip("10.9.9.9"))?.value)
+        assertFailsWith<IllegalStateException> { builder.add(block("1.0.0.0/8"), 3) }
+
+        assertFalse(ip("1.2.3.4") in CIDRSet.empty<Unit>())
+    }
+
+    @Test fun testSameAsLinearScan() {
+        val random = Random(1234)
+        fun randomIPv4() = InetAddress.getByAddress(random.nextBytes(4))
+        fun randomIPv6() = InetAddress.getByAddress(random.nextBytes(16))
+
+        // few distinct prefix bits, so there are many nested and overlapping blocks
+        val blocks = (0 until 2000).map {
+            if (random.nextBoolean()) {
+                CIDRBlock(InetAddress.getByAddress(byteArrayOf(10, random.nextInt(4).toByte(), random.nextInt(256).toByte(), 0)), random.nextInt(8, 25))
+            } else {
+                CIDRBlock(InetAddress.getByAddress(ByteArray(16).also { it[0] = 0x20; it[1] = random.nextInt(4).toByte(); it[7] = random.nextInt(256).toByte() }), random.nextInt(8, 65))
+            }
+        }
+        val set = CIDRSet.of(blocks.associateWith { it.toString() })
+        // blocks that differ only in host bits are the same
+        fun network(b: CIDRBlock<InetAddress>) =
+            Triple(b.address.address.size, b.prefixLength, BigInteger(1, b.address.address).shiftRight(b.address.address.size * 8 - b.prefixLength))
+        assertEquals(blocks.map(::network).toSet().size, set.size)
+        assertEquals(blocks.map(::network).toSet(), set.entries().map { network(it.block) }.toSet())
+
+        val ips = (0 until 2000).flatMap {
+            listOf(
+                randomIPv4(),
+                randomIPv6(),
+                InetAddress.getByAddress(byteArrayOf(10, random.nextInt(4).toByte(), random.nextInt(256).toByte(), random.nextInt(256).toByte())),
+                InetAddress.getByAddress(random.nextBytes(16).also { it[0] = 0x20; it[1] = random.nextInt(4).toByte(); it[2] = 0; it[3] = 0; it[4] = 0; it[5] = 0; it[6] = 0 }),
+            )
+        }
+        ips.forEach { ip ->
+            val expected = blocks.filter { ip in it }.maxOfOrNull { it.prefixLength }
+            assertEquals(expected, set.longestMatch(ip)?.block?.prefixLength, "$ip")
+            assertEquals(expected != null, ip in set, "$ip")
+        }
+    }
+
+    @Test fun testParse() {
+        val set = CIDRSet.parse("""
+            # office
+            192.0.2.0/24  allow
+            198.51.100.7 deny   scraper
+
+            2001:db8::/48
+        """.trimIndent())
+        assertEquals(3, set.size)
+        assertEquals("allow", set.longestMatch(ip("192.0.2.9"))?.value)
+        assertEquals("deny   scraper", set.longestMatch(ip("198.51.100.7"))?.value)
+        assertEquals("", set.longestMatch(ip("2001:db8::1"))?.value)
+
+        assertFailsWith<IllegalArgumentException> { CIDRSet.parse("1.2.3.4/33") }
+        assertFailsWith<IllegalArgumentException> { CIDRSet.parse("example.com") }
+    }
+
+    @Test fun testMonitored() {
+        createFreeTempDir(prefix = "cidrSet").use { tempDir ->
+            val file = tempDir.dir.resolve("blocks.txt").toFile()
+            MonitoredCIDRSet(file, pollInterval = Duration.ofMillis(100)).use { monitored ->
+                assertFalse(ip("10.0.0.1") in monitored)
+
+                file.writeText("10.0.0.0/8 internal\n")
+                val deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos()
+                while (ip("10.0.0.1") !in monitored && System.nanoTime() < deadline) {
+                    Thread.sleep(50)
+                }
+                assertEquals("internal", monitored.longestMatch(ip("10.0.0.1"))?.value)
+            }
+        }
+    }
+
+}
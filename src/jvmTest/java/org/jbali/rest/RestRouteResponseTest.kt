@@ -0,0 +1,80 @@
+package org.jbali.rest
+
+import io.ktor.http.*
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class RestRouteResponseTest {
+
+    @Test fun testETagMatches() {
+        assertTrue(etagMatches("abc", "abc"))
+        assertTrue(etagMatches("\"abc\"", "abc"))
+        assertTrue(etagMatches("W/\"abc\"", "abc"))
+        assertTrue(etagMatches("\"x\", \"abc\"", "abc"))
+        assertTrue(etagMatches("*", "abc"))
+        assertFalse(etagMatches("\"abcd\"", "abc"))
+        assertFalse(etagMatches("\"abc-gzip\"", "abc"))
+        assertFalse(etagMatches("", "abc"))
+    }
+
+    @Test fun testAcceptsGzip() {
+        assertTrue(acceptsGzip("gzip"))
+        assertTrue(acceptsGzip("deflate, GZIP"))
+        assertTrue(acceptsGzip("br;q=1.0, gzip;q=0.8"))
+        assertFalse(acceptsGzip("gzip;q=0"))
+        assertFalse(acceptsGzip("deflate, br"))
+        assertFalse(acceptsGzip("identity"))
+        assertFalse(acceptsGzip(null))
+    }
+
+    private fun variant(
+        ifNoneMatch: String? = null,
+        acceptEncoding: String? = "gzip",
+        method: HttpMethod = HttpMethod.Get,
+        status: HttpStatusCode = HttpStatusCode.OK,
+        size: Int = 2000,
+        precompress: Boolean = true,
+    ) = jsonResponseVariant(
+        method = method,
+        status = status,
+        etag = { if (method == HttpMethod.Get || method == HttpMethod.Head) "abc" else error("ETag computed for $method") },
+        size = size,
+        ifNoneMatch = ifNoneMatch,
+        acceptEncoding = acceptEncoding,
+        precompress = precompress,
+        precompressMinSize = 1024,
+    )
+
+    @Test fun testVariants() {
+        // gzip and identity have different ETags, and both vary on Accept-Encoding
+        assertEquals(JsonResponseVariant(gzip = true, etag = "abc-gzip", varyAcceptEncoding = true, notModified = false), variant())
+        assertEquals(JsonResponseVariant(gzip = false, etag = "abc", varyAcceptEncoding = true, notModified = false), variant(acceptEncoding = null))
+
+        // too small, or disabled: no precompression, so no Vary
+        assertEquals(JsonResponseVariant(gzip = false, etag = "abc", varyAcceptEncoding = false, notModified = false), variant(size = 100))
+        assertEquals(JsonResponseVariant(gzip = false, etag = "abc", varyAcceptEncoding = false, notModified = false), variant(precompress = false))
+
+        // no ETag for other methods
+        assertNull(variant(method = HttpMethod.Post).etag)
+    }
+
+    @Test fun testNotModified() {
+        assertTrue(variant(ifNoneMatch = "\"abc-gzip\"").notModified)
+        assertTrue(variant(ifNoneMatch = "\"abc-gzip\"", method = HttpMethod.Head).notModified)
+        assertTrue(variant(ifNoneMatch = "\"abc\"", acceptEncoding = null).notModified)
+        // 304 keeps Vary
+        assertTrue(variant(ifNoneMatch = "\"abc\"", acceptEncoding = null).varyAcceptEncoding)
+
+        // the ETag of the other representation doesn't match
+        assertFalse(variant(ifNoneMatch = "\"abc\"").notModified)
+        assertFalse(variant(ifNoneMatch = "\"abc-gzip\"", acceptEncoding = null).notModified)
+
+        assertFalse(variant(ifNoneMatch = "\"abc-gzip\"", status = HttpStatusCode.Created).notModified)
+        assertFalse(variant(ifNoneMatch = "*", method = HttpMethod.Post).notModified)
+        assertFalse(variant().notModified)
+    }
+
+}
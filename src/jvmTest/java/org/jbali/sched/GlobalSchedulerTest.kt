@@ -0,0 +1,50 @@
+package org.jbali.sched
+
+import java.time.Duration
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class GlobalSchedulerTest {
+
+    @Test fun testRun() {
+        val ran = CountDownLatch(1)
+        val task = GlobalScheduler.schedule(Scheduler.TaskToSchedule(
+            delay = Duration.ofMillis(10),
+            body = { ran.countDown() },
+            name = "testRun",
+        ))
+        assertTrue(ran.await(5, TimeUnit.SECONDS))
+        val deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos()
+        while (task.state != ScheduledTask.State.COMPLETED && System.nanoTime() < deadline) {
+            Thread.sleep(5)
+        }
+        assertEquals(ScheduledTask.State.COMPLETED, task.state)
+    }
+
+    @Test fun testCancelInterruptsRunning() {
+        val started = CountDownLatch(1)
+        val interrupted = CountDownLatch(1)
+        val task = GlobalScheduler.schedule(Scheduler.TaskToSchedule(
+            delay = Duration.ZERO,
+            body = {
+                started.countDown()
+                try {
+                    Thread.sleep(10_000)
+                } catch (e: InterruptedException) {
+                    interrupted.countDown()
+                }
+            },
+            name = "testCancelInterruptsRunning",
+        ))
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+        // the state can be read while the body runs
+        assertEquals(ScheduledTask.State.RUNNING, task.state)
+        assertTrue(task.cancel(interrupt = true))
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS))
+        assertEquals(ScheduledTask.State.CANCELLED, task.state)
+    }
+
+}
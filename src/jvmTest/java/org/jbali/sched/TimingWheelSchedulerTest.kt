@@ -0,0 +1,134 @@
+package org.jbali.sched
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class TimingWheelSchedulerTest {
+
+    private class ManualClock(var millis: Long = 1_000_000L) : Clock() {
+        override fun getZone(): ZoneId = ZoneOffset.UTC
+        override fun withZone(zone: ZoneId?) = this
+        override fun instant(): Instant = Instant.ofEpochMilli(millis)
+        override fun millis() = millis
+    }
+
+    private val clock = ManualClock()
+    private val sched = TimingWheelScheduler(
+        name = "test",
+        tickDuration = Duration.ofMillis(1),
+        wheelSize = 8,
+        executor = Executor { it.run() },
+        clock = clock,
+        autoTick = false,
+    )
+
+    private fun advanceMs(ms: Long) {
+        clock.millis += ms
+        sched.advance()
+    }
+
+    @Test fun testRunsInOrder() {
+        val ran = mutableListOf<String>()
+        // delays beyond the wheel size, to test multiple rounds
+        sched.afterMs(30).run("c") { ran += "c" }
+        sched.afterMs(5).run("a") { ran += "a" }
+        sched.afterMs(13).run("b") { ran += "b" }
+
+        advanceMs(4)
+        assertEquals(emptyList(), ran)
+        advanceMs(1)
+        assertEquals(listOf("a"), ran)
+        advanceMs(10)
+        assertEquals(listOf("a", "b"), ran)
+        advanceMs(100)
+        assertEquals(listOf("a", "b", "c"), ran)
+        assertTrue(sched.uncompletedTasks.isEmpty())
+    }
+
+    @Test fun testCancel() {
+        var ran = false
+        val t = sched.afterMs(10).run { ran = true }
+        assertEquals(ScheduledTask.State.SCHEDULED, t.state)
+        assertEquals(Duration.ofMillis(10), t.currentDelay)
+
+        advanceMs(3)
+        assertEquals(Duration.ofMillis(7), t.currentDelay)
+        assertTrue(t.cancel())
+        assertFalse(t.cancel())
+        assertEquals(ScheduledTask.State.CANCELLED, t.state)
+        assertNull(t.currentDelay)
+
+        advanceMs(20)
+        assertFalse(ran)
+    }
+
+    @Test fun testCancelBeforeTransfer() {
+        var ran = false
+        val t = sched.afterMs(1).run { ran = true }
+        assertTrue(t.cancel())
+        advanceMs(5)
+        assertFalse(ran)
+        assertEquals(0, sched.pendingCount)
+    }
+
+    @Test fun testStates() {
+        val ok = sched.afterMs(1).run {}
+        val err = sched.afterMs(1).run { throw RuntimeException("expected") }
+        var selfState: ScheduledTask.State? = null
+        lateinit var self: ScheduledTask
+        self = sched.afterMs(2).run { selfState = self.state }
+
+        advanceMs(2)
+        assertEquals(ScheduledTask.State.COMPLETED, ok.state)
+        assertEquals(ScheduledTask.State.ERRORED, err.state)
+        assertEquals(ScheduledTask.State.RUNNING, selfState)
+        assertEquals(Duration.ZERO, ok.currentDelay)
+        assertFalse(ok.cancel())
+    }
+
+    @Test fun testScheduleFromTask() {
+        val ran = mutableListOf<Int>()
+        sched.afterMs(2).run {
+            ran += 1
+            sched.afterMs(2).run { ran += 2 }
+        }
+        advanceMs(2)
+        assertEquals(listOf(1), ran)
+        advanceMs(1)
+        assertEquals(listOf(1), ran)
+        advanceMs(1)
+        assertEquals(listOf(1, 2), ran)
+    }
+
+    @Test fun testShutdown() {
+        val tasks = (1..5).map { sched.afterMs(it * 10).run {} }
+        tasks[0].cancel()
+        assertEquals(4, sched.shutdown())
+        assertTrue(tasks.all { it.state == ScheduledTask.State.CANCELLED })
+    }
+
+    @Test fun testRealTime() {
+        val rt = TimingWheelScheduler("realtime")
+        try {
+            val latch = CountDownLatch(100)
+            repeat(100) { i ->
+                rt.afterMs(i % 20).run { latch.countDown() }
+            }
+            assertTrue(latch.await(5, TimeUnit.SECONDS))
+        } finally {
+            rt.shutdown()
+        }
+    }
+
+}
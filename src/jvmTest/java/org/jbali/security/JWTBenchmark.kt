@@ -0,0 +1,44 @@
+package org.jbali.security
+
+import kotlinx.serialization.Serializable
+import org.jbali.test.Benchmark.nanosPerRun
+
+/**
+ * Measures the number of tokens [JWTManager] verifies per second, with and without the verified-token cache.
+ */
+object JWTBenchmark {
+
+    @Serializable
+    data class Claims(
+        val sub: String,
+        val roles: List<String>,
+        val exp: Long,
+    )
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val signer = JWTSigner.HS256(ByteArray(32) { it.toByte() })
+        val cached = JWTManager<Claims>(signer = signer)
+        val uncached = JWTManager<Claims>(signer = signer, verifiedCacheSize = 0)
+
+        val exp = System.currentTimeMillis() / 1000 + 3600
+        // as if presented by 100 sessions
+        val tokens = (0 until 100).map {
+            cached.issue(Claims("user$it", listOf("read", "write"), exp)).toString()
+        }
+
+        var sink = 0
+        repeat(5) { round ->
+            val u = nanosPerRun {
+                tokens.forEach { sink += uncached.verifyAndParse(JWT.fromString(it)).roles.size }
+            }
+            val c = nanosPerRun {
+                tokens.forEach { sink += cached.verifyAndParse(JWT.fromString(it)).roles.size }
+            }
+            println("round $round: uncached %,9.0f tokens/s, cached %,9.0f tokens/s, %.1fx".format(
+                tokens.size * 1e9 / u, tokens.size * 1e9 / c, u / c))
+        }
+        println(sink)
+    }
+
+}
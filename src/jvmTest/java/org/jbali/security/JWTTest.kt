@@ -0,0 +1,122 @@
+package org.jbali.security
+
+import kotlinx.serialization.Serializable
+import org.jbali.bytes.Base64Encoding
+import org.jbali.bytes.Base64String
+import java.time.Duration
+import java.time.Instant
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+class JWTTest {
+
+    @Serializable
+    data class Claims(
+        val sub: String,
+        val exp: Long? = null,
+    )
+
+    private var now = Instant.ofEpochSecond(1_000_000)
+
+    private fun manager(cacheSize: Int = 10) =
+        JWTManager(
+            payloadSerializer = Claims.serializer(),
+            signer = JWTSigner.HS256("secret".toByteArray()),
+            verifiedCacheSize = cacheSize,
+            verifiedCacheMaxAge = Duration.ofMinutes(5),
+            clock = { now },
+        )
+
+    @Test fun testIssueVerify() {
+        val m = manager()
+        val token = m.issue(Claims("alice"))
+        val parsed = JWT.fromString(token.toString())
+        assertEquals(token, parsed)
+        assertEquals("HS256", parsed.decodedHeader.alg)
+        assertEquals(Claims("alice"), m.verifyAndParse(parsed))
+
+        assertFailsWith<IllegalArgumentException> { JWT.fromString("a.b") }
+        assertFailsWith<IllegalArgumentException> { JWT.fromString("a.b.c.d") }
+
+        val other = JWTManager(Claims.serializer(), signer = JWTSigner.HS256("other".toByteArray()))
+        assertFailsWith<IllegalArgumentException> { other.verify(token) }
+    }
+
+    @Test fun testTamperedPayload() {
+        val m = manager()
+        val token = m.issue(Claims("alice"))
+        // cached now
+        m.verify(token)
+
+        val tampered = token.copy(payload = m.issue(Claims("mallory")).payload)
+        assertFailsWith<IllegalArgumentException> { m.verify(tampered) }
+        assertFailsWith<IllegalArgumentException> { m.verifyAndParse(tampered) }
+        assertEquals(Claims("alice"), m.verifyAndParse(token))
+    }
+
+    @Test fun testSignatureEncoding() {
+        val m = manager()
+        val token = m.issue(Claims("alice"))
+        val sig = token.signature.encoded.string.trimEnd('=')
+
+        // unpadded is fine
+        m.verify(token.copy(signature = JWTSignature(Base64String(sig))))
+
+        // but not with other unused bits in the last character, which decodes to the same bytes
+        val alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+        val variant = sig.dropLast(1) + alphabet[alphabet.indexOf(sig.last()) xor 1]
+        val tampered = token.copy(signature = JWTSignature(Base64String(variant)))
+        assertEquals(
+            Base64Encoding.Url.decodeString(token.signature.encoded).toList(),
+            Base64Encoding.Url.decodeString(tampered.signature.encoded).toList(),
+        )
+        assertFailsWith<IllegalArgumentException> { m.verify(tampered) }
+    }
+
+    @Test fun testCache() {
+        val m = manager()
+        val token = m.issue(Claims("alice"))
+        val first = m.verifyAndParse(token)
+        // parsed payload is cached
+        assertSame(first, m.verifyAndParse(JWT.fromString(token.toString())))
+
+        // until max age
+        now += Duration.ofMinutes(5)
+        assertNotSame(first, m.verifyAndParse(token))
+
+        // disabled
+        val uncached = manager(cacheSize = 0)
+        assertNotSame(uncached.verifyAndParse(token), uncached.verifyAndParse(token))
+    }
+
+    @Test fun testCacheExpiry() {
+        val m = manager()
+        val token = m.issue(Claims("alice", exp = now.epochSecond + 10))
+        val first = m.verifyAndParse(token)
+        now += Duration.ofSeconds(9)
+        assertSame(first, m.verifyAndParse(token))
+        // cached only until exp
+        now += Duration.ofSeconds(1)
+        assertNotSame(first, m.verifyAndParse(token))
+    }
+
+    @Test fun testCacheSize() {
+        val m = manager(cacheSize = 2)
+        val tokens = (1..3).map { m.issue(Claims("user$it", exp = now.epochSecond + it)) }
+        val parsed = tokens.map { m.verifyAndParse(it) }
+        assertSame(parsed[2], m.verifyAndParse(tokens[2]))
+        // the least recently used was evicted for the third
+        val first = m.verifyAndParse(tokens[0])
+        assertNotSame(parsed[0], first)
+        assertSame(first, m.verifyAndParse(tokens[0]))
+
+        // still caches after many tokens
+        (1..1000).forEach { m.verify(m.issue(Claims("other$it"))) }
+        val last = m.issue(Claims("last"))
+        assertSame(m.verifyAndParse(last), m.verifyAndParse(last))
+    }
+
+}
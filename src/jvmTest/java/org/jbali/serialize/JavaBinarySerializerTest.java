@@ -0,0 +1,99 @@
+package org.jbali.serialize;
+
+import com.google.common.collect.ImmutableList;
+import kotlin.collections.MapsKt;
+import kotlinx.serialization.json.*;
+import org.jbali.collect.Maps;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JavaBinarySerializerTest {
+
+	private static final List<Object> values = Arrays.asList(
+			12, -12, Integer.MIN_VALUE, 12L, Long.MIN_VALUE, Long.MAX_VALUE, (short) -12, (byte) -12, 12d, -0d, 12f, Float.NaN, '1', '\uffff',
+			8239492384723894L, 8912389912389823.32482934,
+			true, false,
+			null,
+			"Hi",
+			"",
+			"Non-ASCII: \u00e9\ud83d\ude00",
+			"Some bytes  123891238192389".getBytes(),
+			new byte[0],
+			LocalDate.now(),
+			new Date(),
+			Instant.now(),
+			ImmutableList.of("12", LocalDate.now(), true, 12),
+			JsonNull.INSTANCE,
+			new JsonObject(Maps.create(
+					"obj", new JsonObject(MapsKt.emptyMap()),
+					"blub", JsonElementKt.JsonPrimitive(12),
+					"arr", new JsonArray(Arrays.asList(JsonElementKt.JsonPrimitive("a"), JsonNull.INSTANCE))
+			))
+	);
+
+	private static void assertSameValue(Object v, Object us) {
+		assertEquals(vClass(v), vClass(us));
+		if (v instanceof byte[])
+			assertArrayEquals((byte[]) v, (byte[]) us);
+		else
+			assertEquals(v, us);
+	}
+
+	@Test
+	public void testRoundTrip() {
+		values.forEach(v -> assertSameValue(v, JavaBinarySerializer.unserialize(JavaBinarySerializer.serialize(v))));
+	}
+
+	@Test
+	public void testCompact() {
+		assertEquals(1, JavaBinarySerializer.serialize(null).length);
+		assertEquals(2, JavaBinarySerializer.serialize(12).length);
+		assertEquals(9, JavaBinarySerializer.serialize(12d).length);
+		assertEquals(1 + 1 + 100, JavaBinarySerializer.serialize(new byte[100]).length);
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final JavaBinarySerializer.Writer w = new JavaBinarySerializer.Writer(out);
+		for (Object v : values) {
+			w.write(v);
+		}
+
+		final JavaBinarySerializer.Reader r = new JavaBinarySerializer.Reader(new ByteArrayInputStream(out.toByteArray()));
+		for (Object v : values) {
+			assertTrue(r.hasNext());
+			assertSameValue(v, r.read());
+		}
+		assertFalse(r.hasNext());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncated() throws Exception {
+		final byte[] bytes = JavaBinarySerializer.serialize("truncated");
+		new JavaBinarySerializer.Reader(new ByteArrayInputStream(bytes, 0, bytes.length - 1)).read();
+	}
+
+	@Test
+	public void testJsonBridge() {
+		values.forEach(v -> assertSameValue(v, JavaJsonSerializer.unserialize(JavaJsonSerializer.serialize(v, true))));
+	}
+
+	private static String vClass(Object v) {
+		return v == null ? "null" : v.getClass().getSimpleName();
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.jbali.serialize
+
+import java.io.ByteArrayInputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.Serializable
+import java.time.DayOfWeek
+import java.time.Instant
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotSame
+import kotlin.test.assertSame
+
+class JavaSerializerTest {
+
+    private data class Holder(val items: List<Any?>) : Serializable
+
+    /** Serializes a nested message with [JavaSerializer] while being serialized itself */
+    private class Nested(@Transient var inner: Holder?) : Serializable {
+        private var innerBytes: ByteArray? = null
+
+        private fun writeObject(out: ObjectOutputStream) {
+            innerBytes = JavaSerializer.write(inner!!)
+            out.defaultWriteObject()
+        }
+
+        private fun readObject(ins: ObjectInputStream) {
+            ins.defaultReadObject()
+            inner = JavaSerializer.read(innerBytes!!) as Holder
+        }
+    }
+
+    @Test fun testIndependentMessages() {
+        val shared = arrayListOf("x")
+        val h = Holder(listOf(shared, shared, "y", 12L))
+
+        val b1 = JavaSerializer.write(h)
+        val b2 = JavaSerializer.write(h)
+        // no handles shared between messages, so each one is complete
+        assertContentEquals(b1, b2)
+
+        for (b in listOf(b1, b2)) {
+            val r = ObjectInputStream(ByteArrayInputStream(b)).readObject() as Holder
+            assertEquals(h, r)
+            // references within a message are preserved
+            assertSame(r.items[0], r.items[1])
+        }
+    }
+
+    @Test fun testRecoversFromError() {
+        assertFailsWith<RuntimeException> {
+            JavaSerializer.write(Holder(listOf(Any())))
+        }
+        assertEquals(Holder(listOf(1, "2")), JavaSerializer.copy(Holder(listOf(1, "2"))))
+    }
+
+    @Test fun testReentrant() {
+        val n = JavaSerializer.copy(Nested(Holder(listOf("inner"))))
+        assertEquals(Holder(listOf("inner")), n.inner)
+    }
+
+    @Test fun testCopy() {
+        val s = String(charArrayOf('a', 'b'))
+        assertSame(s, JavaSerializer.copy(s))
+        val i = Instant.now()
+        assertSame(i, JavaSerializer.copy(i))
+        assertSame(DayOfWeek.MONDAY, JavaSerializer.copy(DayOfWeek.MONDAY))
+
+        val l = arrayListOf(1, 2)
+        val c = JavaSerializer.copy(l)
+        assertEquals(l, c)
+        assertNotSame(l, c)
+    }
+
+}
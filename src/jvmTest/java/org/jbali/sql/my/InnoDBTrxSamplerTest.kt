@@ -0,0 +1,128 @@
+package org.jbali.sql.my
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.jbali.test.fakeResultSet
+import org.jbali.test.proxy
+import java.sql.Connection
+import java.sql.PreparedStatement
+import java.sql.Statement
+import java.time.Duration
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class InnoDBTrxSamplerTest {
+
+    private class FakeDb {
+        /** Rows of [trxColumns]. */
+        val trx = mutableListOf<List<Any?>>()
+        val trxColumns = listOf(
+            "trx_id", "trx_state", "trx_mysql_thread_id", "trx_rows_locked", "trx_query", "age_us", "wait_us", "blocking_trx_id",
+        )
+        var closed = 0
+        var connectionIdQueries = 0
+
+        fun connection(connectionId: Long): Connection = proxy { name, args ->
+            when (name) {
+                "prepareStatement" -> {
+                    assertEquals(InnoDBTrxSampler.SAMPLE_SQL, args[0])
+                    proxy<PreparedStatement> { n, _ ->
+                        when (n) {
+                            "executeQuery" -> fakeResultSet(trx, trxColumns)
+                            "close" -> null
+                            else -> throw UnsupportedOperationException(n)
+                        }
+                    }
+                }
+                "createStatement" -> proxy<Statement> { n, a ->
+                    when (n) {
+                        "executeQuery" -> {
+                            assertEquals("SELECT CONNECTION_ID()", a[0])
+                            connectionIdQueries++
+                            fakeResultSet(listOf(listOf(connectionId)), listOf("id"))
+                        }
+                        "close" -> null
+                        else -> throw UnsupportedOperationException(n)
+                    }
+                }
+                "close" -> { closed++; null }
+                "hashCode" -> System.identityHashCode(this)
+                else -> throw UnsupportedOperationException(name)
+            }
+        }
+    }
+
+    private fun trxRow(trxId: Long, threadId: Long, ageUs: Long, waitUs: Long? = null, blocking: Long? = null) =
+        listOf(
+            trxId,
+            if (waitUs == null) "RUNNING" else "LOCK WAIT",
+            threadId,
+            3L,
+            null,
+            ageUs,
+            waitUs,
+            blocking,
+        )
+
+    @Test fun testSample() {
+        val db = FakeDb()
+        val registry = SimpleMeterRegistry()
+        val sampler = InnoDBTrxSampler({ db.connection(0) }, registry = registry)
+
+        assertEquals(emptyList(), sampler.sample())
+        assertEquals(1, db.closed)
+
+        val appCon = db.connection(42)
+        val owner = InnoDBTrxOwner("worker-1", "call", null, null)
+        db.trx += trxRow(100, 42, ageUs = 2_000_000)
+        db.trx += trxRow(101, 43, ageUs = 500_000, waitUs = 300_000, blocking = 100)
+
+        sampler.track(appCon, owner).use {
+            val samples = sampler.sample()
+            assertEquals(2, samples.size)
+
+            val (own, other) = samples
+            assertEquals(100uL, own.trxId)
+            assertEquals(InnoDBTrxState.Running, own.trxState)
+            assertEquals(Duration.ofSeconds(2), own.age)
+            assertNull(own.lockWait)
+            assertNull(own.blockingTrxId)
+            assertEquals(owner, own.owner)
+
+            assertEquals(InnoDBTrxState.LockWait, other.trxState)
+            assertEquals(Duration.ofMillis(300), other.lockWait)
+            assertEquals(100uL, other.blockingTrxId)
+            assertNull(other.owner)
+        }
+
+        // connection ID is cached
+        sampler.track(appCon, owner).close()
+        assertEquals(1, db.connectionIdQueries)
+
+        // no longer tracked
+        assertNull(sampler.sample().first().owner)
+
+        assertEquals(3L, registry.get("jbali_innodb_trx_age").tag("owned", "false").timer().count())
+        assertEquals(1L, registry.get("jbali_innodb_trx_age").tag("owned", "true").timer().count())
+        assertEquals(2.0, registry.get("jbali_innodb_trx_age").tag("owned", "true").timer().totalTime(java.util.concurrent.TimeUnit.SECONDS))
+        assertEquals(2L, registry.get("jbali_innodb_lock_wait").tag("owned", "false").timer().count())
+        assertEquals(1.0, registry.get("jbali_innodb_trx_lock_waiting").gauge().value())
+        assertEquals(2.0, registry.get("jbali_innodb_trx_oldest").gauge().value())
+    }
+
+    @Test fun testStart() {
+        val db = FakeDb()
+        db.trx += trxRow(1, 1, ageUs = 1)
+        InnoDBTrxSampler({ db.connection(0) }, interval = Duration.ofMillis(10), registry = SimpleMeterRegistry()).use { sampler ->
+            sampler.start()
+            val deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos()
+            while (db.closed < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(5)
+            }
+            assertTrue(db.closed >= 2)
+            assertEquals(1, sampler.lastSample.size)
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package org.jbali.test
+
+import java.time.Duration
+
+/**
+ * Timing for the benchmarks in the test sources, which are `main` functions rather than tests,
+ * to be run manually with the test classpath.
+ */
+object Benchmark {
+
+    /**
+     * Run [r] repeatedly for at least [minDuration].
+     * @return the average nanos per run.
+     */
+    @JvmStatic
+    @JvmOverloads
+    fun nanosPerRun(minDuration: Duration = Duration.ofSeconds(1), r: Runnable): Double {
+        val minNanos = minDuration.toNanos()
+        var runs = 0
+        val start = System.nanoTime()
+        var elapsed: Long
+        do {
+            r.run()
+            runs++
+            elapsed = System.nanoTime() - start
+        } while (elapsed < minNanos)
+        return elapsed.toDouble() / runs
+    }
+
+}
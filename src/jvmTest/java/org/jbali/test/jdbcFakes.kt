@@ -0,0 +1,77 @@
+package org.jbali.test
+
+import java.io.ByteArrayInputStream
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.sql.ResultSet
+import java.sql.SQLException
+import java.sql.Statement
+
+/** Implements the interface [T] with [handler], for fakes of JDBC interfaces. */
+internal inline fun <reified T> proxy(crossinline handler: (name: String, args: Array<Any?>) -> Any?): T =
+    Proxy.newProxyInstance(T::class.java.classLoader, arrayOf(T::class.java)) { _, method, args ->
+        handler(method.name, args ?: emptyArray())
+    } as T
+
+/**
+ * Implements the interface [T] with [handler], which returns [Default] for methods it doesn't fake,
+ * making them return `false`, `0`, `null` or nothing.
+ */
+internal inline fun <reified T> lenientProxy(crossinline handler: (name: String, args: Array<Any?>) -> Any?): T =
+    Proxy.newProxyInstance(T::class.java.classLoader, arrayOf(T::class.java)) { _, method, args ->
+        handler(method.name, args ?: emptyArray()).let {
+            if (it === Default) defaultValue(method) else it
+        }
+    } as T
+
+internal object Default
+
+internal fun defaultValue(method: Method): Any? =
+    when (method.returnType) {
+        java.lang.Boolean.TYPE -> false
+        Integer.TYPE -> 0
+        java.lang.Long.TYPE -> 0L
+        else -> null
+    }
+
+/**
+ * Result set over [rows] of values, got by column index or by the label in [columnLabels],
+ * supporting only what the tests use.
+ */
+internal fun fakeResultSet(
+    rows: List<List<Any?>>,
+    columnLabels: List<String> = emptyList(),
+    statement: Statement? = null,
+    onClose: () -> Unit = {},
+): ResultSet {
+    var i = -1
+    var wasNull = false
+    fun get(column: Any?): Any? {
+        val index = when (column) {
+            is Int -> column - 1
+            else -> columnLabels.indexOf(column).also {
+                if (it < 0) throw SQLException("Column '$column' not found")
+            }
+        }
+        return rows[i][index].also { wasNull = it == null }
+    }
+    return proxy { name, args ->
+        when (name) {
+            "next" -> {
+                // like drivers, when the statement was closed, e.g. by Exposed executing the next one
+                if (statement?.isClosed == true) throw SQLException("Statement is closed")
+                ++i < rows.size
+            }
+            "getObject" -> get(args[0])
+            "getString" -> get(args[0])?.toString()
+            "getLong" -> (get(args[0]) as Number?)?.toLong() ?: 0L
+            "getInt" -> (get(args[0]) as Number?)?.toInt() ?: 0
+            "getBinaryStream" -> (get(args[0]) as String?)?.let { ByteArrayInputStream(it.toByteArray()) }
+            "wasNull" -> wasNull
+            "close" -> onClose()
+            "getStatement" -> statement
+            "hashCode" -> System.identityHashCode(rows)
+            else -> throw UnsupportedOperationException(name)
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.jbali.threads
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.*
+
+class ExecutorConfigTest {
+
+    private val registry = SimpleMeterRegistry()
+
+    private fun gauge(name: String, executor: String) =
+        registry.get(name).tag("executor", executor).gauge().value()
+
+    private fun completed(executor: String) =
+        registry.get("jbali_executor_completed").tag("executor", executor).functionCounter().count()
+
+    private fun awaitTrue(f: () -> Boolean) {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (!f() && System.nanoTime() < deadline) {
+            Thread.sleep(5)
+        }
+        assertTrue(f())
+    }
+
+    @Test fun testBounded() {
+        val ex = ExecutorConfig(ExecutorConfig.Mode.BOUNDED, maxThreads = 1, queueCapacity = 1)
+            .create("bounded", registry)
+        val release = CountDownLatch(1)
+
+        ex.execute { release.await() }
+        awaitTrue { gauge("jbali_executor_active", "bounded") == 1.0 }
+
+        ex.execute { }
+        assertEquals(1.0, gauge("jbali_executor_queued", "bounded"))
+
+        // queue is full, so runs in this thread
+        var ranIn: Thread? = null
+        ex.execute { ranIn = Thread.currentThread() }
+        assertSame(Thread.currentThread(), ranIn)
+
+        release.countDown()
+        ex.shutdown()
+        assertTrue(ex.awaitTermination(5, TimeUnit.SECONDS))
+        assertEquals(0.0, gauge("jbali_executor_active", "bounded"))
+        assertEquals(0.0, gauge("jbali_executor_queued", "bounded"))
+        // the task run by the caller is not counted
+        assertEquals(2.0, completed("bounded"))
+    }
+
+    @Test fun testCached() {
+        val ex = ExecutorConfig(ExecutorConfig.Mode.CACHED).create("cached", registry)
+        val tasks = 20
+        val started = CountDownLatch(tasks)
+        val release = CountDownLatch(1)
+
+        // more tasks than processors, all of which start immediately
+        repeat(tasks) {
+            ex.execute {
+                started.countDown()
+                release.await()
+            }
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS))
+        assertEquals(tasks.toDouble(), gauge("jbali_executor_active", "cached"))
+
+        release.countDown()
+        ex.shutdown()
+        assertTrue(ex.awaitTermination(5, TimeUnit.SECONDS))
+        assertEquals(tasks.toDouble(), completed("cached"))
+    }
+
+    @Test fun testVirtual() {
+        val config = ExecutorConfig(ExecutorConfig.Mode.VIRTUAL)
+        if (!ExecutorConfig.virtualThreadsSupported) {
+            assertFailsWith<UnsupportedOperationException> { config.create("virtual", registry) }
+            return
+        }
+
+        val ex = config.create("virtual", registry)
+        val release = CountDownLatch(1)
+        ex.execute { release.await() }
+        awaitTrue { gauge("jbali_executor_active", "virtual") == 1.0 }
+        release.countDown()
+        ex.shutdown()
+        assertTrue(ex.awaitTermination(5, TimeUnit.SECONDS))
+        assertEquals(0.0, gauge("jbali_executor_active", "virtual"))
+        assertEquals(1.0, completed("virtual"))
+    }
+
+    @Test fun testNoRegistry() {
+        val ex = ExecutorConfig(ExecutorConfig.Mode.BOUNDED, maxThreads = 2).create("unmetered", null)
+        assertEquals(42, ex.submit<Int> { 42 }.get(5, TimeUnit.SECONDS))
+        ex.shutdown()
+    }
+
+    @Test fun testFromSystemProperties() {
+        val prefix = "org.jbali.threads.ExecutorConfigTest"
+        val default = ExecutorConfig(maxThreads = 3)
+        assertEquals(default, ExecutorConfig.fromSystemProperties(prefix, default))
+
+        try {
+            System.setProperty("$prefix.mode", "bounded")
+            System.setProperty("$prefix.queueCapacity", "7")
+            assertEquals(
+                ExecutorConfig(ExecutorConfig.Mode.BOUNDED, maxThreads = 3, queueCapacity = 7),
+                ExecutorConfig.fromSystemProperties(prefix, default),
+            )
+        } finally {
+            System.clearProperty("$prefix.mode")
+            System.clearProperty("$prefix.queueCapacity")
+        }
+
+        assertFailsWith<IllegalArgumentException> { ExecutorConfig(maxThreads = 0) }
+        assertFailsWith<IllegalArgumentException> { ExecutorConfig(queueCapacity = 0) }
+    }
+
+}
@@ -0,0 +1,170 @@
+package org.jbali.threads;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class WindowedPacketOrdererTest {
+
+	@Test
+	public void testSimple() {
+
+		StringBuilder b = new StringBuilder();
+
+		WindowedPacketOrderer<Long> o = new WindowedPacketOrderer<Long>(p -> p, p -> {
+			b.append(p);
+			if (p == 8) throw new RuntimeException("8-[");
+		}, 16, null);
+
+		o.inPacket(1L);
+		o.inPacket(2L);
+		o.inPacket(4L);
+		o.inPacket(3L);
+		assertFalse(o.inPacket(1L));
+		o.inPacket(8L);
+		o.inPacket(7L);
+		o.inPacket(5L);
+		assertEquals(2, o.getStatus().waitingCount);
+		o.inPacket(6L);
+		o.inPacket(9L);
+
+		assertEquals("123456789", b.toString());
+		assertEquals(0, o.getStatus().waitingCount);
+		assertEquals(9, o.getStatus().lastSeq);
+
+	}
+
+	@Test
+	public void testLate() {
+
+		StringBuilder b = new StringBuilder();
+
+		WindowedPacketOrderer<Long> o = new WindowedPacketOrderer<Long>(p -> p, b::append, 16, null);
+
+		o.inPacket(1L);
+		o.inPacket(2L);
+		o.inPacket(3L);
+		// disconnected
+		o.inPacket(8L);
+		o.inPacket(7L);
+		o.inPacket(9L);
+
+		// restore con
+		o.latePackets(Arrays.asList(4L, 5L, 6L, 7L, 8L, 9L));
+
+		assertEquals("123456789", b.toString());
+
+	}
+
+	@Test
+	public void testWindow() {
+
+		StringBuilder b = new StringBuilder();
+
+		// rounded up to 4
+		WindowedPacketOrderer<Long> o = new WindowedPacketOrderer<Long>(p -> p, b::append, 3, null);
+
+		assertTrue(o.inPacket(4L));
+		assertFalse(o.inPacket(5L));
+		assertEquals(1, o.getDroppedCount());
+		o.latePackets(Arrays.asList(1L, 2L, 3L, 5L));
+
+		assertEquals("12345", b.toString());
+
+	}
+
+	@Test
+	public void testGapTimeout() {
+
+		StringBuilder b = new StringBuilder();
+		AtomicLong now = new AtomicLong();
+
+		WindowedPacketOrderer<Long> o = new WindowedPacketOrderer<Long>(
+				p -> p, b::append, 16, Duration.ofSeconds(1),
+				null, now::get
+		);
+
+		o.inPacket(1L);
+		o.inPacket(4L);
+		o.inPacket(5L);
+		now.addAndGet(Duration.ofMillis(999).toNanos());
+		o.checkGapTimeout();
+		assertEquals("1", b.toString());
+
+		now.addAndGet(Duration.ofMillis(1).toNanos());
+		o.inPacket(8L);
+		assertEquals("145", b.toString());
+		assertEquals(2, o.getSkippedCount());
+
+		// gap timer restarts when the previous gap is skipped
+		o.inPacket(7L);
+		assertEquals("145", b.toString());
+		now.addAndGet(Duration.ofSeconds(1).toNanos());
+		o.checkGapTimeout();
+		assertEquals("14578", b.toString());
+		assertEquals(3, o.getSkippedCount());
+
+		// skipped packets are not delivered late
+		assertFalse(o.inPacket(6L));
+
+	}
+
+	@Test
+	public void testState() {
+
+		StringBuilder b = new StringBuilder();
+
+		WindowedPacketOrderer<Long> o = new WindowedPacketOrderer<Long>(p -> p, b::append, 16, null);
+		o.inPacket(1L);
+		o.inPacket(3L);
+		o.inPacket(4L);
+
+		PacketOrdererState<Long> state = o.saveState();
+		assertEquals(1, state.getLastSeq());
+		assertEquals(Arrays.asList(3L, 4L), state.getWaiting());
+
+		WindowedPacketOrderer<Long> r = new WindowedPacketOrderer<Long>(p -> p, b::append, 16, null, state, System::nanoTime);
+		r.inPacket(2L);
+		assertEquals("1234", b.toString());
+
+	}
+
+	@Test
+	public void testMultiThread() {
+
+		AtomicLong tracker = new AtomicLong(0);
+
+		WindowedPacketOrderer<Long> o = new WindowedPacketOrderer<Long>(p -> p, p -> {
+			if (!tracker.compareAndSet(p-1, p)) {
+				fail("Got p but tracker has " + tracker.get());
+			}
+		}, 1024, null);
+
+		for (int s = 0; s < 10; s++) {
+			final int start = s;
+			ThreadPool.execute(() -> {
+				for (int n = start; n <= 1000; n+=10) {
+					o.inPacket(Long.valueOf(n));
+					try {
+						Thread.sleep((long) (Math.random() * 5));
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+		}
+
+		while (tracker.get() != 1000) {
+			Thread.yield();
+		}
+
+	}
+
+}
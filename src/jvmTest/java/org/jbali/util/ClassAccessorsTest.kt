@@ -0,0 +1,86 @@
+package org.jbali.util
+
+import org.jbali.text.textable
+import org.jbali.text.toTableString
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+
+class ClassAccessorsTest {
+
+    open class Base {
+        val base = "b"
+    }
+
+    private class Thing(
+        val name: String,
+        @JvmField val count: Int,
+        private val secret: String = "s",
+    ) : Base() {
+        val computed get() = "$name$count"
+    }
+
+    data class Row(val id: Int, val label: String?)
+
+    @JvmInline
+    value class Code(val code: String)
+
+    @JvmInline
+    value class Amount(val cents: Long) {
+        val euros get() = cents / 100
+    }
+
+    data class Priced(val code: Code, val amount: Amount, val maybe: Code?)
+
+    @Test fun testObjMap() {
+        val m = ObjMap(Thing("x", 2))
+        assertEquals<Map<String, Any?>>(mapOf("name" to "x", "count" to 2, "computed" to "x2", "base" to "b"), m)
+        assertEquals(m.entries.map { it.key }.toSet(), m.keys.toSet())
+        assertEquals("x2", m["computed"])
+        assertEquals(2, m["count"])
+        assertEquals(null, m["secret"])
+        assertEquals(mapOf("name" to "x", "count" to 2, "computed" to "x2", "base" to "b").hashCode(), m.hashCode())
+    }
+
+    @Test fun testValueClasses() {
+        val p = Priced(Code("a"), Amount(250), Code("b"))
+        // boxed, like KProperty1.get
+        assertEquals<Map<String, Any?>>(mapOf("code" to Code("a"), "amount" to Amount(250), "maybe" to Code("b")), ObjMap(p))
+        assertEquals(Code("a"), ClassAccessors.of(Priced::class).byName.getValue("code").get(p))
+        // properties of a value class
+        assertEquals(2L, ClassAccessors.of(Amount::class).byName.getValue("euros").get(Amount(250)))
+        assertEquals(
+            listOf(
+                "code         | amount            | maybe",
+                "-----------------------------------------------",
+                "Code(code=a) | Amount(cents=250) | Code(code=b)",
+            ),
+            textable(listOf(p)).toList().map { it.trimEnd() },
+        )
+    }
+
+    @Test fun testCached() {
+        assertSame(ClassAccessors.of(Row::class), ClassAccessors.of(Row::class))
+        assertEquals(listOf("id", "label"), ClassAccessors.of(Row::class).columns.map { it.name })
+    }
+
+    @Test fun testTextable() {
+        var reads = 0
+        val rows = generateSequence(0) { it + 1 }.take(3).map { reads++; Row(it, if (it == 1) null else "row $it") }.constrainOnce()
+        assertEquals(
+            listOf(
+                "id | label",
+                "----------",
+                "0  | row 0",
+                "1  |      ",
+                "2  | row 2",
+            ),
+            textable(rows).toList()
+        )
+        assertEquals(3, reads)
+
+        val rowList = listOf(Row(10, "a"), Row(2, "bb"))
+        assertEquals(textable(rowList).joinToString("\n") + "\n", rowList.toTableString())
+    }
+
+}